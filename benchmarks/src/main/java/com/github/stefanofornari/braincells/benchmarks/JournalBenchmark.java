@@ -0,0 +1,97 @@
+package com.github.stefanofornari.braincells.benchmarks;
+
+import com.github.stefanofornari.braincells.Brain;
+import com.github.stefanofornari.braincells.Journal;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Wiring a RANDOM brain while a Journal records it, forcing every connection
+ * to disk (interval 0) or in groups every interval milliseconds; a negative
+ * interval wires without journal. recover() replays what wire() journaled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JournalBenchmark {
+
+    @Param({"10000"})
+    public int size;
+
+    @Param({"4"})
+    public int density;
+
+    @Param({"-1", "0", "50"})
+    public int interval;
+
+    private Path dir, recorded;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("journal");
+        recorded = Files.createTempDirectory("recorded");
+        try (Journal journal = Journal.open(recorded)) {
+            Topologies.wire(journal.recover(() -> new Brain(size)), Topologies.Shape.RANDOM, density, 42);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        delete(dir);
+        delete(recorded);
+    }
+
+    @Benchmark
+    public int wire() throws IOException {
+        if (interval < 0) {
+            return Topologies.wire(new Brain(size), Topologies.Shape.RANDOM, density, 42).resistance(0);
+        }
+        delete(dir);
+        try (Journal journal = Journal.open(dir).interval(Duration.ofMillis(interval))) {
+            Brain brain = journal.recover(() -> new Brain(size));
+            return Topologies.wire(brain, Topologies.Shape.RANDOM, density, 42).resistance(0);
+        }
+    }
+
+    @Benchmark
+    public int recover() throws IOException {
+        try (Journal journal = Journal.open(recorded)) {
+            return journal.recover(() -> new Brain(size)).freeze().connections();
+        } finally {
+            //
+            // only the recorded segment is kept
+            //
+            try (Stream<Path> files = Files.list(recorded)) {
+                files.filter(f -> !f.endsWith("segment-1.log")).forEach(f -> f.toFile().delete());
+            }
+        }
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.stefanofornari.braincells.benchmarks;
+
+import com.github.stefanofornari.braincells.Brain;
+import com.github.stefanofornari.braincells.Propagation;
+import com.github.stefanofornari.braincells.Thought;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * think() with the scalar and the Vector API kernels (see system property
+ * braincells.kernel) on randomly wired brains, whose cells are too sparse
+ * to get neighbour masks. Each parameter set runs in its own JVM, so the
+ * kernel is chosen before the brain classes are loaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class KernelBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"16", "64"})
+    public int density;
+
+    @Param({"SWEEP", "FRONTIER"})
+    public Propagation propagation;
+
+    @Param({"scalar", "vector"})
+    public String kernel;
+
+    private Brain brain;
+    private int[] input;
+
+    @Setup
+    public void setup() {
+        System.setProperty("braincells.kernel", kernel);
+        brain = Topologies.wire(new Brain(size, 2), Topologies.Shape.RANDOM, density, 42).propagation(propagation);
+        brain.freeze();
+        input = Topologies.inputs(size, 64, 24);
+    }
+
+    @Benchmark
+    public Thought think() {
+        return brain.rest().activate(input).think();
+    }
+}
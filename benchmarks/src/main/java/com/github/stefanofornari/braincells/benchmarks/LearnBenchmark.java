@@ -0,0 +1,81 @@
+package com.github.stefanofornari.braincells.benchmarks;
+
+import com.github.stefanofornari.braincells.Brain;
+import com.github.stefanofornari.braincells.BrainTrainer;
+import com.github.stefanofornari.braincells.Sample;
+import com.github.stefanofornari.braincells.Training;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A training session on a blank brain: for each sample rest(), activate(),
+ * think() and BrainTrainer.learn(), or the same samples through a Training
+ * in one mini-batch thought in parallel. One operation is a whole session.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LearnBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"64"})
+    public int samples;
+
+    @Param({"4", "64"})
+    public int outputs;
+
+    private int[][] inputs, ons;
+    private List<Sample> batch;
+
+    @Setup
+    public void setup() {
+        inputs = new int[samples][];
+        ons = new int[samples][];
+        for (int i = 0; i < samples; ++i) {
+            inputs[i] = Topologies.inputs(size, 4, i);
+            ons[i] = Topologies.inputs(size, outputs, -i);
+        }
+        batch = new ArrayList<>(samples);
+        for (int i = 0; i < samples; ++i) {
+            batch.add(new Sample(inputs[i], ons[i], new int[0]));
+        }
+    }
+
+    @Benchmark
+    public Brain learn() {
+        Brain brain = new Brain(size);
+        BrainTrainer trainer = new BrainTrainer(brain);
+
+        for (int i = 0; i < samples; ++i) {
+            brain.rest().activate(inputs[i]).think();
+            trainer.learn(ons[i], new int[0]);
+        }
+
+        return brain;
+    }
+
+    @Benchmark
+    public Brain train() {
+        Brain brain = new Brain(size);
+        new Training(brain).batch(samples).epoch(batch.iterator());
+
+        return brain;
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.stefanofornari.braincells.benchmarks;
+
+import com.github.stefanofornari.braincells.Brain;
+import com.github.stefanofornari.braincells.Pipeline;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Patterns thought through a Pipeline: each operation submits a stream of
+ * patterns and waits for all results, so throughput is in patterns/s divided
+ * by the number of patterns.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+    @Param({"10000"})
+    public int size;
+
+    @Param({"16"})
+    public int density;
+
+    @Param({"RANDOM"})
+    public Topologies.Shape shape;
+
+    @Param({"1", "64"})
+    public int batch;
+
+    @Param({"1024"})
+    public int patterns;
+
+    @Param({"256"})
+    public int capacity;
+
+    Pipeline pipeline;
+    ExecutorService executor;
+    int[][] inputs;
+
+    @Setup
+    public void setup() {
+        Brain brain = Topologies.wire(new Brain(size, 2), shape, density, 42);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        pipeline = new Pipeline(brain, capacity)
+            .batch(batch)
+            .parallelism(Runtime.getRuntime().availableProcessors())
+            .executor(executor);
+        inputs = new int[patterns][];
+        for (int i = 0; i < patterns; ++i) {
+            inputs[i] = Topologies.inputs(size, 16, i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.close();
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public CompletableFuture<?>[] stream() throws InterruptedException {
+        CompletableFuture<?>[] results = new CompletableFuture<?>[inputs.length];
+        for (int i = 0; i < inputs.length; ++i) {
+            results[i] = pipeline.submit(inputs[i]);
+        }
+        CompletableFuture.allOf(results).join();
+
+        return results;
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.stefanofornari.braincells.benchmarks;
+
+import com.github.stefanofornari.braincells.Brain;
+import com.github.stefanofornari.braincells.BrainState;
+import com.github.stefanofornari.braincells.Propagation;
+import com.github.stefanofornari.braincells.Thought;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inference on one shared brain, each benchmark thread with its own
+ * BrainState (run with -t to set the number of threads).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        @Param({"100000"})
+        public int size;
+
+        @Param({"16"})
+        public int density;
+
+        @Param({"RANDOM"})
+        public Topologies.Shape shape;
+
+        @Param({"SWEEP", "FRONTIER"})
+        public Propagation propagation;
+
+        Brain brain;
+
+        @Setup
+        public void setup() {
+            brain = Topologies.wire(new Brain(size, 2), shape, density, 42).propagation(propagation);
+            brain.freeze();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Local {
+
+        BrainState state;
+        int[] input;
+
+        @Setup
+        public void setup(Shared shared) {
+            state = shared.brain.state();
+            input = Topologies.inputs(shared.size, 64, Thread.currentThread().getId());
+        }
+    }
+
+    @Benchmark
+    public Thought think(Local local) {
+        return local.state.rest().activate(local.input).think();
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.stefanofornari.braincells.benchmarks;
+
+import com.github.stefanofornari.braincells.Brain;
+import com.github.stefanofornari.braincells.Propagation;
+import com.github.stefanofornari.braincells.Thought;
+import com.github.stefanofornari.braincells.ThoughtCache;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * rest(), activate() and think() on a frozen brain, with a growing number of
+ * input cells (fan-out).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThinkBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"4", "16"})
+    public int density;
+
+    @Param({"CHAIN", "LATTICE", "RANDOM"})
+    public Topologies.Shape shape;
+
+    @Param({"SWEEP", "FRONTIER", "PARALLEL", "COMPILED"})
+    public Propagation propagation;
+
+    @Param({"1", "64"})
+    public int inputs;
+
+    @Param({"1"})
+    public int resistance;
+
+    /**
+     * Whether the brain is reordered (see Brain.reorder()) before thinking
+     */
+    @Param({"false"})
+    public boolean reorder;
+
+    private Brain brain;
+    private ThoughtCache cache;
+    private int[] input;
+    private int[][] batch;
+
+    @Setup
+    public void setup() {
+        brain = Topologies.wire(new Brain(size, resistance), shape, density, 42).propagation(propagation);
+        if (reorder) {
+            brain.reorder();
+        }
+        brain.freeze();
+        cache = new ThoughtCache(brain, 16);
+        input = Topologies.inputs(size, inputs, 24);
+        batch = new int[64][];
+        for (int i = 0; i < batch.length; ++i) {
+            batch[i] = Topologies.inputs(size, inputs, i);
+        }
+    }
+
+    @Benchmark
+    public Thought think() {
+        return brain.rest().activate(input).think();
+    }
+
+    /**
+     * think() through a ThoughtCache, always hit after the first operation
+     */
+    @Benchmark
+    public Thought cached() {
+        return cache.think(input);
+    }
+
+    /**
+     * 64 patterns per operation, independent of the propagation mode
+     */
+    @Benchmark
+    public long[][] thinkBatch() {
+        return brain.thinkBatch(batch);
+    }
+}
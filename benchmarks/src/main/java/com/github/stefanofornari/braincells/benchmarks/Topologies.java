@@ -0,0 +1,88 @@
+package com.github.stefanofornari.braincells.benchmarks;
+
+import com.github.stefanofornari.braincells.Brain;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Wiring of brains used by the benchmarks.
+ */
+public class Topologies {
+
+    public enum Shape {
+        /**
+         * Cell i promotes cells i+1 ... i+density/2: activations travel along
+         * the whole brain one step at a time
+         */
+        CHAIN,
+        /**
+         * Cells on a square grid, each one promoting the cells up to
+         * density/4 steps to its right and below it
+         */
+        LATTICE,
+        /**
+         * LATTICE with the cells numbered at random: the same connections,
+         * without any locality in the indices (see Brain.reorder())
+         */
+        SCRAMBLED,
+        /**
+         * size*density/2 connections between random cells, one every four
+         * detracting
+         */
+        RANDOM
+    }
+
+    public static Brain wire(Brain brain, Shape shape, int density, long seed) {
+        final int size = brain.size;
+
+        switch (shape) {
+            case CHAIN:
+                for (int i = 0; i < size; ++i) {
+                    for (int d = 1; (d <= Math.max(1, density/2)) && (i + d < size); ++d) {
+                        brain.promoter(i, i + d);
+                    }
+                }
+                break;
+
+            case LATTICE:
+            case SCRAMBLED:
+                int[] cell = (shape == Shape.LATTICE)
+                           ? IntStream.range(0, size).toArray()
+                           : new Random(seed).ints(0, size).distinct().limit(size).toArray();
+                int side = (int)Math.ceil(Math.sqrt(size));
+                for (int i = 0; i < size; ++i) {
+                    for (int d = 1; d <= Math.max(1, density/4); ++d) {
+                        if ((i % side) + d < side && (i + d < size)) {
+                            brain.promoter(cell[i], cell[i + d]);
+                        }
+                        if (i + d*side < size) {
+                            brain.promoter(cell[i], cell[i + d*side]);
+                        }
+                    }
+                }
+                break;
+
+            case RANDOM:
+                Random r = new Random(seed);
+                for (long n = (long)size * density / 2; n > 0; --n) {
+                    int a = r.nextInt(size), b = r.nextInt(size);
+                    if (r.nextInt(4) == 0) {
+                        brain.detractor(a, b);
+                    } else {
+                        brain.promoter(a, b);
+                    }
+                }
+                break;
+        }
+
+        return brain;
+    }
+
+    /**
+     * @return count distinct random cells
+     */
+    public static int[] inputs(int size, int count, long seed) {
+        Random r = new Random(seed);
+        return r.ints(0, size).distinct().limit(Math.min(count, size)).toArray();
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.stefanofornari.braincells.benchmarks;
+
+import com.github.stefanofornari.braincells.Brain;
+import com.github.stefanofornari.braincells.BrainMetrics;
+import com.github.stefanofornari.braincells.Thought;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A brain that already thought its inputs gets one more input cell switched
+ * on and then off again: with update() (incremental) or with activate() and
+ * think() (from scratch). One operation is one switch; rest() measures a
+ * rest() followed by update() of a single cell.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"4", "16"})
+    public int density;
+
+    @Param({"CHAIN", "LATTICE", "RANDOM"})
+    public Topologies.Shape shape;
+
+    @Param({"2"})
+    public int resistance;
+
+    /**
+     * Whether the brain reports to a BrainMetrics
+     */
+    @Param({"false"})
+    public boolean metrics;
+
+    private Brain brain;
+    private int[] cell, none = new int[0];
+    private boolean on;
+
+    @Setup
+    public void setup() {
+        brain = Topologies.wire(new Brain(size, resistance), shape, density, 42);
+        if (metrics) {
+            brain.metrics(new BrainMetrics());
+        }
+        brain.update(Topologies.inputs(size, 64, 24), none);
+        cell = Topologies.inputs(size, 1, 7);
+        on = false;
+    }
+
+    @Benchmark
+    public Thought update() {
+        on = !on;
+        return on ? brain.update(cell, none) : brain.update(none, cell);
+    }
+
+    @Benchmark
+    public Thought think() {
+        on = !on;
+        brain.cells[cell[0]].setActive(on);
+        return brain.think();
+    }
+
+    @Benchmark
+    public Thought rest() {
+        brain.rest();
+        return brain.update(cell, none);
+    }
+}
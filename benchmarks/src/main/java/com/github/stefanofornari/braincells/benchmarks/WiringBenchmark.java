@@ -0,0 +1,106 @@
+package com.github.stefanofornari.braincells.benchmarks;
+
+import com.github.stefanofornari.braincells.Brain;
+import com.github.stefanofornari.braincells.BrainLoader;
+import com.github.stefanofornari.braincells.Storage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creation of a brain, its wiring with promoter()/detractor() and its
+ * compaction with freeze(), on the heap and off-heap. Brains are closed at
+ * the end of each operation, so that off-heap memory is released as soon as
+ * possible (run with -prof gc to compare the garbage collection).
+ *
+ * load() wires the same connections as wireAndFreeze() with a BrainLoader,
+ * from edge lists prepared beforehand (only for RANDOM brains).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WiringBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"4", "16"})
+    public int density;
+
+    @Param({"CHAIN", "LATTICE", "RANDOM"})
+    public Topologies.Shape shape;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public Storage storage;
+
+    private int[][] promoters, detractors;
+
+    @Setup
+    public void setup() {
+        //
+        // the connections Topologies.wire() makes for RANDOM
+        //
+        int[][] edges = new int[4][(int)((long)size * density / 2)];
+        int p = 0, d = 0;
+        Random r = new Random(42);
+        for (long n = (long)size * density / 2; n > 0; --n) {
+            int a = r.nextInt(size), b = r.nextInt(size);
+            if (r.nextInt(4) == 0) {
+                edges[2][d] = a; edges[3][d++] = b;
+            } else {
+                edges[0][p] = a; edges[1][p++] = b;
+            }
+        }
+        promoters = new int[][] {Arrays.copyOf(edges[0], p), Arrays.copyOf(edges[1], p)};
+        detractors = new int[][] {Arrays.copyOf(edges[2], d), Arrays.copyOf(edges[3], d)};
+    }
+
+    @Benchmark
+    public int create() {
+        try (Brain brain = new Brain(size, 1, storage)) {
+            return brain.size;
+        }
+    }
+
+    @Benchmark
+    public int wire() {
+        try (Brain brain = Topologies.wire(new Brain(size, 1, storage), shape, density, 42)) {
+            return brain.resistance(0);
+        }
+    }
+
+    @Benchmark
+    public int wireAndFreeze() {
+        try (Brain brain = Topologies.wire(new Brain(size, 1, storage), shape, density, 42)) {
+            return brain.freeze().connections();
+        }
+    }
+
+    @Benchmark
+    public int load() {
+        if (shape != Topologies.Shape.RANDOM) {
+            return 0;
+        }
+        try (Brain brain = new Brain(size, 1, storage)) {
+            new BrainLoader(brain)
+                .promoters(promoters[0], promoters[1])
+                .detractors(detractors[0], detractors[1])
+                .load();
+            return brain.freeze().connections();
+        }
+    }
+}
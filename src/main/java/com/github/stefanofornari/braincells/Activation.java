@@ -0,0 +1,154 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.Arrays;
+
+/**
+ * The activation state of the cells of a brain, one bit per cell: cell i is
+ * active if bit (i % 64) of word i / 64 is set.
+ * 
+ * To make clear() constant time, each word is stamped with the epoch it was
+ * last written in and clear() just starts a new epoch: a word stamped with
+ * an older epoch reads as 0 and is actually zeroed the first time it is
+ * written again. Inside the package words must therefore be read with
+ * word(), or through words(), which zeroes all stale words at once.
+ */
+public final class Activation {
+
+    public final int size;
+
+    final long[] words;
+    
+    private final int[] stamps;
+    private int epoch = 0;
+    private boolean stale = false;
+
+    public Activation(int size) {
+        this(size, new long[(size + 63) >>> 6]);
+    }
+
+    Activation(int size, long[] words) {
+        this.size = size;
+        this.words = words;
+        this.stamps = new int[words.length];
+    }
+
+    public boolean get(int cell) {
+        return (word(cell >>> 6) & (1L << cell)) != 0;
+    }
+
+    public void set(int cell) {
+        words[touch(cell >>> 6)] |= (1L << cell);
+    }
+
+    public void clear(int cell) {
+        words[touch(cell >>> 6)] &= ~(1L << cell);
+    }
+
+    public void set(int cell, boolean active) {
+        if (active) {
+            set(cell);
+        } else {
+            clear(cell);
+        }
+    }
+
+    /**
+     * De-activates all cells, in constant time
+     */
+    public void clear() {
+        if (++epoch == 0) {
+            //
+            // the epoch wrapped around, old stamps could look current again
+            //
+            Arrays.fill(words, 0);
+            Arrays.fill(stamps, 0);
+            stale = false;
+        } else {
+            stale = true;
+        }
+    }
+
+    /**
+     * @return the number of active cells
+     */
+    public int count() {
+        int count = 0;
+        for (int w = 0; w < words.length; ++w) {
+            count += Long.bitCount(word(w));
+        }
+        return count;
+    }
+
+    /**
+     * @return the index of the first active cell at or after the given one, -1
+     *         if there are none
+     */
+    public int next(int from) {
+        int w = from >>> 6;
+        if (w >= words.length) {
+            return -1;
+        }
+        long word = word(w) & (-1L << from);
+        while (word == 0) {
+            if (++w == words.length) {
+                return -1;
+            }
+            word = word(w);
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * @return a copy of the activation bits (see words)
+     */
+    public long[] snapshot() {
+        return words().clone();
+    }
+
+    /**
+     * Replaces the current state with a snapshot taken with snapshot()
+     */
+    public void restore(long[] snapshot) {
+        if (snapshot.length != words.length) {
+            throw new IllegalArgumentException(
+                "snapshot of " + snapshot.length + " words does not fit a brain of " + size + " cells"
+            );
+        }
+        System.arraycopy(snapshot, 0, words, 0, words.length);
+        Arrays.fill(stamps, epoch);
+        stale = false;
+    }
+
+    long word(int w) {
+        return (stamps[w] == epoch) ? words[w] : 0;
+    }
+    
+    /**
+     * @return the activation bits, all current; they can be read and written
+     *         directly until the next clear()
+     */
+    long[] words() {
+        if (stale) {
+            for (int w = 0; w < words.length; ++w) {
+                touch(w);
+            }
+            stale = false;
+        }
+        return words;
+    }
+    
+    // --------------------------------------------------------- Private methods
+    
+    /**
+     * Zeroes word w if stale and stamps it with the current epoch
+     * 
+     * @return w
+     */
+    private int touch(int w) {
+        if (stamps[w] != epoch) {
+            words[w] = 0;
+            stamps[w] = epoch;
+        }
+        return w;
+    }
+}
@@ -0,0 +1,396 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * One kind of connections (promoting or detracting) of a brain, kept in
+ * compressed sparse row (CSR) form: the neighbours of cell i are
+ * neighbours[offsets[i]] ... neighbours[offsets[i+1]-1], sorted by index.
+ * The CSR arrays are buffers so that they can live in a mapped file (see
+ * BrainImage) or off-heap (see Storage).
+ *
+ * Connections added after the last compaction are staged in a linked list
+ * per cell (in the same kind of buffers: head and tail node of each cell,
+ * and next node and neighbour of each node, node 0 ending the lists) and
+ * merged into the CSR arrays in bulk by compact(). Compaction always
+ * allocates new arrays, so the ones handed out to a Topology are never
+ * modified afterwards.
+ */
+class Adjacency {
+
+    /**
+     * The bits of a cell in the packed connections of addAll()
+     */
+    static final long CELL = (1L << 31) - 1;
+
+    final int size;
+
+    IntBuffer offsets;
+    IntBuffer neighbours;
+
+    private final Memory memory;
+    
+    private IntBuffer stagedCount, head, tail;
+    private IntBuffer next, staged;
+    private int pending;
+
+    Adjacency(int size, Memory memory) {
+        this(size, memory.ints(size+1), memory.ints(0), memory);
+    }
+
+    /**
+     * Creates an adjacency from already compacted CSR buffers
+     */
+    Adjacency(int size, IntBuffer offsets, IntBuffer neighbours, Memory memory) {
+        this.size = size;
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.memory = memory;
+        this.stagedCount = memory.ints(size);
+        this.head = memory.ints(size);
+        this.tail = memory.ints(size);
+        this.next = memory.ints(16);
+        this.staged = memory.ints(16);
+        this.pending = 0;
+    }
+
+    /**
+     * Adds the directed connection a -> b unless already present.
+     *
+     * @return true if the connection has been added, false otherwise
+     */
+    boolean add(int a, int b) {
+        if (contains(a, b)) {
+            return false;
+        }
+
+        int node = ++pending;
+        if (node == staged.limit()) {
+            next = memory.copy(next, 2 * node);
+            staged = memory.copy(staged, 2 * node);
+        }
+        staged.put(node, b);
+        next.put(node, 0);
+        if (head.get(a) == 0) {
+            head.put(a, node);
+        } else {
+            next.put(tail.get(a), node);
+        }
+        tail.put(a, node);
+        stagedCount.put(a, stagedCount.get(a) + 1);
+
+        //
+        // keep the staging area bounded: compacting once it is as large as
+        // the brain or the compacted part makes compaction cost amortized
+        // constant per connection
+        //
+        if (pending >= Math.max(size, neighbours.limit())) {
+            compact();
+        }
+
+        return true;
+    }
+
+    boolean contains(int a, int b) {
+        if (indexOf(a, b) >= 0) {
+            return true;
+        }
+        for (int node = head.get(a); node != 0; node = next.get(node)) {
+            if (staged.get(node) == b) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the position of the connection a -> b in the compacted
+     *         neighbours, -1 if it is not there (staged connections are not
+     *         looked up)
+     */
+    int indexOf(int a, int b) {
+        int low = offsets.get(a), high = offsets.get(a+1) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int n = neighbours.get(middle);
+            if (n < b) {
+                low = middle + 1;
+            } else if (n > b) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    int degree(int a) {
+        return offsets.get(a+1) - offsets.get(a) + stagedCount.get(a);
+    }
+
+    /**
+     * @return the neighbours of a, compacted neighbours first and then staged
+     *         ones in the order they were added, each in constant time; the
+     *         adjacency must not be changed while they are iterated
+     */
+    PrimitiveIterator.OfInt neighboursOf(int a) {
+        return new PrimitiveIterator.OfInt() {
+            private int k = offsets.get(a), node = head.get(a);
+            private final int to = offsets.get(a+1);
+
+            @Override
+            public boolean hasNext() {
+                return (k < to) || (node != 0);
+            }
+
+            @Override
+            public int nextInt() {
+                if (k < to) {
+                    return neighbours.get(k++);
+                }
+                if (node == 0) {
+                    throw new NoSuchElementException();
+                }
+                int neighbour = staged.get(node);
+                node = next.get(node);
+
+                return neighbour;
+            }
+        };
+    }
+
+    boolean isCompacted() {
+        return pending == 0;
+    }
+
+    /**
+     * Merges all staged connections into new CSR arrays.
+     */
+    void compact() {
+        if (pending == 0) {
+            return;
+        }
+
+        IntBuffer newOffsets = memory.ints(size+1);
+        IntBuffer newNeighbours = memory.ints(neighbours.limit() + pending);
+
+        int[] segment = new int[0];
+        int n = 0;
+        for (int i = 0; i < size; ++i) {
+            newOffsets.put(i, n);
+            int from = offsets.get(i), to = offsets.get(i+1), count = stagedCount.get(i);
+            if (count == 0) {
+                IntBuffer source = neighbours.duplicate();
+                source.position(from).limit(to);
+                newNeighbours.position(n);
+                newNeighbours.put(source);
+                n += to - from;
+                continue;
+            }
+            
+            //
+            // merge in a scratch array to sort them
+            //
+            int length = to - from + count;
+            if (segment.length < length) {
+                segment = new int[Math.max(length, 2 * segment.length)];
+            }
+            IntBuffer source = neighbours.duplicate();
+            source.position(from).limit(to);
+            source.get(segment, 0, to - from);
+            int k = to - from;
+            for (int node = head.get(i); node != 0; node = next.get(node)) {
+                segment[k++] = staged.get(node);
+            }
+            Arrays.sort(segment, 0, length);
+            newNeighbours.position(n);
+            newNeighbours.put(segment, 0, length);
+            n += length;
+            
+            head.put(i, 0);
+            tail.put(i, 0);
+            stagedCount.put(i, 0);
+        }
+        newOffsets.put(size, n);
+        newNeighbours.rewind();
+
+        offsets = newOffsets;
+        neighbours = newNeighbours;
+        pending = 0;
+    }
+    
+    /**
+     * Adds in bulk the directed connections a -> b packed in edges[from] ...
+     * edges[to-1] as (a << 31) | b, higher bits ignored, sorted; duplicates
+     * and connections already present are skipped. Staged connections are
+     * compacted first and, as compact(), it allocates new CSR arrays.
+     *
+     * @return the number of connections added
+     */
+    long addAll(long[] edges, int from, int to) {
+        compact();
+
+        //
+        // first pass: how many new neighbours each cell gets
+        //
+        IntBuffer newOffsets = memory.ints(size+1);
+        long added = 0;
+        for (int e = from; e < to;) {
+            int a = (int)((edges[e] >>> 31) & CELL), end = e;
+            while ((end < to) && ((int)((edges[end] >>> 31) & CELL) == a)) {
+                ++end;
+            }
+            int count = 0;
+            for (int k = e; k < end; ++k) {
+                int b = (int)(edges[k] & CELL);
+                if (((k == e) || (b != (int)(edges[k-1] & CELL))) && !contains(a, b)) {
+                    ++count;
+                }
+            }
+            newOffsets.put(a + 1, count);
+            added += count;
+            e = end;
+        }
+        if (added == 0) {
+            return 0;
+        }
+        if (neighbours.limit() + added > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                "too many connections (" + (neighbours.limit() + added) + ")"
+            );
+        }
+
+        //
+        // second pass: merge the sorted new neighbours of each cell with the
+        // existing ones
+        //
+        IntBuffer newNeighbours = memory.ints((int)(neighbours.limit() + added));
+        int n = 0, e = from;
+        for (int a = 0; a < size; ++a) {
+            int count = newOffsets.get(a + 1);
+            newOffsets.put(a, n);
+            int k = offsets.get(a), end = offsets.get(a+1);
+            if (count == 0) {
+                for (; k < end; ++k) {
+                    newNeighbours.put(n++, neighbours.get(k));
+                }
+                while ((e < to) && ((int)((edges[e] >>> 31) & CELL) == a)) {
+                    ++e;
+                }
+                continue;
+            }
+            int last = -1;
+            while ((e < to) && ((int)((edges[e] >>> 31) & CELL) == a)) {
+                int b = (int)(edges[e++] & CELL);
+                if (b == last) {
+                    continue;
+                }
+                last = b;
+                while ((k < end) && (neighbours.get(k) < b)) {
+                    newNeighbours.put(n++, neighbours.get(k++));
+                }
+                if ((k < end) && (neighbours.get(k) == b)) {
+                    continue;
+                }
+                newNeighbours.put(n++, b);
+            }
+            for (; k < end; ++k) {
+                newNeighbours.put(n++, neighbours.get(k));
+            }
+        }
+        newOffsets.put(size, n);
+
+        offsets = newOffsets;
+        neighbours = newNeighbours;
+
+        return added;
+    }
+
+    /**
+     * Removes the directed connections at the given positions of the
+     * compacted neighbours, compacting all staged connections first (which
+     * must not be removed); as compact(), it allocates new CSR arrays.
+     *
+     * @return the number of connections removed
+     */
+    int removeAll(BitSet positions) {
+        compact();
+
+        int removed = positions.get(0, neighbours.limit()).cardinality();
+        if (removed == 0) {
+            return 0;
+        }
+
+        IntBuffer newOffsets = memory.ints(size+1);
+        IntBuffer newNeighbours = memory.ints(neighbours.limit() - removed);
+
+        int n = 0;
+        for (int i = 0; i < size; ++i) {
+            newOffsets.put(i, n);
+            for (int k = offsets.get(i), to = offsets.get(i+1); k < to; ++k) {
+                if (!positions.get(k)) {
+                    newNeighbours.put(n++, neighbours.get(k));
+                }
+            }
+        }
+        newOffsets.put(size, n);
+
+        offsets = newOffsets;
+        neighbours = newNeighbours;
+
+        return removed;
+    }
+
+    /**
+     * Moves cell i to p[i], compacting all staged connections first; as
+     * compact(), it allocates new CSR arrays.
+     */
+    void permute(int[] p) {
+        compact();
+
+        int[] cell = new int[size];
+        for (int i = 0; i < size; ++i) {
+            cell[p[i]] = i;
+        }
+
+        IntBuffer newOffsets = memory.ints(size+1);
+        IntBuffer newNeighbours = memory.ints(neighbours.limit());
+
+        int[] segment = new int[0];
+        int n = 0;
+        for (int c = 0; c < size; ++c) {
+            newOffsets.put(c, n);
+            int from = offsets.get(cell[c]), to = offsets.get(cell[c]+1);
+            if (segment.length < to - from) {
+                segment = new int[Math.max(to - from, 2 * segment.length)];
+            }
+            for (int k = from; k < to; ++k) {
+                segment[k - from] = p[neighbours.get(k)];
+            }
+            Arrays.sort(segment, 0, to - from);
+            newNeighbours.position(n);
+            newNeighbours.put(segment, 0, to - from);
+            n += to - from;
+        }
+        newOffsets.put(size, n);
+        newNeighbours.rewind();
+
+        offsets = newOffsets;
+        neighbours = newNeighbours;
+    }
+
+    /**
+     * Drops all buffers, which may be freed by Memory.release(): any further
+     * access fails with an IndexOutOfBoundsException
+     */
+    void release() {
+        offsets = neighbours = stagedCount = head = tail = next = staged = IntBuffer.allocate(0);
+        pending = 0;
+    }
+}
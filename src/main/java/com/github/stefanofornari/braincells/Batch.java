@@ -0,0 +1,173 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.Arrays;
+
+/**
+ * Bit-sliced evaluation of up to 64 input patterns at once.
+ * 
+ * Each cell gets a 64 bits lane mask: bit p is the state of the cell while
+ * thinking pattern p. Cells are visited in the same order of Sweep and, for
+ * every cell, the active promoters and detractors are counted in all lanes at
+ * once with bit-sliced counters (bit k of the count in lane p is bit p of
+ * plane k). The cell activates where promoters are more than detractors
+ * plus resistance minus one and de-activates where detractors are more than
+ * promoters plus resistance minus one; the resistance is added to all lanes
+ * at once and the counters are compared plane by plane from the most
+ * significant one. Each lane therefore follows exactly the sequence of flips
+ * a scalar think() would do starting from rest() and activate(pattern); a
+ * lane that already settled does not change in further passes.
+ * 
+ * The whole batch stops when all lanes settled, when the budget runs out or
+ * when the batch as a whole starts cycling through the same states.
+ */
+class Batch {
+    
+    static final int LANES = 64;
+    
+    static long[][] think(Topology t, int[][] inputs, Budget budget) {
+        final long[][] results = new long[inputs.length][];
+        
+        final int planes = planes(t);
+        final long[] p = new long[planes], d = new long[planes],
+                     pr = new long[planes], dr = new long[planes];
+        final long[] lanes = new long[t.size];
+        
+        for (int from = 0; from < inputs.length; from += LANES) {
+            int to = Math.min(inputs.length, from + LANES);
+            
+            Arrays.fill(lanes, 0);
+            for (int lane = 0; lane < to - from; ++lane) {
+                for (int cell: inputs[from + lane]) {
+                    lanes[t.order.internal(cell)] |= (1L << lane);
+                }
+            }
+            
+            think(t, lanes, p, d, pr, dr, budget);
+            
+            for (int lane = 0; lane < to - from; ++lane) {
+                results[from + lane] = extract(lanes, lane, t.order);
+            }
+        }
+        
+        return results;
+    }
+    
+    // --------------------------------------------------------- Private methods
+    
+    private static void think(
+        Topology t, long[] lanes, long[] p, long[] d, long[] pr, long[] dr, Budget budget
+    ) {
+        //
+        // the state of all lanes together is hashed as the set of active
+        // (cell, lane) pairs
+        //
+        final Convergence convergence = new Convergence(budget, lanes);
+        
+        while (true) {
+            boolean again = false;
+            for (int i = 0; i < t.size; ++i) {
+                int r = t.resistance(i) - 1;
+                int planes = planes(Math.max(t.promoters(i), t.detractors(i)) + r);
+                for (int k = 0; k < planes; ++k) {
+                    p[k] = d[k] = 0;
+                }
+                for (int k = t.promoterOffsets.get(i), to = t.promoterOffsets.get(i+1); k < to; ++k) {
+                    add(p, planes, lanes[t.promoters.get(k)]);
+                }
+                for (int k = t.detractorOffsets.get(i), to = t.detractorOffsets.get(i+1); k < to; ++k) {
+                    add(d, planes, lanes[t.detractors.get(k)]);
+                }
+                
+                long on, off;
+                if (r == 0) {
+                    on = greater(p, d, planes);
+                    off = greater(d, p, planes);
+                } else {
+                    on = greater(p, plus(d, r, dr, planes), planes);
+                    off = greater(d, plus(p, r, pr, planes), planes);
+                }
+                
+                long flips = (on & ~lanes[i]) | (off & lanes[i]);
+                if (flips != 0) {
+                    lanes[i] ^= flips;
+                    for (; flips != 0; flips &= flips - 1) {
+                        convergence.flip(((long)i << 6) + Long.numberOfTrailingZeros(flips));
+                    }
+                    again = true;
+                }
+            }
+            if (!again || (convergence.pass(lanes) != null)) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Adds 1 to the bit-sliced counter in each lane set in x (ripple carry).
+     */
+    private static void add(long[] counter, int planes, long x) {
+        long carry = x;
+        for (int k = 0; (k < planes) && (carry != 0); ++k) {
+            long c = counter[k] & carry;
+            counter[k] ^= carry;
+            carry = c;
+        }
+    }
+    
+    /**
+     * Adds the constant c to the bit-sliced counter x in all lanes, into sum
+     * 
+     * @return sum
+     */
+    private static long[] plus(long[] x, int c, long[] sum, int planes) {
+        long carry = 0;
+        for (int k = 0; k < planes; ++k) {
+            long b = ((c >>> k) & 1) == 0 ? 0 : -1L;
+            sum[k] = x[k] ^ b ^ carry;
+            carry = (x[k] & b) | (carry & (x[k] ^ b));
+        }
+        return sum;
+    }
+    
+    /**
+     * Compares two bit-sliced counters from the most significant plane: the
+     * first plane where they differ decides.
+     * 
+     * @return the lanes where a is greater than b
+     */
+    private static long greater(long[] a, long[] b, int planes) {
+        long gt = 0, eq = -1L;
+        for (int k = planes - 1; k >= 0; --k) {
+            gt |= eq & a[k] & ~b[k];
+            eq &= ~(a[k] ^ b[k]);
+        }
+        return gt;
+    }
+    
+    private static long[] extract(long[] lanes, int lane, Permutation order) {
+        long[] words = new long[(lanes.length + 63) >>> 6];
+        for (int i = 0; i < lanes.length; ++i) {
+            words[i >>> 6] |= ((lanes[order.internal(i)] >>> lane) & 1L) << i;
+        }
+        return words;
+    }
+    
+    /**
+     * @return the number of planes needed to count up to the highest number of
+     *         promoters or detractors of any cell plus its resistance minus
+     *         one
+     */
+    private static int planes(Topology t) {
+        int max = 0;
+        for (int i = 0; i < t.size; ++i) {
+            max = Math.max(
+                max, Math.max(t.promoters(i), t.detractors(i)) + t.resistance(i) - 1
+            );
+        }
+        return Math.max(1, planes(max));
+    }
+    
+    private static int planes(int max) {
+        return 32 - Integer.numberOfLeadingZeros(max);
+    }
+}
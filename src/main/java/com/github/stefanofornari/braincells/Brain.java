@@ -1,12 +1,75 @@
 package com.github.stefanofornari.braincells;
 
+import java.nio.IntBuffer;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
 /**
- *
+ * A set of cells connected by symmetric promoting and detracting connections.
+ * 
+ * Each cell has a resistance R (at least 1): when thinking, a cell activates
+ * if its active promoters outnumber its active detractors by at least R and
+ * de-activates if its active detractors outnumber its active promoters by at
+ * least R; otherwise it keeps its state.
+ * 
+ * Connections and resistances are kept on the heap or off-heap (see
+ * Storage); an off-heap brain must be closed to release its memory.
  */
-public class Brain {
+public class Brain implements AutoCloseable {
     
+    /**
+     * The cells of the brain, empty for off-heap brains (see cell())
+     */
     public final BrainCell[] cells;
     
+    public final int size;
+    
+    final Activation activation;
+
+    final Adjacency promoters;
+    final Adjacency detractors;
+    
+    final IntBuffer resistances;
+    
+    /**
+     * Where each cell is kept in activation, connections and resistances
+     * (see reorder())
+     */
+    Permutation order;
+    
+    private final Memory memory;
+
+    private Topology topology;
+    
+    /**
+     * Incremented whenever connections are added or resistances change
+     */
+    long version = 0;
+    
+    private Propagation propagation = Propagation.SWEEP;
+    
+    private Metrics metrics = Metrics.NONE;
+    
+    /**
+     * Where connections and resistances are recorded as they change, if
+     * anywhere (see Journal)
+     */
+    Journal journal = null;
+    
+    /**
+     * Where the connections used by think() are counted, if anywhere (see
+     * Pruning)
+     */
+    Usage usage = null;
+    
+    //
+    // potentials kept by update(); they follow the activation state only as
+    // long as it is changed by update() and rest(), anything else drops them
+    //
+    private Frontier frontier;
+    
+    private boolean closed = false;
+    
     /**
      * Create a Brain with the given number of cells and default resistance
      * @param size 
@@ -15,77 +78,519 @@ public class Brain {
         this(size, 1);
     }
     
+    /**
+     * Create a Brain with the given number of cells, all with the given
+     * resistance
+     * 
+     * @param size the number of cells
+     * @param resistance the resistance of all cells - greater than 0
+     */
     public Brain(int size, int resistance) {
-        cells = new BrainCell[size];
-        for (int i=0; i<size; ++i) {
-            cells[i] = new BrainCell();
+        this(size, resistance, Storage.HEAP);
+    }
+    
+    /**
+     * Create a Brain with the given number of cells, all with the given
+     * resistance, keeping connections and resistances in the given storage
+     * 
+     * @param size the number of cells
+     * @param resistance the resistance of all cells - greater than 0
+     * @param storage where to keep connections and resistances
+     */
+    public Brain(int size, int resistance, Storage storage) {
+        this(
+            Memory.of(storage), new Activation(size), null,
+            resistances(Memory.of(storage), size, check(resistance))
+        );
+    }
+    
+    /**
+     * Create a Brain on top of an existing topology and activation state,
+     * without copying them (see BrainImage)
+     */
+    Brain(Topology topology, Activation activation) {
+        this(Memory.HEAP, activation, topology, Memory.HEAP.copy(topology.resistances, topology.size));
+    }
+    
+    private Brain(Memory memory, Activation activation, Topology topology, IntBuffer resistances) {
+        this.size = activation.size;
+        this.memory = memory;
+        this.activation = activation;
+        this.topology = topology;
+        this.resistances = resistances;
+        this.order = (topology == null) ? Permutation.IDENTITY : topology.order;
+        if (topology == null) {
+            this.promoters = new Adjacency(size, memory);
+            this.detractors = new Adjacency(size, memory);
+        } else {
+            this.promoters = new Adjacency(size, topology.promoterOffsets, topology.promoters, memory);
+            this.detractors = new Adjacency(size, topology.detractorOffsets, topology.detractors, memory);
+        }
+        this.cells = new BrainCell[(memory.storage == Storage.HEAP) ? size : 0];
+        for (int i=0; i<cells.length; ++i) {
+            cells[i] = new BrainCell(this, i);
         }
     }
     
+    /**
+     * @return the given cell, as a view that can be created on the fly (two
+     *         views of the same cell are equal)
+     */
+    public BrainCell cell(int index) {
+        return (memory.storage == Storage.HEAP) ? cells[index] : new BrainCell(this, index);
+    }
+    
     public Brain activate(int... positions) {
         for(int p: positions) {
-            cells[p].active = true;
+            activation.set(order.internal(p));
         }
+        frontier = null;
         
         return this;
     }
     
+    boolean isActive(int cell) {
+        return activation.get(order.internal(cell));
+    }
+    
+    void setActive(int cell, boolean active) {
+        activation.set(order.internal(cell), active);
+        frontier = null;
+    }
+    
     public Brain promoter(int a, int b) {
-        cells[a].promoters.add(cells[b]);
-        cells[b].promoters.add(cells[a]);
+        return connect(promoters, order.internal(a), order.internal(b));
+    }
+    
+    public Brain detractor(int a, int b) {
+        return connect(detractors, order.internal(a), order.internal(b));
+    }
+    
+    /**
+     * Connects a and b as they are kept by the brain (see reorder())
+     */
+    Brain connect(Adjacency adjacency, int a, int b) {
+        ensureOpen();
+        if (adjacency.add(a, b) | adjacency.add(b, a)) {
+            topology = null;
+            ++version;
+            if (journal != null) {
+                journal.connected(adjacency == promoters, order.external(a), order.external(b));
+            }
+        }
         
         return this;
     }
     
-    public Brain detractor(int a, int b) {
-        cells[a].detractors.add(cells[b]);
-        cells[b].detractors.add(cells[a]);
+    /**
+     * Adds the connections packed in edges[from] ... edges[to-1] to the given
+     * adjacency (see Adjacency.addAll() and BrainLoader)
+     * 
+     * @return the number of directed connections added
+     */
+    long connect(Adjacency adjacency, long[] edges, int from, int to) {
+        ensureOpen();
+        long added = adjacency.addAll(edges, from, to);
+        if (added > 0) {
+            topology = null;
+            ++version;
+            if (journal != null) {
+                //
+                // each connection is there in both directions; which ones
+                // were already present does not matter when replaying
+                //
+                for (int e = from; e < to; ++e) {
+                    int a = (int)((edges[e] >>> 31) & Adjacency.CELL), b = (int)(edges[e] & Adjacency.CELL);
+                    if (a <= b) {
+                        journal.connected(adjacency == promoters, order.external(a), order.external(b));
+                    }
+                }
+            }
+        }
+        
+        return added;
+    }
+    
+    /**
+     * Removes the connections at the given positions of the compacted CSR
+     * arrays of the given adjacency (see Adjacency.removeAll() and Pruning);
+     * positions must come in pairs, one per direction of each connection
+     * 
+     * @return the number of directed connections removed
+     */
+    long disconnect(Adjacency adjacency, BitSet positions) {
+        ensureOpen();
+        adjacency.compact();
+        if (journal != null) {
+            for (int a = 0; a < size; ++a) {
+                int k = positions.nextSetBit(adjacency.offsets.get(a)), to = adjacency.offsets.get(a+1);
+                for (; (k >= 0) && (k < to); k = positions.nextSetBit(k+1)) {
+                    int b = adjacency.neighbours.get(k);
+                    if (a <= b) {
+                        journal.disconnected(adjacency == promoters, order.external(a), order.external(b));
+                    }
+                }
+            }
+        }
+        long removed = adjacency.removeAll(positions);
+        if (removed > 0) {
+            topology = null;
+            ++version;
+        }
+        
+        return removed;
+    }
+    
+    /**
+     * Sets the resistance of a single cell
+     * 
+     * @param cell the cell
+     * @param resistance the new resistance - greater than 0
+     * 
+     * @return this brain
+     */
+    public Brain resistance(int cell, int resistance) {
+        ensureOpen();
+        cell = order.internal(cell);
+        if (resistances.get(cell) != check(resistance)) {
+            resistances.put(cell, resistance);
+            topology = null;
+            ++version;
+            if (journal != null) {
+                journal.resisted(order.external(cell), resistance);
+            }
+        }
         
         return this;
     }
     
+    public int resistance(int cell) {
+        ensureOpen();
+        return resistances.get(order.internal(cell));
+    }
+    
     /**
-     * De-activate all cells keeping all connections.
+     * Selects how think() propagates activations (Propagation.SWEEP by
+     * default).
+     * 
+     * @param propagation the propagation mode
+     * 
+     * @return this brain
+     */
+    public Brain propagation(Propagation propagation) {
+        this.propagation = propagation;
+        
+        return this;
+    }
+    
+    Propagation propagation() {
+        return propagation;
+    }
+    
+    /**
+     * Selects where think(), update() and BrainTrainer.learn() report what
+     * they did (Metrics.NONE by default).
+     * 
+     * @param metrics the metrics
+     * 
+     * @return this brain
+     */
+    public Brain metrics(Metrics metrics) {
+        this.metrics = metrics;
+        
+        return this;
+    }
+    
+    Metrics metrics() {
+        return metrics;
+    }
+    
+    /**
+     * Compacts all connections created so far into an immutable Topology.
+     * The brain can still be wired afterwards: new connections are staged and
+     * compacted again in bulk by the next freeze() (think() freezes the brain
+     * as needed).
+     * 
+     * @return the current topology of this brain
+     */
+    public Topology freeze() {
+        ensureOpen();
+        if (topology == null) {
+            promoters.compact();
+            detractors.compact();
+            topology = new Topology(size, promoters, detractors, resistances, order, memory);
+        }
+        
+        return topology;
+    }
+
+    /**
+     * Freezes the brain and creates a new activation state of its own, all
+     * cells inactive, thinking on the current topology with the current
+     * propagation mode and metrics. States do not change the brain and can
+     * be used by different threads at the same time (see BrainState); the
+     * brain itself, state() included, is not thread safe.
+     *
+     * @return a new state
+     */
+    public BrainState state() {
+        return new BrainState(freeze(), propagation, metrics);
+    }
+
+    /**
+     * Renumbers internally the cells of the brain so that connected cells are
+     * kept close to each other (reverse Cuthill-McKee order, see
+     * Permutation.rcm()): thinking then goes through the connections and
+     * potentials of neighbouring cells in the same cache lines instead of
+     * jumping all over the brain.
+     * 
+     * Cells keep their index: activate(), wiring, snapshots, cells, learning
+     * and so on work as before. Thinking however visits the cells in the new
+     * order, which is the point: Propagation.PARALLEL does not depend on the
+     * order and gives the same result as before, while SWEEP and FRONTIER
+     * (and thinkBatch()) may take a different number of passes and, if more
+     * than one is reachable, settle to a different fixed point. They still
+     * give the same result as each other.
+     * 
+     * Wiring the brain a lot afterwards may make the order less effective;
+     * reorder() can be called again at any time.
+     * 
+     * @return this brain
+     */
+    public Brain reorder() {
+        final Topology t = freeze();
+        final int[] p = Permutation.rcm(t);
+        
+        promoters.permute(p);
+        detractors.permute(p);
+        for (int i = 0; i < size; ++i) {
+            resistances.put(p[i], t.resistance(i));
+        }
+        long[] words = new long[activation.words.length];
+        for (int i = activation.next(0); i >= 0; i = activation.next(i+1)) {
+            words[p[i] >>> 6] |= 1L << p[i];
+        }
+        activation.restore(words);
+        order = order.then(p, memory);
+        
+        topology = null;
+        frontier = null;
+        ++version;
+        
+        return this;
+    }
+    
+    /**
+     * De-activate all cells keeping all connections. The activation state is
+     * cleared in constant time (see Activation); the potentials kept by
+     * update(), if any, are brought back to 0 going through the active cells
+     * only, so that rest() and update() cost as much as the cells involved.
      * 
      * @return this brain
      */
     public Brain rest() {
-        for(BrainCell c: cells) {
-            c.active = false;
+        if ((frontier != null) && (frontier.t == topology)) {
+            frontier.rest();
+        } else {
+            frontier = null;
         }
+        activation.clear();
+        
+        return this;
+    }
+    
+    /**
+     * @return a copy of the activation state of all cells, one bit per cell
+     *         (see Activation)
+     */
+    public long[] snapshot() {
+        return order.external(activation.words());
+    }
+    
+    /**
+     * Brings all cells back to the activation state of a previous snapshot.
+     * 
+     * @param snapshot a snapshot taken with snapshot()
+     * 
+     * @return this brain
+     */
+    public Brain restore(long[] snapshot) {
+        activation.restore(order.internal(snapshot));
+        frontier = null;
         
         return this;
     }
     
+    /**
+     * Propagate the activation of the active cells through the connections
+     * until no more cells change, or the brain starts oscillating.
+     * 
+     * @return how the thinking ended
+     */
+    public Thought think() {
+        return think(Budget.UNLIMITED);
+    }
     
-    public void think() {
-        //
-        // we repeat the thinking until no new cells have been activated
-        //
-        boolean again = true;
-        while (again) {
-            again = false;
-            for(BrainCell cell: cells) {
-                int potential = 0;
-                for(BrainCell pair: cell.promoters) {
-                    if (pair.active) {
-                        ++potential;
-                    }
-                }
-                for (BrainCell pair: cell.detractors) {
-                    if (pair.active) {
-                        --potential;
-                    }
-                }
-                if ((potential > 0) && (!cell.active)) {
-                    cell.active = true;
-                    again = true;
-                }
-                if ((potential < 0) && cell.active) {
-                    cell.active = false;
-                    again = true;
-                }
+    /**
+     * Propagate the activation of the active cells through the connections
+     * until no more cells change, the brain starts oscillating or the given
+     * budget runs out.
+     * 
+     * @param budget the maximum passes and/or time allowed
+     * 
+     * @return how the thinking ended
+     */
+    public Thought think(Budget budget) {
+        frontier = null;
+        
+        final Usage usage = this.usage;
+        Thought thought = (usage == null)
+                        ? propagation.think(freeze(), activation, budget)
+                        : usage.think(freeze(), activation, budget, propagation);
+        metrics.thought(thought);
+        
+        return thought;
+    }
+    
+    /**
+     * Switches some cells on and some off and propagates just the
+     * consequences of the change, whatever the propagation mode.
+     * 
+     * The potential of each cell is kept from one update() to the next, so
+     * that the cost of an update is proportional to the part of the brain
+     * affected by the change and not to the size of the brain. The result
+     * is the same of switching the cells by hand and calling think() with
+     * Propagation.SWEEP (or FRONTIER). Any other change of the activation
+     * state (activate(), think(), ...) or of the connections makes
+     * the next update() compute the potentials again from scratch.
+     * 
+     * @param on the cells to activate
+     * @param off the cells to de-activate
+     * 
+     * @return how the thinking ended
+     */
+    public Thought update(int[] on, int[] off) {
+        return update(on, off, Budget.UNLIMITED);
+    }
+    
+    /**
+     * As update(int[], int[]) within the given budget
+     * 
+     * @param on the cells to activate
+     * @param off the cells to de-activate
+     * @param budget the maximum passes and/or time allowed
+     * 
+     * @return how the thinking ended
+     */
+    public Thought update(int[] on, int[] off, Budget budget) {
+        final Topology t = freeze();
+        if ((frontier == null) || (frontier.t != t)) {
+            frontier = new Frontier(t, activation);
+        }
+        for (int cell: on) {
+            frontier.set(order.internal(cell), true);
+        }
+        for (int cell: off) {
+            frontier.set(order.internal(cell), false);
+        }
+        
+        Thought thought = frontier.think(budget);
+        metrics.thought(thought);
+        
+        return thought;
+    }
+    
+    /**
+     * Checks if thinking would change any cell, that is if the activation
+     * state is a fixed point of the connections, which is the same for all
+     * propagation modes. With Propagation.PARALLEL the check runs on the
+     * common ForkJoinPool.
+     * 
+     * @return true if no cell would be flipped by think(), false otherwise
+     */
+    public boolean isSettled() {
+        final Topology t = freeze();
+        if (propagation == Propagation.PARALLEL) {
+            return Parallel.isSettled(t, activation, ForkJoinPool.commonPool());
+        }
+        for (int i = 0; i < t.size; ++i) {
+            if (t.flips(i, t.potential(i, activation), activation.get(i))) {
+                return false;
             }
         }
+        
+        return true;
+    }
+    
+    /**
+     * Releases the memory of an off-heap brain right away, without waiting
+     * for the garbage collector. Wiring or thinking a closed brain throws an
+     * IllegalStateException; topologies and cells obtained from it before
+     * closing it must not be used any more. Closing a heap brain only
+     * prevents further use.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            topology = null;
+            frontier = null;
+            promoters.release();
+            detractors.release();
+            memory.release();
+        }
+    }
+    
+    /**
+     * Thinks many independent input patterns at once, 64 per pass, leaving
+     * the state of this brain untouched. The result for each pattern is the
+     * same state rest(), activate(pattern) and think() would produce with
+     * Propagation.SWEEP, in the format of snapshot(). Each batch stops if
+     * it starts oscillating.
+     * 
+     * @param inputs the cells to activate for each pattern
+     * 
+     * @return the activation state reached by each pattern
+     */
+    public long[][] thinkBatch(int[][] inputs) {
+        return thinkBatch(inputs, Budget.UNLIMITED);
+    }
+    
+    /**
+     * As thinkBatch(int[][]) but stops each batch of 64 patterns when the
+     * given budget runs out or the batch starts oscillating; patterns that
+     * did not settle are returned in the state they were at that moment.
+     * 
+     * @param inputs the cells to activate for each pattern
+     * @param budget the maximum passes and/or time allowed for each batch
+     * 
+     * @return the activation state reached by each pattern
+     */
+    public long[][] thinkBatch(int[][] inputs, Budget budget) {
+        return Batch.think(freeze(), inputs, budget);
+    }
+    
+    // --------------------------------------------------------- Private methods
+    
+    private static int check(int resistance) {
+        if (resistance <= 0) {
+            throw new IllegalArgumentException("resistance must be greater than 0 (" + resistance + ")");
+        }
+        return resistance;
+    }
+    
+    private static IntBuffer resistances(Memory memory, int size, int resistance) {
+        IntBuffer resistances = memory.ints(size);
+        for (int i = 0; i < size; ++i) {
+            resistances.put(i, resistance);
+        }
+        
+        return resistances;
+    }
+    
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("brain is closed");
+        }
     }
 }
@@ -1,15 +1,54 @@
 package com.github.stefanofornari.braincells;
 
-import java.util.HashSet;
 import java.util.Set;
 
 /**
  *
  */
 public class BrainCell {
-    public final Set<BrainCell> promoters = new HashSet<>();
-    public final Set<BrainCell> detractors = new HashSet<>();
-    
-    public boolean active = false;
+    public final int index;
+
+    final Brain brain;
+
+    public final Set<BrainCell> promoters;
+    public final Set<BrainCell> detractors;
+
+    BrainCell(Brain brain, int index) {
+        this.brain = brain;
+        this.index = index;
+        this.promoters = new Connections(brain, brain.promoters, index);
+        this.detractors = new Connections(brain, brain.detractors, index);
+    }
 
+    public boolean isActive() {
+        return brain.isActive(index);
+    }
+
+    public void setActive(boolean active) {
+        brain.setActive(index, active);
+    }
+    
+    /**
+     * Cells are views on their brain: two cells are equal if they are the
+     * same cell of the same brain (see Brain.cell())
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof BrainCell)) {
+            return false;
+        }
+        BrainCell other = (BrainCell)o;
+        
+        return (other.brain == brain) && (other.index == index);
+    }
+    
+    @Override
+    public int hashCode() {
+        return index;
+    }
+    
+    @Override
+    public String toString() {
+        return "BrainCell " + index;
+    }
 }
@@ -0,0 +1,290 @@
+package com.github.stefanofornari.braincells;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary image of a brain: its compacted topology (including the neighbour
+ * masks) and its activation state.
+ * 
+ * An image is loaded by mapping the file in memory: the topology buffers are
+ * the mapped file itself, nothing is deserialized and think() runs straight
+ * off the mapped pages, which the OS loads on demand. Only the activation
+ * bits (one bit per cell) are copied, so that the brain can change its state
+ * without touching the file.
+ * 
+ * Layout (little endian, each section starts at a multiple of 8 bytes):
+ * <pre>
+ *   header: MAGIC, VERSION, size, promoters, detractors,
+ *           promoter mask words, detractor mask words,
+ *           1 if reordered, 0 otherwise  (8 ints)
+ *   promoter offsets (size+1 ints), promoters (ints)
+ *   detractor offsets (size+1 ints), detractors (ints)
+ *   promoter masks: first (size ints), offsets (size+1 ints), bits (longs)
+ *   detractor masks: first (size ints), offsets (size+1 ints), bits (longs)
+ *   resistances (size ints)
+ *   if reordered: internal and external index of each cell (2 x size ints)
+ *   activation ((size+63)/64 longs)
+ * </pre>
+ * Topology and activation are in the order the brain keeps its cells (see
+ * Brain.reorder()).
+ * A section cannot exceed 2GB, the most a single buffer can map.
+ */
+public final class BrainImage {
+    
+    static final int MAGIC = 0x4252434C; // BRCL
+    static final int VERSION = 3;
+    static final int HEADER = 32;
+    
+    public final Topology topology;
+    public final Activation activation;
+    
+    private BrainImage(Topology topology, Activation activation) {
+        this.topology = topology;
+        this.activation = activation;
+    }
+    
+    /**
+     * Writes the current topology and activation state of the given brain
+     * 
+     * @param brain the brain
+     * @param file the image file (overwritten if it exists)
+     * 
+     * @throws IOException in case of errors writing the file
+     */
+    public static void write(Brain brain, Path file) throws IOException {
+        write(brain.freeze(), brain.activation, file);
+    }
+    
+    public static void write(Topology t, Activation a, Path file) throws IOException {
+        try (Writer out = new Writer(file)) {
+            out.putInt(MAGIC).putInt(VERSION).putInt(t.size)
+               .putInt(t.promoters.limit()).putInt(t.detractors.limit())
+               .putInt(t.promoterMasks.bits.limit()).putInt(t.detractorMasks.bits.limit())
+               .putInt(t.order.isIdentity() ? 0 : 1);
+            out.put(t.promoterOffsets).put(t.promoters);
+            out.put(t.detractorOffsets).put(t.detractors);
+            out.put(t.promoterMasks.first).put(t.promoterMasks.offsets).put(t.promoterMasks.bits);
+            out.put(t.detractorMasks.first).put(t.detractorMasks.offsets).put(t.detractorMasks.bits);
+            out.put(t.resistances);
+            if (!t.order.isIdentity()) {
+                out.put(t.order.internal).put(t.order.external);
+            }
+            out.put(LongBuffer.wrap(a.words()));
+        }
+    }
+    
+    /**
+     * Maps an image written with write()
+     * 
+     * @param file the image file
+     * 
+     * @return the image
+     * 
+     * @throws IOException if the file can not be read or is not a valid image
+     */
+    public static BrainImage map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER) {
+                throw new IOException(file + " is not a brain image");
+            }
+            IntBuffer header = map(channel, 0, HEADER).asIntBuffer();
+            if (header.get(0) != MAGIC) {
+                throw new IOException(file + " is not a brain image");
+            }
+            if (header.get(1) != VERSION) {
+                throw new IOException(
+                    "unsupported brain image version " + header.get(1) + " in " + file
+                );
+            }
+            
+            final int size = header.get(2);
+            if ((size < 0) || (size == Integer.MAX_VALUE)) {
+                throw new IOException(file + " is not a brain image");
+            }
+            Reader in = new Reader(channel, file);
+            
+            //
+            // the counts in the header must agree with the offsets, or a
+            // corrupted header would map sections of random lengths
+            //
+            IntBuffer promoterOffsets = in.offsets(size, header.get(3)), promoters = in.ints(header.get(3));
+            IntBuffer detractorOffsets = in.offsets(size, header.get(4)), detractors = in.ints(header.get(4));
+            Masks promoterMasks = new Masks(
+                in.ints(size), in.offsets(size, header.get(5)), in.longs(header.get(5))
+            );
+            Masks detractorMasks = new Masks(
+                in.ints(size), in.offsets(size, header.get(6)), in.longs(header.get(6))
+            );
+            IntBuffer resistances = in.ints(size);
+            Permutation order = (header.get(7) == 0)
+                              ? Permutation.IDENTITY
+                              : new Permutation(in.ints(size), in.ints(size));
+            
+            Activation activation = new Activation(size);
+            in.longs(activation.words.length).get(activation.words());
+            
+            return new BrainImage(
+                new Topology(
+                    size,
+                    promoterOffsets, promoters, detractorOffsets, detractors,
+                    promoterMasks, detractorMasks,
+                    resistances, order
+                ),
+                activation
+            );
+        }
+    }
+    
+    /**
+     * @return a Brain backed by this image; it can be wired further, new
+     *         connections are compacted in heap memory
+     */
+    public Brain brain() {
+        return new Brain(topology, activation);
+    }
+    
+    /**
+     * Thinks straight on the image, without creating a Brain
+     */
+    public Thought think(Propagation propagation, Budget budget) {
+        return propagation.think(topology, activation, budget);
+    }
+    
+    // --------------------------------------------------------- Private methods
+    
+    private static ByteBuffer map(FileChannel channel, long position, long bytes) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+    
+    // ---------------------------------------------------------- Reader
+    
+    private static class Reader {
+        private final FileChannel channel;
+        private final Path file;
+        private long position = HEADER;
+        
+        Reader(FileChannel channel, Path file) {
+            this.channel = channel;
+            this.file = file;
+        }
+        
+        IntBuffer ints(int count) throws IOException {
+            return section(4L * count).asIntBuffer();
+        }
+        
+        LongBuffer longs(int count) throws IOException {
+            return section(8L * count).asLongBuffer();
+        }
+        
+        /**
+         * @return the size+1 offsets of a section of count elements
+         */
+        IntBuffer offsets(int size, int count) throws IOException {
+            IntBuffer offsets = ints(size + 1);
+            if ((count < 0) || (offsets.get(size) != count)) {
+                throw new IOException(file + " is not a brain image");
+            }
+            
+            return offsets;
+        }
+        
+        private ByteBuffer section(long bytes) throws IOException {
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IOException("section of " + bytes + " bytes too large to be mapped in " + file);
+            }
+            if (position + bytes > channel.size()) {
+                throw new IOException(file + " is truncated");
+            }
+            ByteBuffer buffer = map(channel, position, bytes);
+            position = align(position + bytes);
+            
+            return buffer;
+        }
+    }
+    
+    // ---------------------------------------------------------- Writer
+    
+    private static class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private long position = 0;
+        
+        Writer(Path file) throws IOException {
+            channel = FileChannel.open(
+                file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+            );
+        }
+        
+        Writer putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+            position += 4;
+            return this;
+        }
+        
+        Writer putLong(long value) throws IOException {
+            if (buffer.remaining() < 8) {
+                flush();
+            }
+            buffer.putLong(value);
+            position += 8;
+            return this;
+        }
+        
+        Writer put(IntBuffer ints) throws IOException {
+            for (int i = 0; i < ints.limit(); ++i) {
+                putInt(ints.get(i));
+            }
+            return pad();
+        }
+        
+        Writer put(LongBuffer longs) throws IOException {
+            for (int i = 0; i < longs.limit(); ++i) {
+                putLong(longs.get(i));
+            }
+            return pad();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+        
+        private Writer pad() throws IOException {
+            while (position != align(position)) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                buffer.put((byte)0);
+                ++position;
+            }
+            return this;
+        }
+        
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
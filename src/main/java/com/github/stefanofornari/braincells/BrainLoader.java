@@ -0,0 +1,268 @@
+package com.github.stefanofornari.braincells;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Wires a brain in bulk: connections are collected from arrays, CSV or
+ * binary files and added all at once by load(), which gives the same brain
+ * as calling promoter() and detractor() for each of them.
+ *
+ * Each connection is packed in a long, once per direction, as (kind << 62) |
+ * (a << 31) | b; load() sorts them with Arrays.parallelSort(), so that
+ * promoters and detractors of each cell come out grouped and sorted, and
+ * merges them into the CSR arrays of the brain in a single pass, skipping
+ * duplicates. No object is created per connection. Up to about a billion
+ * connections can be collected before each load().
+ *
+ * CSV files have a connection per line, "a,b" or "a,b,+" for a promoter and
+ * "a,b,-" for a detractor; blank lines and lines starting with # are
+ * skipped. Binary files are a sequence of big endian int pairs a, b for
+ * promoters and a, ~b for detractors.
+ */
+public class BrainLoader {
+
+    private static final long DETRACTOR = 1L << 62;
+    private static final long MAX = Integer.MAX_VALUE - 8;
+
+    private final Brain brain;
+
+    private long[] edges = new long[1024];
+    private int n = 0;
+
+    public BrainLoader(Brain brain) {
+        this.brain = brain;
+    }
+
+    public BrainLoader promoter(int a, int b) {
+        ensureRoom(1);
+        put(n, a, b, 0);
+        n += 2;
+
+        return this;
+    }
+
+    public BrainLoader detractor(int a, int b) {
+        ensureRoom(1);
+        put(n, a, b, DETRACTOR);
+        n += 2;
+
+        return this;
+    }
+
+    /**
+     * Adds the promoters a[i] - b[i]
+     *
+     * @param a one end of each connection
+     * @param b the other end of each connection
+     *
+     * @return this loader
+     */
+    public BrainLoader promoters(int[] a, int[] b) {
+        return add(a, b, 0);
+    }
+
+    /**
+     * Adds the detractors a[i] - b[i]
+     *
+     * @param a one end of each connection
+     * @param b the other end of each connection
+     *
+     * @return this loader
+     */
+    public BrainLoader detractors(int[] a, int[] b) {
+        return add(a, b, DETRACTOR);
+    }
+
+    /**
+     * Adds the connections of a CSV file (see above)
+     *
+     * @param file the file
+     *
+     * @return this loader
+     *
+     * @throws IOException if the file can not be read or a line is not a
+     *         connection
+     */
+    public BrainLoader csv(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            int number = 0;
+            for (String line; (line = reader.readLine()) != null;) {
+                ++number;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                try {
+                    if ((fields.length < 2) || (fields.length > 3)) {
+                        throw new IllegalArgumentException("not a connection");
+                    }
+                    int a = Integer.parseInt(fields[0].trim()), b = Integer.parseInt(fields[1].trim());
+                    String kind = (fields.length == 3) ? fields[2].trim() : "+";
+                    if ("+".equals(kind)) {
+                        promoter(a, b);
+                    } else if ("-".equals(kind)) {
+                        detractor(a, b);
+                    } else {
+                        throw new IllegalArgumentException("kind must be + or - (" + kind + ")");
+                    }
+                } catch (IllegalArgumentException x) {
+                    throw new IOException(file + ":" + number + ": " + x.getMessage() + " (" + line + ")");
+                }
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Adds the connections of a binary file (see above), decoded in parallel
+     *
+     * @param file the file
+     *
+     * @return this loader
+     *
+     * @throws IOException if the file can not be read, is truncated or
+     *         connects cells the brain does not have
+     */
+    public BrainLoader binary(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long bytes = channel.size();
+            if (bytes % 8 != 0) {
+                throw new IOException(file + " is truncated");
+            }
+            if (bytes / 8 > (MAX - n) / 2) {
+                throw new IllegalArgumentException("too many connections (" + (n / 2 + bytes / 8) + ")");
+            }
+            ensureRoom((int)(bytes / 8));
+
+            //
+            // mapped in sections of at most 1GB
+            //
+            for (long position = 0; position < bytes;) {
+                long length = Math.min(bytes - position, 1L << 30);
+                IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, position, length).asIntBuffer();
+                final int base = n;
+                try {
+                    IntStream.range(0, (int)(length / 8)).parallel().forEach(i -> {
+                        int a = ints.get(2*i), b = ints.get(2*i + 1);
+                        if (b >= 0) {
+                            put(base + 2*i, a, b, 0);
+                        } else {
+                            put(base + 2*i, a, ~b, DETRACTOR);
+                        }
+                    });
+                } catch (IllegalArgumentException x) {
+                    throw new IOException(file + ": " + x.getMessage());
+                }
+                n += (int)(length / 4);
+                position += length;
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * @return the number of connections collected and not loaded yet
+     */
+    public int pending() {
+        return n / 2;
+    }
+
+    /**
+     * Adds all connections collected so far to the brain
+     *
+     * @return the number of directed connections added (each connection
+     *         between two distinct cells counts twice, as in
+     *         Topology.connections())
+     */
+    public long load() {
+        final long[] edges = this.edges;
+        final int n = this.n;
+
+        if (!brain.order.isIdentity()) {
+            final Permutation order = brain.order;
+            IntStream.range(0, n).parallel().forEach(e -> {
+                long kind = edges[e] & DETRACTOR;
+                int a = order.internal((int)((edges[e] >>> 31) & Adjacency.CELL));
+                int b = order.internal((int)(edges[e] & Adjacency.CELL));
+                edges[e] = kind | ((long)a << 31) | b;
+            });
+        }
+        Arrays.parallelSort(edges, 0, n);
+
+        int detractors = n;
+        for (int low = 0, high = n - 1; low <= high;) {
+            int middle = (low + high) >>> 1;
+            if ((edges[middle] & DETRACTOR) != 0) {
+                detractors = middle;
+                high = middle - 1;
+            } else {
+                low = middle + 1;
+            }
+        }
+
+        long added = brain.connect(brain.promoters, edges, 0, detractors)
+                   + brain.connect(brain.detractors, edges, detractors, n);
+
+        this.edges = new long[1024];
+        this.n = 0;
+
+        return added;
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private BrainLoader add(int[] a, int[] b, long kind) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException(
+                "a and b must have the same length (" + a.length + " and " + b.length + ")"
+            );
+        }
+        ensureRoom(a.length);
+        final int base = n;
+        IntStream.range(0, a.length).parallel().forEach(i -> put(base + 2*i, a[i], b[i], kind));
+        n += 2 * a.length;
+
+        return this;
+    }
+
+    /**
+     * Packs a - b in edges[e] and b - a in edges[e+1]
+     */
+    private void put(int e, int a, int b, long kind) {
+        check(a); check(b);
+        edges[e] = kind | ((long)a << 31) | b;
+        edges[e+1] = kind | ((long)b << 31) | a;
+    }
+
+    private void check(int cell) {
+        if ((cell < 0) || (cell >= brain.size)) {
+            throw new IllegalArgumentException(
+                "cells must be between 0 and " + (brain.size - 1) + " (" + cell + ")"
+            );
+        }
+    }
+
+    /**
+     * Makes room for the given number of connections (two longs each)
+     */
+    private void ensureRoom(int connections) {
+        long needed = n + 2L * connections;
+        if (needed > MAX) {
+            throw new IllegalArgumentException("too many connections (" + (needed / 2) + ")");
+        }
+        if (needed > edges.length) {
+            edges = Arrays.copyOf(edges, (int)Math.min(MAX, Math.max(needed, 2L * edges.length)));
+        }
+    }
+}
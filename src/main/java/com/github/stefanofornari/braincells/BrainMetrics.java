@@ -0,0 +1,218 @@
+package com.github.stefanofornari.braincells;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics that add up the reports of one or more brains (and their trainers)
+ * and can be registered as an MBean, e.g.:
+ * <pre>
+ *   BrainMetrics metrics = new BrainMetrics().register("classifier");
+ *   brain.metrics(metrics);
+ * </pre>
+ * shows up in JConsole as com.github.stefanofornari.braincells:type=Brain,
+ * name="classifier". Counters can be updated by many threads at once; think
+ * times are kept in a histogram with power of two buckets.
+ */
+public class BrainMetrics implements Metrics, BrainMetricsMBean {
+    
+    static final String DOMAIN = "com.github.stefanofornari.braincells";
+    
+    private final LongAdder thoughts = new LongAdder();
+    private final LongAdder settled = new LongAdder();
+    private final LongAdder oscillating = new LongAdder();
+    private final LongAdder passes = new LongAdder();
+    private final LongAccumulator maxPasses = new LongAccumulator(Math::max, 0);
+    private final LongAdder flips = new LongAdder();
+    private final LongAdder edges = new LongAdder();
+    private final AtomicLongArray times = new AtomicLongArray(64);
+    
+    private final LongAdder learns = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    
+    private ObjectName name;
+    
+    @Override
+    public void thought(Thought thought) {
+        thoughts.increment();
+        if (thought.outcome == Thought.Outcome.SETTLED) {
+            settled.increment();
+        } else if (thought.outcome == Thought.Outcome.OSCILLATING) {
+            oscillating.increment();
+        }
+        passes.add(thought.passes);
+        maxPasses.accumulate(thought.passes);
+        flips.add(thought.flips);
+        edges.add(thought.edges);
+        times.incrementAndGet(64 - Long.numberOfLeadingZeros(thought.nanos / 1000));
+    }
+    
+    @Override
+    public void learned(int connections) {
+        learns.increment();
+        this.connections.add(connections);
+    }
+    
+    /**
+     * Registers these metrics in the platform MBean server
+     * 
+     * @param name the name of the MBean
+     * 
+     * @return this metrics
+     * 
+     * @throws JMException if the MBean can not be registered, e.g. because the
+     *         name is already in use
+     */
+    public BrainMetrics register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=Brain,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.name = objectName;
+        
+        return this;
+    }
+    
+    /**
+     * Removes these metrics from the platform MBean server, if registered
+     * 
+     * @throws JMException if the MBean can not be unregistered
+     */
+    public void unregister() throws JMException {
+        if (name != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            name = null;
+        }
+    }
+    
+    @Override
+    public long getThoughts() {
+        return thoughts.sum();
+    }
+    
+    @Override
+    public long getSettled() {
+        return settled.sum();
+    }
+    
+    @Override
+    public long getOscillating() {
+        return oscillating.sum();
+    }
+    
+    @Override
+    public long getExhausted() {
+        return getThoughts() - getSettled() - getOscillating();
+    }
+    
+    @Override
+    public long getPasses() {
+        return passes.sum();
+    }
+    
+    @Override
+    public long getMaxPasses() {
+        return maxPasses.get();
+    }
+    
+    @Override
+    public double getPassesPerThought() {
+        return ratio(getPasses(), getThoughts());
+    }
+    
+    @Override
+    public long getFlips() {
+        return flips.sum();
+    }
+    
+    @Override
+    public double getFlipsPerPass() {
+        return ratio(getFlips(), getPasses());
+    }
+    
+    @Override
+    public long getEdges() {
+        return edges.sum();
+    }
+    
+    @Override
+    public long[] getThinkTimes() {
+        int last = times.length() - 1;
+        while ((last > 0) && (times.get(last) == 0)) {
+            --last;
+        }
+        long[] histogram = new long[last + 1];
+        for (int k = 0; k <= last; ++k) {
+            histogram[k] = times.get(k);
+        }
+        return histogram;
+    }
+    
+    /**
+     * @param percentile between 0 and 100
+     * 
+     * @return the time within which the given percentage of thoughts ended,
+     *         rounded up to the bucket of the histogram (see getThinkTimes())
+     */
+    @Override
+    public double getThinkTimeMillis(double percentile) {
+        long[] histogram = getThinkTimes();
+        long total = 0;
+        for (long count: histogram) {
+            total += count;
+        }
+        
+        long seen = 0;
+        for (int k = 0; k < histogram.length; ++k) {
+            seen += histogram[k];
+            if ((seen > 0) && (seen >= percentile / 100 * total)) {
+                return (1L << k) / 1000.0;
+            }
+        }
+        return 0;
+    }
+    
+    @Override
+    public long getLearns() {
+        return learns.sum();
+    }
+    
+    @Override
+    public long getConnections() {
+        return connections.sum();
+    }
+    
+    @Override
+    public double getConnectionsPerLearn() {
+        return ratio(getConnections(), getLearns());
+    }
+    
+    @Override
+    public void reset() {
+        thoughts.reset(); settled.reset(); oscillating.reset();
+        passes.reset(); maxPasses.reset(); flips.reset(); edges.reset();
+        for (int k = 0; k < times.length(); ++k) {
+            times.set(k, 0);
+        }
+        learns.reset(); connections.reset();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format(
+            "%d thoughts (%d settled, %d oscillating, %d exhausted), %.1f passes per thought (max %d), "
+          + "%.1f flips per pass, %d edges, 99%% within %.3fms; %d learns, %.1f connections per learn",
+            getThoughts(), getSettled(), getOscillating(), getExhausted(),
+            getPassesPerThought(), getMaxPasses(), getFlipsPerPass(), getEdges(),
+            getThinkTimeMillis(99), getLearns(), getConnectionsPerLearn()
+        );
+    }
+    
+    // --------------------------------------------------------- Private methods
+    
+    private static double ratio(long a, long b) {
+        return (b == 0) ? 0 : (double)a / b;
+    }
+}
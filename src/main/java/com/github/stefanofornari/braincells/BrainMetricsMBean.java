@@ -0,0 +1,44 @@
+package com.github.stefanofornari.braincells;
+
+/**
+ * JMX view of BrainMetrics
+ */
+public interface BrainMetricsMBean {
+    
+    long getThoughts();
+    
+    long getSettled();
+    
+    long getOscillating();
+    
+    long getExhausted();
+    
+    long getPasses();
+    
+    long getMaxPasses();
+    
+    double getPassesPerThought();
+    
+    long getFlips();
+    
+    double getFlipsPerPass();
+    
+    long getEdges();
+    
+    /**
+     * @return the number of thoughts by duration: element k counts the
+     *         thoughts that took less than 2^k microseconds (and at least
+     *         2^(k-1))
+     */
+    long[] getThinkTimes();
+    
+    double getThinkTimeMillis(double percentile);
+    
+    long getLearns();
+    
+    long getConnections();
+    
+    double getConnectionsPerLearn();
+    
+    void reset();
+}
@@ -0,0 +1,140 @@
+package com.github.stefanofornari.braincells;
+
+/**
+ * An activation state of its own thinking on the frozen topology of a brain
+ * (see Brain.state()), to run inference on the same brain from many threads
+ * at once.
+ *
+ * A topology never changes once frozen and is only read while thinking, so
+ * any number of states can share it; each state keeps just one bit per cell
+ * (plus the potentials of each cell once update() is used) and can be reused
+ * for one input after another: rest() is constant time. A state is meant to
+ * be used by one thread at a time.
+ *
+ * A state keeps thinking on the topology the brain had when the state was
+ * created, whatever happens to the brain afterwards; take a new state to see
+ * new connections. Cells are indexed as the cells of the brain.
+ */
+public final class BrainState {
+
+    public final Topology topology;
+
+    private final Activation activation;
+    private final Propagation propagation;
+    private final Metrics metrics;
+
+    //
+    // potentials kept by update() as in Brain
+    //
+    private Frontier frontier;
+
+    BrainState(Topology topology, Propagation propagation, Metrics metrics) {
+        this.topology = topology;
+        this.activation = new Activation(topology.size);
+        this.propagation = propagation;
+        this.metrics = metrics;
+    }
+
+    public BrainState activate(int... positions) {
+        for (int p: positions) {
+            activation.set(topology.order.internal(p));
+        }
+        frontier = null;
+
+        return this;
+    }
+
+    public boolean isActive(int cell) {
+        return activation.get(topology.order.internal(cell));
+    }
+
+    /**
+     * De-activates all cells (see Brain.rest())
+     *
+     * @return this state
+     */
+    public BrainState rest() {
+        if (frontier != null) {
+            frontier.rest();
+        }
+        activation.clear();
+
+        return this;
+    }
+
+    /**
+     * @return a copy of the activation state of all cells (see
+     *         Brain.snapshot())
+     */
+    public long[] snapshot() {
+        return topology.order.external(activation.words());
+    }
+
+    /**
+     * Brings all cells back to the activation state of a snapshot taken from
+     * this state or from the brain
+     *
+     * @param snapshot the snapshot
+     *
+     * @return this state
+     */
+    public BrainState restore(long[] snapshot) {
+        activation.restore(topology.order.internal(snapshot));
+        frontier = null;
+
+        return this;
+    }
+
+    /**
+     * Thinks as Brain.think(Budget) with the propagation mode the brain had
+     * when this state was created; Propagation.PARALLEL runs on the common
+     * ForkJoinPool, which is shared by all threads.
+     *
+     * @param budget the maximum passes and/or time allowed
+     *
+     * @return how the thinking ended
+     */
+    public Thought think(Budget budget) {
+        frontier = null;
+
+        Thought thought = propagation.think(topology, activation, budget);
+        metrics.thought(thought);
+
+        return thought;
+    }
+
+    public Thought think() {
+        return think(Budget.UNLIMITED);
+    }
+
+    /**
+     * Switches some cells on and some off and propagates just the
+     * consequences of the change (see Brain.update())
+     *
+     * @param on the cells to activate
+     * @param off the cells to de-activate
+     * @param budget the maximum passes and/or time allowed
+     *
+     * @return how the thinking ended
+     */
+    public Thought update(int[] on, int[] off, Budget budget) {
+        if (frontier == null) {
+            frontier = new Frontier(topology, activation);
+        }
+        for (int cell: on) {
+            frontier.set(topology.order.internal(cell), true);
+        }
+        for (int cell: off) {
+            frontier.set(topology.order.internal(cell), false);
+        }
+
+        Thought thought = frontier.think(budget);
+        metrics.thought(thought);
+
+        return thought;
+    }
+
+    public Thought update(int[] on, int[] off) {
+        return update(on, off, Budget.UNLIMITED);
+    }
+}
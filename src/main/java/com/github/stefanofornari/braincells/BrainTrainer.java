@@ -1,36 +1,130 @@
 package com.github.stefanofornari.braincells;
 
+import java.util.Arrays;
+
 /**
- *
+ * Learning algorithm, R being the resistance of the cell:
+ *   if a cell is not active while expected to be active (or vice versa),
+ *     create R new promoting (detracting) connections to the first cells
+ *     found active, itself excluded, which do not have 2*R promoters
+ *     (detractors) - R being their own resistance
  */
 public class BrainTrainer {
     
     private final Brain brain;
     
+    //
+    // candidates are the active cells with capacity: instead of scanning all
+    // cells for each target, we combine the activation bits with the capacity
+    // bits a word at a time; capacity is updated as we connect cells and
+    // rebuilt only if the brain has been wired by someone else meanwhile
+    //
+    private final Capacity promotable;
+    private final Capacity detractable;
+    private long version;
+    
     public BrainTrainer(Brain brain) {
         this.brain = brain;
+        this.promotable = new Capacity(brain.promoters, brain.resistances);
+        this.detractable = new Capacity(brain.detractors, brain.resistances);
+        this.version = brain.version;
     }
     
     public void learn(int[] ons, int[] offs) {
+        if (version != brain.version) {
+            promotable.rebuild();
+            detractable.rebuild();
+        }
+        
+        int connections = 0;
         for (int cell: ons) {
-            if (brain.cells[cell].active == false) {
-                for (int i = 0; i < brain.cells.length; ++i) {
-                    BrainCell c = brain.cells[i];
-                    if ((i != cell) && (c.active) && (c.promoters.size() < 3)) {
-                        brain.promoter(i, cell);
-                    }
-                }
+            int i = brain.order.internal(cell);
+            if (brain.activation.get(i) == false) {
+                connections += connect(i, promotable, true);
             }
         }
         for (int cell: offs) {
-            if (brain.cells[cell].active == true) {
-                for (int i = 0; i < brain.cells.length; ++i) {
-                    BrainCell c = brain.cells[i];
-                    if ((i != cell) && (c.active) && (c.detractors.size() < 3)) {
-                        brain.detractor(i, cell);
+            int i = brain.order.internal(cell);
+            if (brain.activation.get(i) == true) {
+                connections += connect(i, detractable, false);
+            }
+        }
+        
+        version = brain.version;
+        brain.metrics().learned(connections);
+    }
+    
+    // --------------------------------------------------------- Private methods
+    
+    /**
+     * Connects the given cell to as many active cells with capacity as its
+     * resistance, in index order, skipping the cells it is already connected
+     * to. Cells are given as they are kept by the brain (see
+     * Brain.reorder()).
+     * 
+     * @return the number of connections created
+     */
+    private int connect(int cell, Capacity capacity, boolean promoter) {
+        final Activation activation = brain.activation;
+        final Permutation order = brain.order;
+        
+        final int resistance = brain.resistances.get(cell);
+        int missing = resistance;
+        if (order.isIdentity()) {
+            for (int w = 0; (w < activation.words.length) && (missing > 0); ++w) {
+                //
+                // connecting i and cell changes only their own capacity, so the
+                // candidates of a word do not change while we go through them
+                //
+                long candidates = activation.word(w) & capacity.word(w);
+                for (; (candidates != 0) && (missing > 0); candidates &= candidates - 1) {
+                    int i = (w << 6) + Long.numberOfTrailingZeros(candidates);
+                    if (connect(i, cell, capacity, promoter)) {
+                        --missing;
                     }
                 }
             }
+            return resistance - missing;
+        }
+        
+        //
+        // in a reordered brain the words give the candidates out of index
+        // order: we collect them all first and go through them by index
+        //
+        int[] candidates = new int[16];
+        int n = 0;
+        for (int w = 0; w < activation.words.length; ++w) {
+            for (long bits = activation.word(w) & capacity.word(w); bits != 0; bits &= bits - 1) {
+                if (n == candidates.length) {
+                    candidates = Arrays.copyOf(candidates, 2 * n);
+                }
+                candidates[n++] = order.external((w << 6) + Long.numberOfTrailingZeros(bits));
+            }
+        }
+        Arrays.sort(candidates, 0, n);
+        for (int k = 0; (k < n) && (missing > 0); ++k) {
+            if (connect(order.internal(candidates[k]), cell, capacity, promoter)) {
+                --missing;
+            }
+        }
+        return resistance - missing;
+    }
+    
+    /**
+     * Connects i to cell unless they are the same cell or already connected
+     * 
+     * @return true if a new connection has been created, false otherwise
+     */
+    private boolean connect(int i, int cell, Capacity capacity, boolean promoter) {
+        final Adjacency adjacency = promoter ? brain.promoters : brain.detractors;
+        
+        if ((i == cell) || adjacency.contains(i, cell)) {
+            return false;
         }
+        brain.connect(adjacency, i, cell);
+        capacity.update(i);
+        capacity.update(cell);
+        
+        return true;
     }
 }
@@ -0,0 +1,41 @@
+package com.github.stefanofornari.braincells;
+
+import java.time.Duration;
+
+/**
+ * How much think() is allowed to work before giving up: a maximum number of
+ * passes (see Thought.passes) and/or a maximum time.
+ */
+public final class Budget {
+    
+    /**
+     * No limits; think() still stops if the brain oscillates
+     */
+    public static final Budget UNLIMITED = new Budget(Integer.MAX_VALUE, Long.MAX_VALUE);
+    
+    public final int passes;
+    public final long nanos;
+    
+    private Budget(int passes, long nanos) {
+        if (passes <= 0) {
+            throw new IllegalArgumentException("passes must be greater than 0 (" + passes + ")");
+        }
+        if (nanos <= 0) {
+            throw new IllegalArgumentException("timeout must be greater than 0 (" + nanos + "ns)");
+        }
+        this.passes = passes;
+        this.nanos = nanos;
+    }
+    
+    public static Budget passes(int passes) {
+        return new Budget(passes, Long.MAX_VALUE);
+    }
+    
+    public static Budget timeout(Duration timeout) {
+        return new Budget(Integer.MAX_VALUE, timeout.toNanos());
+    }
+    
+    public static Budget of(int passes, Duration timeout) {
+        return new Budget(passes, timeout.toNanos());
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+
+/**
+ * The cells that can still take connections of one kind, i.e. that have less
+ * than twice their resistance of them, one bit per cell like in Activation.
+ */
+class Capacity {
+    
+    private final Adjacency adjacency;
+    private final IntBuffer resistances;
+    private final long[] words;
+    
+    Capacity(Adjacency adjacency, IntBuffer resistances) {
+        this.adjacency = adjacency;
+        this.resistances = resistances;
+        this.words = new long[(adjacency.size + 63) >>> 6];
+        
+        rebuild();
+    }
+    
+    void rebuild() {
+        for (int i = 0; i < adjacency.size; ++i) {
+            update(i);
+        }
+    }
+    
+    /**
+     * Updates the capacity of the given cell after its connections changed
+     */
+    void update(int cell) {
+        if (adjacency.degree(cell) < 2 * resistances.get(cell)) {
+            words[cell >>> 6] |= (1L << cell);
+        } else {
+            words[cell >>> 6] &= ~(1L << cell);
+        }
+    }
+    
+    long word(int w) {
+        return words[w];
+    }
+}
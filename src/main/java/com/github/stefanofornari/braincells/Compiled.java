@@ -0,0 +1,488 @@
+package com.github.stefanofornari.braincells;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Propagation.COMPILED: Sweep running on code generated for the topology.
+ *
+ * The topology is turned into a class whose pass() evaluates each cell once,
+ * in index order, in straight-line code without loops or branches: the
+ * neighbours of a cell are constants, grouped by activation word into masks,
+ * so that its potential is a sum of Long.bitCount(words[w] & mask) terms, and
+ * whether it flips is worked out arithmetically from the sign of its
+ * potential against its resistance. Cells that can never flip (resistance
+ * greater than their connections) are left out. The code is split in methods
+ * small enough for the JIT, which does not compile methods over 8000 bytes.
+ *
+ * The class is defined as a hidden class, unloaded with the topology it is
+ * kept with, so that it is generated at most once per freeze(). The cells
+ * flipped by a pass are found comparing the states before and after it:
+ * passes, flips and outcome are exactly those of SWEEP.
+ *
+ * The code grows with the connections and past a few tens of thousands of
+ * them it no longer fits the caches of the processor, running slower than
+ * Sweep: topologies with more connections than braincells.compiled.limit
+ * (16K by default), with cells whose neighbours span more than GROUPS
+ * words, or whose code can not be generated or loaded, are left to Sweep.
+ * So are all topologies before JDK 15, which has no hidden classes.
+ */
+abstract class Compiled {
+
+    //
+    // each topology compiled takes a class, in the metaspace until the
+    // topology is collected; without hidden classes (before JDK 15) classes
+    // would never be unloaded, so nothing is compiled there
+    //
+    static final int LIMIT = Integer.getInteger("braincells.compiled.limit", 1 << 14);
+
+    /**
+     * The most words the neighbours of a cell can span
+     */
+    static final int GROUPS = 256;
+
+    private static final String NAME = "com/github/stefanofornari/braincells/Compiled$Pass";
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+    private static final String SUPER = "com/github/stefanofornari/braincells/Compiled";
+
+    //
+    // Lookup.defineHiddenClass(), null before JDK 15
+    //
+    private static final Method DEFINE = hidden();
+
+    //
+    // bytes of code per method and calls per dispatching method, under the
+    // 8000 bytes the JIT compiles
+    //
+    private static final int CHUNK = 7000;
+    private static final int FANOUT = 1500;
+
+    Compiled() {
+    }
+
+    /**
+     * Evaluates every cell once, in index order, flipping the bits of the
+     * cells that flip
+     */
+    abstract void pass(long[] words);
+
+    static Thought think(Topology t, Activation a, Budget budget) {
+        Compiled code = t.compiled;
+        if ((code == null) && !t.interpreted) {
+            //
+            // threads racing here just compile twice
+            //
+            code = compile(t, LIMIT);
+            if (code == null) {
+                t.interpreted = true;
+            } else {
+                t.compiled = code;
+            }
+        }
+        return (code == null) ? Sweep.think(t, a, budget) : code.think(t.connections(), a, budget);
+    }
+
+    /**
+     * @return the compiled passes of the given topology, or null if it can
+     *         not be compiled
+     */
+    static Compiled compile(Topology t, int limit) {
+        if ((DEFINE == null) || (t.connections() > limit)) {
+            return null;
+        }
+        try {
+            byte[] bytes = new Generator(t).generate();
+            if (bytes == null) {
+                return null;
+            }
+            return (Compiled)define(bytes).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError x) {
+            return null;
+        }
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private Thought think(int connections, Activation a, Budget budget) {
+        final long[] words = a.words();
+        final long[] before = new long[words.length];
+        final Convergence convergence = new Convergence(budget, words);
+
+        while (true) {
+            convergence.scanned(connections);
+            System.arraycopy(words, 0, before, 0, words.length);
+            pass(words);
+
+            boolean again = false;
+            for (int w = 0; w < words.length; ++w) {
+                for (long flipped = before[w] ^ words[w]; flipped != 0; flipped &= flipped - 1) {
+                    convergence.flip(((long)w << 6) + Long.numberOfTrailingZeros(flipped));
+                    again = true;
+                }
+            }
+            if (!again) {
+                return convergence.settled();
+            }
+            Thought thought = convergence.pass(words);
+            if (thought != null) {
+                return thought;
+            }
+        }
+    }
+
+    private static Class<?> define(byte[] bytes) throws ReflectiveOperationException {
+        Object none = Array.newInstance(DEFINE.getParameterTypes()[2].getComponentType(), 0);
+        return ((MethodHandles.Lookup)DEFINE.invoke(MethodHandles.lookup(), bytes, true, none)).lookupClass();
+    }
+
+    private static Method hidden() {
+        try {
+            Class<?> options = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            return MethodHandles.Lookup.class.getMethod(
+                "defineHiddenClass", byte[].class, boolean.class, Array.newInstance(options, 0).getClass()
+            );
+        } catch (ReflectiveOperationException x) {
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------- Generator
+
+    /**
+     * Writes the class file of the passes of a topology
+     */
+    private static class Generator {
+
+        private static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ILOAD_1 = 0x1b, ILOAD_2 = 0x1c,
+                                 ISTORE_1 = 0x3c, ISTORE_2 = 0x3d, LALOAD = 0x2f, LASTORE = 0x50,
+                                 DUP2 = 0x5c, IADD = 0x60, ISUB = 0x64, IAND = 0x7e, IXOR = 0x82,
+                                 LAND = 0x7f, LXOR = 0x83, IUSHR = 0x7c, LSHL = 0x79, LUSHR = 0x7d,
+                                 I2L = 0x85, L2I = 0x88, ICONST_0 = 0x03, ICONST_1 = 0x04,
+                                 BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14,
+                                 INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, RETURN = 0xb1;
+
+        private static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008,
+                                 ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+        private final Topology t;
+
+        //
+        // unique, to tell the classes apart in stack traces and profiles
+        //
+        private final String name = NAME + SEQUENCE.incrementAndGet();
+
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream constants = new DataOutputStream(pool);
+        private final Map<Object, Integer> indexes = new HashMap<>();
+        private int entries = 1;
+
+        private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+        private int count = 0;
+
+        private final long[] masks = new long[GROUPS];
+        private final int[] words = new int[GROUPS];
+
+        Generator(Topology t) {
+            this.t = t;
+        }
+
+        /**
+         * @return the class file, null if the topology is too large
+         */
+        byte[] generate() {
+            try {
+                method(ACC_PUBLIC, "<init>", "()V", 1, 1, init());
+
+                List<Integer> calls = new ArrayList<>();
+                ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+                for (int i = 0; i < t.size; ++i) {
+                    ByteArrayOutputStream cell = cell(i);
+                    if (cell == null) {
+                        return null;
+                    }
+                    if ((chunk.size() > 0) && (chunk.size() + cell.size() > CHUNK)) {
+                        calls.add(chunk(chunk));
+                        chunk.reset();
+                    }
+                    cell.writeTo(chunk);
+                }
+                if (chunk.size() > 0) {
+                    calls.add(chunk(chunk));
+                }
+                while (calls.size() > FANOUT) {
+                    List<Integer> groups = new ArrayList<>();
+                    for (int c = 0; c < calls.size(); c += FANOUT) {
+                        groups.add(chunk(calls(ALOAD_0, calls.subList(c, Math.min(calls.size(), c + FANOUT)))));
+                    }
+                    calls = groups;
+                }
+                ByteArrayOutputStream pass = calls(ALOAD_1, calls);
+                pass.write(RETURN);
+                method(0, "pass", "([J)V", 2, 2, pass);
+
+                if (entries > 0xFFFF) {
+                    return null;
+                }
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(54);
+                int self = type(name), parent = type(SUPER);
+                out.writeShort(entries);
+                pool.writeTo(out);
+                out.writeShort(ACC_FINAL | ACC_SUPER);
+                out.writeShort(self);
+                out.writeShort(parent);
+                out.writeShort(0); // interfaces
+                out.writeShort(0); // fields
+                out.writeShort(count);
+                methods.writeTo(out);
+                out.writeShort(0); // attributes
+                out.flush();
+
+                return bytes.toByteArray();
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+        }
+
+        // ----------------------------------------------------------- code
+
+        private ByteArrayOutputStream init() throws IOException {
+            ByteArrayOutputStream code = new ByteArrayOutputStream();
+            code.write(ALOAD_0);
+            code.write(INVOKESPECIAL); u2(code, methodref(SUPER, "<init>", "()V"));
+            code.write(RETURN);
+            return code;
+        }
+
+        /**
+         * The code of cell i, with the words in local 0:
+         *
+         *   p = bitCount(words[w] & mask) + ... - bitCount(words[w'] & mask') - ...
+         *   m = active - 1                       (0 if active, -1 otherwise)
+         *   words[i >>> 6] ^= (long)(((p ^ m) - m + resistance - 1) >>> 31) << i
+         *
+         * (p ^ m) - m is p for an active cell, -p for an inactive one: its
+         * sum with resistance - 1 is negative exactly when the cell flips.
+         *
+         * @return the code, empty if the cell can never flip, null if its
+         *         neighbours span too many words
+         */
+        private ByteArrayOutputStream cell(int i) throws IOException {
+            ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+            int resistance = t.resistance(i);
+            if (resistance > t.promoters(i) + t.detractors(i)) {
+                return code;
+            }
+
+            int promoters = groups(t.promoterOffsets, t.promoters, i);
+            if (promoters < 0) {
+                return null;
+            }
+            for (int g = 0; g < promoters; ++g) {
+                bitCount(code, words[g], masks[g]);
+                if (g > 0) {
+                    code.write(IADD);
+                }
+            }
+            if (promoters == 0) {
+                code.write(ICONST_0);
+            }
+            int detractors = groups(t.detractorOffsets, t.detractors, i);
+            if (detractors < 0) {
+                return null;
+            }
+            for (int g = 0; g < detractors; ++g) {
+                bitCount(code, words[g], masks[g]);
+                code.write(ISUB);
+            }
+            code.write(ISTORE_1);
+
+            code.write(ALOAD_0); push(code, i >>> 6); code.write(LALOAD);
+            push(code, i & 63); code.write(LUSHR); code.write(L2I);
+            code.write(ICONST_1); code.write(IAND); code.write(ICONST_1); code.write(ISUB);
+            code.write(ISTORE_2);
+
+            code.write(ALOAD_0); push(code, i >>> 6); code.write(DUP2); code.write(LALOAD);
+            code.write(ILOAD_1); code.write(ILOAD_2); code.write(IXOR); code.write(ILOAD_2); code.write(ISUB);
+            if (resistance > 1) {
+                push(code, resistance - 1); code.write(IADD);
+            }
+            push(code, 31); code.write(IUSHR); code.write(I2L);
+            push(code, i & 63); code.write(LSHL);
+            code.write(LXOR); code.write(LASTORE);
+
+            return code;
+        }
+
+        /**
+         * Groups the neighbours of cell i by word in words and masks
+         *
+         * @return the number of groups, -1 if more than GROUPS
+         */
+        private int groups(IntBuffer offsets, IntBuffer neighbours, int i) {
+            int n = 0;
+            for (int k = offsets.get(i), to = offsets.get(i+1); k < to; ++k) {
+                int j = neighbours.get(k);
+                if ((n == 0) || (words[n-1] != (j >>> 6))) {
+                    if (n == GROUPS) {
+                        return -1;
+                    }
+                    words[n] = j >>> 6;
+                    masks[n++] = 0;
+                }
+                masks[n-1] |= 1L << j;
+            }
+            return n;
+        }
+
+        private void bitCount(ByteArrayOutputStream code, int word, long mask) throws IOException {
+            code.write(ALOAD_0); push(code, word); code.write(LALOAD);
+            code.write(LDC2_W); u2(code, constant(mask)); code.write(LAND);
+            code.write(INVOKESTATIC); u2(code, methodref("java/lang/Long", "bitCount", "(J)I"));
+        }
+
+        /**
+         * @return code calling the given methods with the words in the
+         *         given local
+         */
+        private ByteArrayOutputStream calls(int load, List<Integer> methods) throws IOException {
+            ByteArrayOutputStream code = new ByteArrayOutputStream();
+            for (int m: methods) {
+                code.write(load);
+                code.write(INVOKESTATIC); u2(code, methodref(name, "m" + m, "([J)V"));
+            }
+            return code;
+        }
+
+        private void push(ByteArrayOutputStream code, int value) throws IOException {
+            if ((value >= -1) && (value <= 5)) {
+                code.write(ICONST_0 + value);
+            } else if ((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE)) {
+                code.write(BIPUSH); code.write(value);
+            } else if ((value >= Short.MIN_VALUE) && (value <= Short.MAX_VALUE)) {
+                code.write(SIPUSH); u2(code, value);
+            } else {
+                int index = constant(value);
+                if (index < 256) {
+                    code.write(LDC); code.write(index);
+                } else {
+                    code.write(LDC_W); u2(code, index);
+                }
+            }
+        }
+
+        // ------------------------------------------------------- class file
+
+        /**
+         * Adds a private static method m<n>(long[]) with the given code
+         *
+         * @return n
+         */
+        private int chunk(ByteArrayOutputStream code) throws IOException {
+            int n = count;
+            code.write(RETURN);
+            method(ACC_PRIVATE | ACC_STATIC, "m" + n, "([J)V", 8, 3, code);
+            return n;
+        }
+
+        private void method(
+            int access, String name, String descriptor, int stack, int locals, ByteArrayOutputStream code
+        ) throws IOException {
+            DataOutputStream out = new DataOutputStream(methods);
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + code.size());
+            out.writeShort(stack);
+            out.writeShort(locals);
+            out.writeInt(code.size());
+            code.writeTo(out);
+            out.writeShort(0); // exceptions
+            out.writeShort(0); // attributes
+            ++count;
+        }
+
+        private int utf8(String value) throws IOException {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                constants.writeByte(1);
+                constants.writeUTF(value);
+                indexes.put(value, index = entries++);
+            }
+            return index;
+        }
+
+        private int type(String name) throws IOException {
+            String key = "class " + name;
+            Integer index = indexes.get(key);
+            if (index == null) {
+                int utf8 = utf8(name);
+                constants.writeByte(7);
+                constants.writeShort(utf8);
+                indexes.put(key, index = entries++);
+            }
+            return index;
+        }
+
+        private int methodref(String owner, String name, String descriptor) throws IOException {
+            String key = "method " + owner + "." + name + descriptor;
+            Integer index = indexes.get(key);
+            if (index == null) {
+                int type = type(owner), n = utf8(name), d = utf8(descriptor);
+                constants.writeByte(12);
+                constants.writeShort(n);
+                constants.writeShort(d);
+                int signature = entries++;
+                constants.writeByte(10);
+                constants.writeShort(type);
+                constants.writeShort(signature);
+                indexes.put(key, index = entries++);
+            }
+            return index;
+        }
+
+        private int constant(int value) throws IOException {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                constants.writeByte(3);
+                constants.writeInt(value);
+                indexes.put(value, index = entries++);
+            }
+            return index;
+        }
+
+        private int constant(long value) throws IOException {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                constants.writeByte(5);
+                constants.writeLong(value);
+                indexes.put(value, index = entries);
+                entries += 2;
+            }
+            return index;
+        }
+
+        private static void u2(ByteArrayOutputStream code, int value) {
+            code.write(value >>> 8);
+            code.write(value);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+
+/**
+ * Read-only Set view of the promoters or detractors of a cell, backed by the
+ * brain adjacency. Connections are added through Brain.promoter() and
+ * Brain.detractor().
+ */
+class Connections extends AbstractSet<BrainCell> {
+
+    private final Brain brain;
+    private final Adjacency adjacency;
+    private final int cell;
+
+    Connections(Brain brain, Adjacency adjacency, int cell) {
+        this.brain = brain;
+        this.adjacency = adjacency;
+        this.cell = cell;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof BrainCell)) {
+            return false;
+        }
+        BrainCell other = (BrainCell)o;
+
+        return (other.brain == brain)
+            && adjacency.contains(brain.order.internal(cell), brain.order.internal(other.index));
+    }
+
+    @Override
+    public int size() {
+        return adjacency.degree(brain.order.internal(cell));
+    }
+
+    @Override
+    public Iterator<BrainCell> iterator() {
+        return new Iterator<BrainCell>() {
+            private final PrimitiveIterator.OfInt neighbours = adjacency.neighboursOf(brain.order.internal(cell));
+
+            @Override
+            public boolean hasNext() {
+                return neighbours.hasNext();
+            }
+
+            @Override
+            public BrainCell next() {
+                return brain.cell(brain.order.external(neighbours.nextInt()));
+            }
+        };
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the passes of a propagation, checking the budget and
+ * detecting cycles.
+ * 
+ * A cycle is detected with Brent's algorithm: the state at the end of pass
+ * 2^k is saved and compared with the states of the following passes, up to
+ * pass 2^(k+1) when a new state is saved. To avoid comparing whole states,
+ * each state is hashed as the XOR of a mix of the index of its active cells,
+ * which is updated in constant time at every flip; states are compared only
+ * when the hashes match.
+ * 
+ * Along the way it counts flips and the connections the propagation went
+ * through (see scanned()), reported in the Thought.
+ */
+final class Convergence {
+    
+    private final Budget budget;
+    private final long start;
+    
+    private int passes = 0;
+    private long flips = 0;
+    private long edges = 0;
+    
+    private long hash = 0; // relative to the initial state
+    private long[] saved;
+    private long savedHash = 0;
+    private int power = 1, lambda = 0;
+    
+    Convergence(Budget budget, long[] state) {
+        this.budget = budget;
+        this.start = System.nanoTime();
+        this.saved = state.clone();
+    }
+    
+    /**
+     * To be called when bit i of the state flips
+     */
+    void flip(long i) {
+        ++flips;
+        
+        //
+        // splitmix64 finalizer
+        //
+        long z = (i + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        hash ^= z ^ (z >>> 31);
+    }
+    
+    /**
+     * To be called by the propagation for the connections it goes through
+     */
+    void scanned(long edges) {
+        this.edges += edges;
+    }
+    
+    /**
+     * To be called at the end of each pass that flipped at least one cell.
+     * 
+     * @param state the state at the end of the pass
+     * 
+     * @return null to go on with another pass, the outcome of the thinking
+     *         otherwise
+     */
+    Thought pass(long[] state) {
+        ++passes; ++lambda;
+        
+        if ((hash == savedHash) && Arrays.equals(state, saved)) {
+            return thought(Thought.Outcome.OSCILLATING, lambda);
+        }
+        if (lambda == power) {
+            saved = state.clone();
+            savedHash = hash;
+            power <<= 1;
+            lambda = 0;
+        }
+        
+        if ((passes >= budget.passes) || (System.nanoTime() - start >= budget.nanos)) {
+            return thought(Thought.Outcome.EXHAUSTED, 0);
+        }
+        
+        return null;
+    }
+    
+    Thought settled() {
+        return thought(Thought.Outcome.SETTLED, 0);
+    }
+    
+    // --------------------------------------------------------- Private methods
+    
+    private Thought thought(Thought.Outcome outcome, int period) {
+        return new Thought(outcome, passes, period, flips, edges, System.nanoTime() - start);
+    }
+}
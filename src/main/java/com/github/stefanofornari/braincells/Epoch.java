@@ -0,0 +1,51 @@
+package com.github.stefanofornari.braincells;
+
+/**
+ * The outcome of one pass of a Training over its samples.
+ */
+public final class Epoch {
+    
+    /**
+     * The number of samples evaluated
+     */
+    public final int samples;
+    
+    /**
+     * The number of samples the brain got right before learning from them
+     */
+    public final int correct;
+    
+    /**
+     * The time taken by the epoch, learning included
+     */
+    public final long nanos;
+    
+    Epoch(int samples, int correct, long nanos) {
+        this.samples = samples;
+        this.correct = correct;
+        this.nanos = nanos;
+    }
+    
+    /**
+     * @return the fraction of samples the brain got right, 0 if there were no
+     *         samples
+     */
+    public double accuracy() {
+        return (samples == 0) ? 0 : (double)correct / samples;
+    }
+    
+    /**
+     * @return the number of samples processed per second
+     */
+    public double throughput() {
+        return (nanos == 0) ? 0 : samples * 1e9 / nanos;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format(
+            "%d samples, %.2f%% accuracy, %.0f samples/s",
+            samples, accuracy() * 100, throughput()
+        );
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.BitSet;
+
+/**
+ * Propagation.FRONTIER: event driven version of Sweep.
+ * 
+ * A cell can flip only if its potential or its own state changed since it was
+ * last evaluated; every other cell would be evaluated by a sweep without any
+ * effect. We therefore keep the potential of each cell and a set of dirty
+ * cells (the neighbours of the cells that flipped) and visit just the dirty
+ * cells, moving a cursor through the indexes exactly like a sweep does: a
+ * cell made dirty ahead of the cursor is visited in the current pass, one
+ * behind the cursor in the next pass. The sequence of flips is therefore the
+ * same of Sweep, and so are the states at the end of each pass (when the
+ * cursor wraps around).
+ * 
+ * Potentials and dirty cells are kept from one think() to the next, so that
+ * after switching a few cells on or off with set() only the consequences of
+ * the change are propagated (see Brain.update()).
+ */
+class Frontier {
+    
+    final Topology t;
+    final Activation a;
+    
+    private final int[] potential;
+    private final BitSet dirty;
+    
+    //
+    // connections gone through by spread() outside of think()
+    //
+    private long scanned = 0;
+    
+    Frontier(Topology t, Activation a) {
+        this.t = t;
+        this.a = a;
+        this.potential = new int[t.size];
+        this.dirty = new BitSet(t.size);
+        
+        //
+        // only the neighbours of active cells have a potential; all other
+        // cells have potential 0 and would not flip (resistance is at least 1)
+        //
+        for (int i = a.next(0); i >= 0; i = a.next(i+1)) {
+            scanned += spread(i, 1);
+        }
+    }
+    
+    static Thought think(Topology t, Activation a, Budget budget) {
+        return new Frontier(t, a).think(budget);
+    }
+    
+    /**
+     * Switches the given cell on or off, updating the potentials of its
+     * neighbours; the cell is evaluated again by the next think() as well.
+     */
+    void set(int cell, boolean active) {
+        if (a.get(cell) != active) {
+            a.set(cell, active);
+            scanned += spread(cell, active ? 1 : -1);
+        }
+        dirty.set(cell);
+    }
+    
+    /**
+     * To be called just before all cells are de-activated: brings the
+     * potentials back to 0 going through the active cells only
+     */
+    void rest() {
+        for (int i = a.next(0); i >= 0; i = a.next(i+1)) {
+            spread(i, -1);
+        }
+        dirty.clear();
+    }
+    
+    Thought think(Budget budget) {
+        final Convergence convergence = new Convergence(budget, a.words());
+        convergence.scanned(scanned);
+        scanned = 0;
+        
+        int cursor = 0;
+        boolean flipped = false;
+        while (!dirty.isEmpty()) {
+            int i = dirty.nextSetBit(cursor);
+            if (i < 0) {
+                //
+                // next pass; a pass that flipped some cells always leaves
+                // some dirty cells
+                //
+                Thought thought = convergence.pass(a.words());
+                if (thought != null) {
+                    return thought;
+                }
+                cursor = 0;
+                flipped = false;
+                continue;
+            }
+            dirty.clear(i);
+            cursor = i + 1;
+            
+            boolean active = a.get(i);
+            if (t.flips(i, potential[i], active)) {
+                a.set(i, !active);
+                convergence.flip(i);
+                flipped = true;
+                convergence.scanned(spread(i, active ? -1 : 1));
+            }
+        }
+        
+        if (flipped) {
+            Thought thought = convergence.pass(a.words());
+            if (thought != null) {
+                return thought;
+            }
+        }
+        
+        return convergence.settled();
+    }
+    
+    // --------------------------------------------------------- Private methods
+    
+    /**
+     * Applies the activation (delta = 1) or de-activation (delta = -1) of
+     * cell i to the potential of its neighbours, marking them dirty.
+     * Connections are symmetric, so the promoters of i are the cells i
+     * promotes.
+     * 
+     * @return the number of connections gone through
+     */
+    private int spread(int i, int delta) {
+        for (int k = t.promoterOffsets.get(i), to = t.promoterOffsets.get(i+1); k < to; ++k) {
+            int j = t.promoters.get(k);
+            potential[j] += delta;
+            dirty.set(j);
+        }
+        for (int k = t.detractorOffsets.get(i), to = t.detractorOffsets.get(i+1); k < to; ++k) {
+            int j = t.detractors.get(k);
+            potential[j] -= delta;
+            dirty.set(j);
+        }
+        return t.promoters(i) + t.detractors(i);
+    }
+}
@@ -0,0 +1,514 @@
+package com.github.stefanofornari.braincells;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the connections and resistances of a brain, so
+ * that what a brain learns survives a crash.
+ *
+ * A journal lives in a directory with a base image of the brain (brain.img,
+ * see BrainImage) and the segments written since (segment-N.log). recover()
+ * maps the image (or takes a new brain), replays the segments on top of it
+ * and attaches the journal to the brain, which from then on records every
+ * new connection (promoter(), detractor(), learning, BrainLoader), every
+ * connection removed (Pruning) and every resistance change. compact() folds
+ * the segments into a new base image in the background.
+ *
+ * Entries are 9 bytes (kind, a, b) and are written in groups (group commit):
+ * a group is written when its buffer is full, when commit() is called and
+ * every interval() by a background thread, which then also forces the
+ * segment to disk; with a zero interval every entry is written and forced
+ * right away. At most the entries of the last interval are lost in a crash,
+ * and recording never waits for the disk but to write full buffers.
+ *
+ * Each group is its length, its entries and their CRC32 (little endian): a
+ * group torn by a crash is detected and ignored, with whatever follows it in
+ * the same segment. Replay adds and removes connections in bulk (see
+ * BrainLoader); replaying an entry twice does no harm.
+ *
+ * Recording is not thread safe, as the brain; failures of the background
+ * thread are thrown as UncheckedIOException at the next entry or commit().
+ */
+public final class Journal implements AutoCloseable {
+
+    static final String IMAGE = "brain.img";
+
+    private static final byte PROMOTER = 1, DETRACTOR = 2, RESISTANCE = 3,
+                              NO_PROMOTER = 4, NO_DETRACTOR = 5;
+    private static final int ENTRY = 9;
+
+    private final Path dir;
+
+    private Duration interval = Duration.ofMillis(50);
+    private int capacity = 1 << 16;
+
+    private Brain brain;
+    private ByteBuffer buffer;
+    private FileChannel channel;
+    private long segment;
+    private boolean dirty = false;
+    private ScheduledExecutorService flusher;
+    private volatile IOException failure;
+    private CompletableFuture<Void> compaction = CompletableFuture.completedFuture(null);
+
+    private long entries = 0, groups = 0, syncs = 0;
+
+    private Journal(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @param dir the directory of the journal, created if it does not exist
+     *
+     * @return the journal in the given directory, to be recovered
+     *
+     * @throws IOException if the directory can not be created
+     */
+    public static Journal open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+
+        return new Journal(dir);
+    }
+
+    /**
+     * @param interval how often pending entries are written and forced to
+     *                 disk (50ms by default); zero to force every entry
+     *
+     * @return this journal
+     */
+    public Journal interval(Duration interval) {
+        if (interval.isNegative()) {
+            throw new IllegalArgumentException("interval must not be negative (" + interval + ")");
+        }
+        this.interval = interval;
+
+        return this;
+    }
+
+    /**
+     * @param bytes the most bytes of entries buffered before they are written
+     *              (64KB by default)
+     *
+     * @return this journal
+     */
+    public Journal capacity(int bytes) {
+        if (bytes < ENTRY) {
+            throw new IllegalArgumentException("capacity must be at least " + ENTRY + " (" + bytes + ")");
+        }
+        this.capacity = bytes;
+
+        return this;
+    }
+
+    /**
+     * Rebuilds the brain from the base image, or the given new brain if
+     * there is none yet, and the segments written since, and starts
+     * recording its changes in a new segment.
+     *
+     * @param fresh creates the brain when there is no base image
+     *
+     * @return the recovered brain, with this journal attached
+     *
+     * @throws IOException if the image or a segment can not be read
+     */
+    public Brain recover(Supplier<Brain> fresh) throws IOException {
+        if (buffer != null) {
+            throw new IllegalStateException("journal already recovered");
+        }
+
+        //
+        // images a crash left half written
+        //
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file: (Iterable<Path>)files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(IMAGE + "-") && name.endsWith(".tmp")) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        Path image = dir.resolve(IMAGE);
+        Brain b = Files.exists(image) ? BrainImage.map(image).brain() : fresh.get();
+
+        List<Long> segments = segments();
+        Replay replay = new Replay(b);
+        for (long s: segments) {
+            replay.segment(path(s));
+        }
+        replay.flush();
+
+        buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+        channel = create(segment);
+
+        brain = b;
+        brain.journal = this;
+        if (!interval.isZero()) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "journal-" + dir.getFileName());
+                t.setDaemon(true);
+                return t;
+            });
+            long nanos = interval.toNanos();
+            flusher.scheduleWithFixedDelay(this::flush, nanos, nanos, TimeUnit.NANOSECONDS);
+        }
+
+        return brain;
+    }
+
+    /**
+     * Writes all pending entries and forces them to disk
+     *
+     * @throws IOException in case of errors writing the segment
+     */
+    public synchronized void commit() throws IOException {
+        ensureOk();
+        write();
+        force();
+    }
+
+    /**
+     * Folds everything recorded so far into a new base image: recording goes
+     * on in a new segment, the image is written in the background from the
+     * topology the brain has now and replaces the old one, then the segments
+     * it includes are deleted. Compactions run one at a time, in the order
+     * they are requested, each writing its own temporary file. A crash at
+     * any time leaves a journal that recovers to the same brain. To be called
+     * from the thread wiring the brain.
+     *
+     * @return when the new image is in place
+     *
+     * @throws IOException in case of errors closing the current segment
+     */
+    public CompletableFuture<Void> compact() throws IOException {
+        synchronized (this) {
+            ensureOk();
+            write();
+            force();
+            channel.close();
+            final long last = segment;
+            channel = create(++segment);
+            final Topology topology = brain.freeze();
+
+            //
+            // one compaction at a time, in order, so that an older image
+            // never replaces a newer one whose segments are gone already
+            //
+            compaction = compaction.handle((nothing, error) -> null).thenRunAsync(() -> {
+                Path temporary = null;
+                try {
+                    temporary = Files.createTempFile(dir, IMAGE + "-", ".tmp");
+                    BrainImage.write(topology, new Activation(topology.size), temporary);
+                    try (FileChannel c = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                        c.force(true);
+                    }
+                    Files.move(
+                        temporary, dir.resolve(IMAGE),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+                    );
+                    for (long s: segments()) {
+                        if (s <= last) {
+                            Files.delete(path(s));
+                        }
+                    }
+                } catch (IOException x) {
+                    if (temporary != null) {
+                        try {
+                            Files.deleteIfExists(temporary);
+                        } catch (IOException y) {
+                            x.addSuppressed(y);
+                        }
+                    }
+                    throw new UncheckedIOException(x);
+                }
+            });
+
+            return compaction;
+        }
+    }
+
+    /**
+     * @return the number of entries recorded since recover()
+     */
+    public synchronized long entries() {
+        return entries;
+    }
+
+    /**
+     * @return the number of groups written since recover()
+     */
+    public synchronized long groups() {
+        return groups;
+    }
+
+    /**
+     * @return the number of times a segment has been forced to disk since
+     *         recover()
+     */
+    public synchronized long syncs() {
+        return syncs;
+    }
+
+    /**
+     * Commits pending entries and detaches the journal from the brain, which
+     * stops recording; the journal can not be recovered again
+     *
+     * @throws IOException in case of errors writing the segment
+     */
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        if (brain != null) {
+            try {
+                commit();
+            } finally {
+                brain.journal = null;
+                synchronized (this) {
+                    channel.close();
+                    brain = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "journal " + dir + " at segment " + segment + ", " + entries + " entries";
+    }
+
+    // ------------------------------------------------------ Package methods
+
+    void connected(boolean promoter, int a, int b) {
+        record(promoter ? PROMOTER : DETRACTOR, a, b);
+    }
+
+    void disconnected(boolean promoter, int a, int b) {
+        record(promoter ? NO_PROMOTER : NO_DETRACTOR, a, b);
+    }
+
+    void resisted(int cell, int resistance) {
+        record(RESISTANCE, cell, resistance);
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private synchronized void record(byte kind, int a, int b) {
+        try {
+            ensureOk();
+            if (buffer.remaining() < ENTRY) {
+                write();
+            }
+            buffer.put(kind).putInt(a).putInt(b);
+            ++entries;
+            if (interval.isZero()) {
+                write();
+                force();
+            }
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    /**
+     * Writes the buffered entries as a group
+     */
+    private void write() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+
+        ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, buffer.remaining());
+        ByteBuffer checksum = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, (int)crc.getValue());
+        ByteBuffer[] group = {length, buffer, checksum};
+        while (checksum.hasRemaining()) {
+            channel.write(group);
+        }
+        buffer.clear();
+        ++groups;
+        dirty = true;
+    }
+
+    private void force() throws IOException {
+        if (dirty) {
+            channel.force(false);
+            dirty = false;
+            ++syncs;
+        }
+    }
+
+    /**
+     * Background group commit
+     */
+    private void flush() {
+        try {
+            synchronized (this) {
+                if (failure == null) {
+                    write();
+                    force();
+                }
+            }
+        } catch (ClosedChannelException x) {
+            //
+            // closed meanwhile
+            //
+        } catch (IOException x) {
+            failure = x;
+        }
+    }
+
+    private void ensureOk() throws IOException {
+        if (brain == null) {
+            throw new IllegalStateException("journal not recovered yet");
+        }
+        if (failure != null) {
+            throw new IOException("journal failed in background", failure);
+        }
+    }
+
+    private Path path(long segment) {
+        return dir.resolve(String.format("segment-%d.log", segment));
+    }
+
+    private FileChannel create(long segment) throws IOException {
+        return FileChannel.open(path(segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return the numbers of the segments in the directory, sorted
+     */
+    private List<Long> segments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.matches("segment-[0-9]+\\.log")) {
+                    segments.add(Long.parseLong(name.substring(8, name.length() - 4)));
+                }
+            });
+        }
+        segments.sort(null);
+
+        return segments;
+    }
+
+    // ---------------------------------------------------------------- Replay
+
+    /**
+     * Replays segments onto a brain: connections added are collected and
+     * loaded in bulk (see BrainLoader), connections removed are removed in
+     * bulk too; additions are applied before the next removal and vice
+     * versa, so that the order of the journal is kept
+     */
+    private static class Replay {
+
+        private final Brain brain;
+        private final BrainLoader loader;
+        private final List<long[]> removals = new ArrayList<>();
+
+        Replay(Brain brain) {
+            this.brain = brain;
+            this.loader = new BrainLoader(brain);
+        }
+
+        /**
+         * Replays the complete groups of a segment; resistances are set
+         * right away
+         */
+        void segment(Path file) throws IOException {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 crc = new CRC32();
+            while (data.remaining() >= 4) {
+                int length = data.getInt(data.position());
+                if ((length <= 0) || (length % ENTRY != 0) || (length > data.remaining() - 8)) {
+                    return;
+                }
+                ByteBuffer entries = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                entries.position(data.position() + 4).limit(data.position() + 4 + length);
+                crc.reset();
+                crc.update(entries.duplicate());
+                if ((int)crc.getValue() != data.getInt(data.position() + 4 + length)) {
+                    return;
+                }
+
+                while (entries.hasRemaining()) {
+                    byte kind = entries.get();
+                    int a = entries.getInt(), b = entries.getInt();
+                    switch (kind) {
+                        case PROMOTER:
+                            removeAll();
+                            loader.promoter(a, b);
+                            break;
+                        case DETRACTOR:
+                            removeAll();
+                            loader.detractor(a, b);
+                            break;
+                        case NO_PROMOTER:
+                        case NO_DETRACTOR:
+                            loader.load();
+                            removals.add(new long[] {kind, a, b});
+                            break;
+                        case RESISTANCE:
+                            brain.resistance(a, b);
+                            break;
+                        default:
+                            throw new IOException("unknown entry " + kind + " in " + file);
+                    }
+                }
+                data.position(data.position() + 8 + length);
+            }
+        }
+
+        void flush() {
+            loader.load();
+            removeAll();
+        }
+
+        private void removeAll() {
+            if (removals.isEmpty()) {
+                return;
+            }
+            brain.freeze();
+            BitSet promoters = new BitSet(), detractors = new BitSet();
+            for (long[] removal: removals) {
+                boolean promoter = (removal[0] == NO_PROMOTER);
+                Adjacency adjacency = promoter ? brain.promoters : brain.detractors;
+                int a = brain.order.internal((int)removal[1]), b = brain.order.internal((int)removal[2]);
+                int ab = adjacency.indexOf(a, b), ba = adjacency.indexOf(b, a);
+                if ((ab >= 0) && (ba >= 0)) {
+                    BitSet positions = promoter ? promoters : detractors;
+                    positions.set(ab);
+                    positions.set(ba);
+                }
+            }
+            brain.disconnect(brain.promoters, promoters);
+            brain.disconnect(brain.detractors, detractors);
+            removals.clear();
+        }
+    }
+}
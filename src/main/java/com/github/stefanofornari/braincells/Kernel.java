@@ -0,0 +1,69 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+
+/**
+ * Counts the active cells of a neighbour list, for the cells of a topology
+ * that are too sparse to have a mask (see Masks).
+ * 
+ * The kernel in use is chosen once, with the system property
+ * braincells.kernel: "vector" (the default) counts in SIMD lanes with the
+ * JDK Vector API (see VectorKernel), "scalar" one neighbour at a time. The
+ * Vector API is an incubator module: VectorKernel is built only on JDK 17 or
+ * later (profile vector) and works only if the JVM is started with
+ * --add-modules jdk.incubator.vector; otherwise the scalar kernel is used.
+ */
+abstract class Kernel {
+    
+    static final Kernel SCALAR = new Kernel() {
+        @Override
+        int count(IntBuffer neighbours, int from, int to, Activation activation) {
+            int count = 0;
+            for (int k = from; k < to; ++k) {
+                int j = neighbours.get(k);
+                count += (int)(activation.word(j >>> 6) >>> j) & 1;
+            }
+            return count;
+        }
+        
+        @Override
+        public String toString() {
+            return "scalar";
+        }
+    };
+    
+    /**
+     * The kernel in use; being a constant, the JIT calls it directly
+     */
+    static final Kernel DEFAULT = load(System.getProperty("braincells.kernel", "vector"));
+    
+    /**
+     * Kernels may bring the words of the activation up to date (see
+     * Activation.words()): an activation counted from many threads at once
+     * must be brought up to date before.
+     *
+     * @return the number of active cells among neighbours[from] ...
+     *         neighbours[to-1]
+     */
+    abstract int count(IntBuffer neighbours, int from, int to, Activation activation);
+    
+    /**
+     * @param name "vector" or "scalar"
+     * 
+     * @return the kernel with the given name, or the scalar one if it is not
+     *         available
+     */
+    static Kernel load(String name) {
+        if ("vector".equals(name)) {
+            try {
+                return (Kernel)Class.forName("com.github.stefanofornari.braincells.VectorKernel")
+                    .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError x) {
+                //
+                // not built or jdk.incubator.vector not added to the JVM
+                //
+            }
+        }
+        return SCALAR;
+    }
+}
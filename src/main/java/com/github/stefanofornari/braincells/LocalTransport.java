@@ -0,0 +1,42 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Transport to shards in the same JVM, each command running on an executor
+ * (the common pool by default), so that shards think in parallel.
+ */
+public class LocalTransport implements Transport {
+
+    private final Shard[] shards;
+    private final Executor executor;
+
+    public LocalTransport(Shard... shards) {
+        this(ForkJoinPool.commonPool(), shards);
+    }
+
+    public LocalTransport(Executor executor, Shard... shards) {
+        this.shards = shards.clone();
+        this.executor = executor;
+    }
+
+    @Override
+    public int shards() {
+        return shards.length;
+    }
+
+    @Override
+    public CompletableFuture<int[]> send(int shard, Shard.Command command, int[] cells) {
+        final Shard s = shards[shard];
+        return CompletableFuture.supplyAsync(() -> s.handle(command, cells), executor);
+    }
+
+    /**
+     * Nothing to release, the executor is not shut down
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Neighbour bitmasks of the densely connected cells of a topology. For those
+ * cells, counting the active neighbours is an AND plus a popcount for every
+ * 64 cells spanned by the neighbours, instead of one lookup per neighbour.
+ * 
+ * The mask of cell i covers the words first[i] ... first[i] + offsets[i+1] -
+ * offsets[i] - 1 of an Activation and is stored in bits[offsets[i]] ...
+ * bits[offsets[i+1]-1]; sparse cells have first[i] == -1 and no mask.
+ */
+final class Masks {
+    
+    /**
+     * A cell gets a mask when it has on average at least this many neighbours
+     * in each word spanned by its neighbours.
+     */
+    static final int DENSITY = 4;
+    
+    final IntBuffer first;
+    final IntBuffer offsets;
+    final LongBuffer bits;
+    
+    Masks(IntBuffer first, IntBuffer offsets, LongBuffer bits) {
+        this.first = first;
+        this.offsets = offsets;
+        this.bits = bits;
+    }
+    
+    static Masks of(int size, IntBuffer neighbourOffsets, IntBuffer neighbours, Memory memory) {
+        IntBuffer first = memory.ints(size);
+        IntBuffer offsets = memory.ints(size+1);
+        
+        int n = 0;
+        for (int i = 0; i < size; ++i) {
+            offsets.put(i, n);
+            first.put(i, -1);
+            int from = neighbourOffsets.get(i), to = neighbourOffsets.get(i+1);
+            if (to > from) {
+                int span = (neighbours.get(to-1) >>> 6) - (neighbours.get(from) >>> 6) + 1;
+                if (to - from >= DENSITY * span) {
+                    first.put(i, neighbours.get(from) >>> 6);
+                    n += span;
+                }
+            }
+        }
+        offsets.put(size, n);
+        
+        LongBuffer bits = memory.longs(n);
+        for (int i = 0; i < size; ++i) {
+            int w = first.get(i);
+            if (w >= 0) {
+                for (int k = neighbourOffsets.get(i); k < neighbourOffsets.get(i+1); ++k) {
+                    int j = neighbours.get(k);
+                    int b = offsets.get(i) + (j >>> 6) - w;
+                    bits.put(b, bits.get(b) | (1L << j));
+                }
+            }
+        }
+        
+        return new Masks(first, offsets, bits);
+    }
+}
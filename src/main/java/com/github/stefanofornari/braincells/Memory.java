@@ -0,0 +1,122 @@
+package com.github.stefanofornari.braincells;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocates the buffers of a brain according to its Storage.
+ * 
+ * Off-heap buffers are tracked weakly: the ones nobody uses any more (e.g.
+ * replaced by a compaction) are left to the garbage collector as usual,
+ * release() frees all the others at once.
+ */
+final class Memory {
+    
+    static final Memory HEAP = new Memory(Storage.HEAP);
+    
+    //
+    // Unsafe.invokeCleaner() frees a direct buffer right away; without it we
+    // can only drop the buffers and wait for the garbage collector
+    //
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+            invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException x) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+    
+    final Storage storage;
+    
+    private final List<WeakReference<ByteBuffer>> allocated = new ArrayList<>();
+    private int prune = 64;
+    
+    private Memory(Storage storage) {
+        this.storage = storage;
+    }
+    
+    static Memory of(Storage storage) {
+        return (storage == Storage.HEAP) ? HEAP : new Memory(storage);
+    }
+    
+    IntBuffer ints(int count) {
+        return (storage == Storage.HEAP)
+             ? IntBuffer.wrap(new int[count])
+             : direct(4L * count).asIntBuffer();
+    }
+    
+    LongBuffer longs(int count) {
+        return (storage == Storage.HEAP)
+             ? LongBuffer.wrap(new long[count])
+             : direct(8L * count).asLongBuffer();
+    }
+    
+    /**
+     * @return a new buffer with the first count elements of source
+     */
+    IntBuffer copy(IntBuffer source, int count) {
+        IntBuffer copy = ints(count);
+        IntBuffer from = source.duplicate();
+        from.position(0).limit(Math.min(count, source.limit()));
+        copy.put(from).rewind();
+        
+        return copy;
+    }
+    
+    /**
+     * Frees all off-heap buffers still in use; they must not be accessed
+     * afterwards.
+     */
+    void release() {
+        for (WeakReference<ByteBuffer> ref: allocated) {
+            ByteBuffer buffer = ref.get();
+            if ((buffer != null) && (INVOKE_CLEANER != null)) {
+                try {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                } catch (ReflectiveOperationException x) {
+                    //
+                    // the garbage collector will free it
+                    //
+                }
+            }
+        }
+        allocated.clear();
+    }
+    
+    // --------------------------------------------------------- Private methods
+    
+    private ByteBuffer direct(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                "buffer of " + bytes + " bytes too large for off-heap storage"
+            );
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int)bytes).order(ByteOrder.nativeOrder());
+        
+        if (allocated.size() >= prune) {
+            allocated.removeIf(ref -> ref.get() == null);
+            prune = Math.max(64, 2 * allocated.size());
+        }
+        allocated.add(new WeakReference<>(buffer));
+        
+        return buffer;
+    }
+}
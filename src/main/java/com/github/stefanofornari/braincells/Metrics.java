@@ -0,0 +1,34 @@
+package com.github.stefanofornari.braincells;
+
+/**
+ * Receives what a brain does while it thinks and learns (see Brain.metrics()).
+ * 
+ * Brains report to NONE by default, which does nothing: with a single
+ * implementation in use the calls are inlined and cost nothing. BrainMetrics
+ * collects the reports and exposes them through JMX.
+ * 
+ * Training reports the thoughts of a batch from many threads at once.
+ */
+public interface Metrics {
+    
+    /**
+     * Discards all reports
+     */
+    Metrics NONE = new Metrics() {};
+    
+    /**
+     * Called at the end of each think() or update()
+     * 
+     * @param thought how the thinking ended, with its counters
+     */
+    default void thought(Thought thought) {
+    }
+    
+    /**
+     * Called at the end of each BrainTrainer.learn()
+     * 
+     * @param connections the number of connections created
+     */
+    default void learned(int connections) {
+    }
+}
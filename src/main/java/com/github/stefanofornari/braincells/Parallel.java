@@ -0,0 +1,124 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Propagation.PARALLEL: synchronous rounds computed on a ForkJoinPool.
+ * 
+ * In each round the new state of every cell is computed from the state all
+ * cells had at the end of the previous round, so cells can be evaluated in
+ * any order and in parallel: the cells are split in ranges of whole words,
+ * each task writing only its own words of the next state. The result does
+ * not depend on the number of threads.
+ * 
+ * Being connections symmetric, synchronous rounds always end up either in a
+ * state that does not change any more or in two states alternating forever
+ * (Thought.Outcome.OSCILLATING with period 2). A state that does not change
+ * any more is also a state where SWEEP stops (and vice versa), but starting
+ * from the same activation the two modes may end up in different states, or
+ * one may settle where the other oscillates.
+ */
+class Parallel {
+    
+    /**
+     * Number of words (64 cells each) below which a range is not split any
+     * further
+     */
+    static final int GRAIN = 64;
+    
+    static Thought think(Topology t, Activation a, Budget budget) {
+        return think(t, a, budget, ForkJoinPool.commonPool());
+    }
+    
+    static Thought think(Topology t, Activation a, Budget budget, ForkJoinPool pool) {
+        final Convergence convergence = new Convergence(budget, a.words());
+        
+        Activation current = new Activation(t.size, a.words().clone()),
+                   next = new Activation(t.size);
+        
+        try {
+            while (true) {
+                convergence.scanned(t.connections());
+                if (pool.invoke(new Round(t, current, next, 0, current.words.length)) == 0) {
+                    return convergence.settled();
+                }
+                for (int w = 0; w < next.words.length; ++w) {
+                    for (long diff = next.words[w] ^ current.words[w]; diff != 0; diff &= diff - 1) {
+                        convergence.flip((w << 6) + Long.numberOfTrailingZeros(diff));
+                    }
+                }
+                Activation spare = current;
+                current = next;
+                next = spare;
+                
+                Thought thought = convergence.pass(current.words);
+                if (thought != null) {
+                    return thought;
+                }
+            }
+        } finally {
+            a.restore(current.words);
+        }
+    }
+    
+    /**
+     * @return true if no cell would change in a further round, computed on
+     *         the given pool
+     */
+    static boolean isSettled(Topology t, Activation a, ForkJoinPool pool) {
+        //
+        // the rounds read a from many threads: bring its words up to date
+        // now (see Activation.clear()), not concurrently in the kernel
+        //
+        a.words();
+
+        return pool.invoke(new Round(t, a, new Activation(t.size), 0, a.words.length)) == 0;
+    }
+    
+    // ----------------------------------------------------------- Round
+    
+    /**
+     * Computes the next state of the cells in words [from, to) and returns the
+     * number of cells that flipped.
+     */
+    private static class Round extends RecursiveTask<Integer> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final Topology t;
+        private final Activation current, next;
+        private final int from, to;
+        
+        Round(Topology t, Activation current, Activation next, int from, int to) {
+            this.t = t; this.current = current; this.next = next;
+            this.from = from; this.to = to;
+        }
+        
+        @Override
+        protected Integer compute() {
+            if (to - from > GRAIN) {
+                int middle = (from + to) >>> 1;
+                Round left = new Round(t, current, next, from, middle);
+                left.fork();
+                int right = new Round(t, current, next, middle, to).compute();
+                return left.join() + right;
+            }
+            
+            int flips = 0;
+            for (int w = from; w < to; ++w) {
+                long word = current.word(w);
+                int last = Math.min(t.size, (w + 1) << 6);
+                for (int i = w << 6; i < last; ++i) {
+                    if (t.flips(i, t.potential(i, current), (word & (1L << i)) != 0)) {
+                        word ^= (1L << i);
+                    }
+                }
+                flips += Long.bitCount(word ^ current.word(w));
+                next.words[w] = word;
+            }
+            
+            return flips;
+        }
+    }
+}
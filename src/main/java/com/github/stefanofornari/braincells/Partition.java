@@ -0,0 +1,252 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+import java.util.BitSet;
+
+/**
+ * How the cells of a brain are split in shards (see ShardedBrain): shard i
+ * owns the cells from(i) ... to(i)-1, as the brain keeps them (see
+ * Brain.reorder()), each shard getting about the same number of cells plus
+ * connections.
+ *
+ * The partition is computed on the frozen topology of a brain, or on the
+ * topology of a BrainImage, from which shard() cuts the shards; ShardedBrain
+ * needs only the bounds and the order of the cells, which are small. The
+ * partition goes through the connection offsets only and a shard reads the
+ * connections of its own cells only, so a brain too large for one process
+ * can be split from an image: each process maps it and cuts its own shard,
+ * with only the pages of that shard loaded (the partition being the same
+ * in all of them). colours() tells ShardedBrain which shards can think at
+ * once, going through the boundary cells of all shards.
+ */
+public final class Partition {
+
+    public final int size;
+
+    private final int[] bounds;
+    final Permutation order;
+
+    private final Topology topology;
+    private int[] colours;
+
+    private Partition(Topology topology, int[] bounds) {
+        this.size = topology.size;
+        this.bounds = bounds;
+        this.order = topology.order;
+        this.topology = topology;
+    }
+
+    /**
+     * @param brain the brain, frozen
+     * @param shards the number of shards - greater than 0 and at most the
+     *               number of cells
+     *
+     * @return the partition of the brain in the given number of shards
+     */
+    public static Partition of(Brain brain, int shards) {
+        return of(brain.freeze(), shards);
+    }
+
+    /**
+     * @param image the image of a brain (see BrainImage.map())
+     * @param shards the number of shards - greater than 0 and at most the
+     *               number of cells
+     *
+     * @return the partition of the brain of the image in the given number of
+     *         shards, the same of the brain the image was written from
+     */
+    public static Partition of(BrainImage image, int shards) {
+        return of(image.topology, shards);
+    }
+
+    public int shards() {
+        return bounds.length - 1;
+    }
+
+    public int from(int shard) {
+        return bounds[shard];
+    }
+
+    public int to(int shard) {
+        return bounds[shard + 1];
+    }
+
+    /**
+     * @param shard the shard
+     *
+     * @return a new shard with the cells, connections and resistances of the
+     *         given shard
+     */
+    public Shard shard(int shard) {
+        final int from = from(shard), to = to(shard);
+
+        IntBuffer[] promoters = slice(topology.promoterOffsets, topology.promoters, from, to);
+        IntBuffer[] detractors = slice(topology.detractorOffsets, topology.detractors, from, to);
+        IntBuffer resistances = IntBuffer.allocate(to - from);
+        for (int i = from; i < to; ++i) {
+            resistances.put(i - from, topology.resistance(i));
+        }
+
+        Topology part = new Topology(
+            to - from,
+            promoters[0], promoters[1], detractors[0], detractors[1],
+            Masks.of(to - from, promoters[0], promoters[1], Memory.HEAP),
+            Masks.of(to - from, detractors[0], detractors[1], Memory.HEAP),
+            resistances, Permutation.IDENTITY
+        );
+
+        //
+        // the cells of the shard other shards are connected to
+        //
+        long[] boundary = new long[(to - from + 63) >>> 6];
+        mark(boundary, topology.promoterOffsets, topology.promoters, from, to);
+        mark(boundary, topology.detractorOffsets, topology.detractors, from, to);
+
+        return new Shard(from, to, part, boundary, size);
+    }
+
+    /**
+     * Colours the shards greedily, in order, so that shards with cells
+     * connected to each other get different colours. Only the boundary
+     * cells are looked at, and for each of them only the first neighbour in
+     * each other shard, found by binary search in its sorted neighbours.
+     *
+     * @return the colour of each shard, 0 ... the number of colours - 1
+     */
+    synchronized int[] colours() {
+        if (colours != null) {
+            return colours;
+        }
+
+        final int shards = shards();
+        BitSet[] connected = new BitSet[shards];
+        for (int s = 0; s < shards; ++s) {
+            connected[s] = new BitSet(shards);
+            for (int i = from(s); i < to(s); ++i) {
+                connect(connected[s], s, topology.promoterOffsets, topology.promoters, i);
+                connect(connected[s], s, topology.detractorOffsets, topology.detractors, i);
+            }
+        }
+
+        colours = new int[shards];
+        BitSet taken = new BitSet();
+        for (int s = 0; s < shards; ++s) {
+            taken.clear();
+            for (int t = connected[s].nextSetBit(0); (t >= 0) && (t < s); t = connected[s].nextSetBit(t+1)) {
+                taken.set(colours[t]);
+            }
+            colours[s] = taken.nextClearBit(0);
+        }
+
+        return colours;
+    }
+
+    /**
+     * @param cell a cell as the brain keeps it
+     *
+     * @return the shard owning the given cell
+     */
+    int owner(int cell) {
+        int lo = 0, hi = shards() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (bounds[mid] <= cell) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private static Partition of(Topology t, int shards) {
+        if ((shards <= 0) || (shards > t.size)) {
+            throw new IllegalArgumentException(
+                "shards must be between 1 and " + t.size + " (" + shards + ")"
+            );
+        }
+
+        final long total = (long)t.size + t.connections();
+
+        int[] bounds = new int[shards + 1];
+        long weight = 0;
+        int cell = 0;
+        for (int s = 1; s < shards; ++s) {
+            //
+            // leave at least one cell for each of the following shards
+            //
+            while ((weight < total * s / shards) && (cell < t.size - (shards - s))) {
+                weight += 1 + t.promoters(cell) + t.detractors(cell);
+                ++cell;
+            }
+            bounds[s] = cell = Math.max(cell, bounds[s-1] + 1);
+        }
+        bounds[shards] = t.size;
+
+        return new Partition(t, bounds);
+    }
+
+    /**
+     * @return the offsets and the neighbours of cells from ... to-1
+     */
+    private static IntBuffer[] slice(IntBuffer offsets, IntBuffer neighbours, int from, int to) {
+        int base = offsets.get(from);
+        IntBuffer sliceOffsets = IntBuffer.allocate(to - from + 1);
+        for (int i = from; i <= to; ++i) {
+            sliceOffsets.put(i - from, offsets.get(i) - base);
+        }
+        IntBuffer sliceNeighbours = IntBuffer.allocate(offsets.get(to) - base);
+        for (int k = base; k < offsets.get(to); ++k) {
+            sliceNeighbours.put(k - base, neighbours.get(k));
+        }
+
+        return new IntBuffer[] {sliceOffsets, sliceNeighbours};
+    }
+
+    /**
+     * Marks in connected the shards other than s with neighbours of cell i
+     */
+    private void connect(BitSet connected, int s, IntBuffer offsets, IntBuffer neighbours, int i) {
+        int k = offsets.get(i), end = offsets.get(i+1);
+        if ((k == end) || ((neighbours.get(k) >= from(s)) && (neighbours.get(end - 1) < to(s)))) {
+            return;
+        }
+        while (k < end) {
+            int t = owner(neighbours.get(k));
+            if (t != s) {
+                connected.set(t);
+            }
+
+            //
+            // on to the first neighbour past shard t
+            //
+            int low = k + 1, high = end, bound = to(t);
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (neighbours.get(middle) < bound) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            k = low;
+        }
+    }
+
+    /**
+     * Marks the cells from ... to-1 that are neighbours of cells outside,
+     * that is (connections going both ways) with neighbours outside; the
+     * neighbours of each cell are sorted, so only the first and the last
+     * need to be checked
+     */
+    private static void mark(long[] boundary, IntBuffer offsets, IntBuffer neighbours, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            int first = offsets.get(i), end = offsets.get(i+1);
+            if ((first < end) && ((neighbours.get(first) < from) || (neighbours.get(end - 1) >= to))) {
+                boundary[(i - from) >>> 6] |= (1L << (i - from));
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Where the cells of a brain are kept: internal(i) is the position in the
+ * brain buffers (adjacency, activation, resistances) of the cell the API
+ * calls i, external() goes the other way round. Cells are kept in index
+ * order (IDENTITY) until Brain.reorder() renumbers them.
+ */
+final class Permutation {
+
+    static final Permutation IDENTITY = new Permutation(null, null);
+
+    final IntBuffer internal;
+    final IntBuffer external;
+
+    Permutation(IntBuffer internal, IntBuffer external) {
+        this.internal = internal;
+        this.external = external;
+    }
+
+    boolean isIdentity() {
+        return internal == null;
+    }
+
+    int internal(int cell) {
+        return (internal == null) ? cell : internal.get(cell);
+    }
+
+    int external(int cell) {
+        return (external == null) ? cell : external.get(cell);
+    }
+
+    /**
+     * @return the permutation that moves internal cell i to p[i] after this
+     *         one
+     */
+    Permutation then(int[] p, Memory memory) {
+        IntBuffer newInternal = memory.ints(p.length), newExternal = memory.ints(p.length);
+        for (int i = 0; i < p.length; ++i) {
+            newInternal.put(external(i), p[i]);
+            newExternal.put(p[i], external(i));
+        }
+
+        return new Permutation(newInternal, newExternal);
+    }
+
+    /**
+     * @return a copy of the given activation words with the bits moved from
+     *         internal to external positions
+     */
+    long[] external(long[] words) {
+        if (external == null) {
+            return words.clone();
+        }
+        return move(words, external);
+    }
+
+    /**
+     * @return the given activation words with the bits moved from external
+     *         to internal positions (the words themselves if nothing moves)
+     */
+    long[] internal(long[] words) {
+        if (internal == null) {
+            return words;
+        }
+        return move(words, internal);
+    }
+
+    /**
+     * Reverse Cuthill-McKee ordering of the cells of a topology: a breadth
+     * first visit of each connected component, starting from the cell with
+     * the fewest connections and visiting the neighbours of each cell by
+     * increasing number of connections, reversed at the end. Connected cells
+     * end up close to each other, so that thinking on the renumbered cells
+     * touches fewer cache lines.
+     *
+     * @return the new position of each cell of the topology
+     */
+    static int[] rcm(Topology t) {
+        final int n = t.size;
+
+        int[] degree = new int[n];
+        long[] byDegree = new long[n];
+        int max = 0;
+        for (int i = 0; i < n; ++i) {
+            degree[i] = t.promoters(i) + t.detractors(i);
+            byDegree[i] = ((long)degree[i] << 32) | i;
+            max = Math.max(max, degree[i]);
+        }
+        Arrays.sort(byDegree);
+
+        int[] order = new int[n];
+        boolean[] visited = new boolean[n];
+        long[] neighbours = new long[max];
+        int head = 0, tail = 0;
+        for (long start: byDegree) {
+            int cell = (int)start;
+            if (visited[cell]) {
+                continue;
+            }
+            visited[cell] = true;
+            order[tail++] = cell;
+            while (head < tail) {
+                int i = order[head++];
+                int count = unvisited(t.promoterOffsets, t.promoters, i, degree, visited, neighbours, 0);
+                count = unvisited(t.detractorOffsets, t.detractors, i, degree, visited, neighbours, count);
+                Arrays.sort(neighbours, 0, count);
+                for (int k = 0; k < count; ++k) {
+                    order[tail++] = (int)neighbours[k];
+                }
+            }
+        }
+
+        int[] p = new int[n];
+        for (int k = 0; k < n; ++k) {
+            p[order[k]] = n - 1 - k;
+        }
+
+        return p;
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private static long[] move(long[] words, IntBuffer to) {
+        final int size = to.limit();
+        long[] moved = new long[words.length];
+        for (int w = 0; w < words.length; ++w) {
+            for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                if (i < size) {
+                    int j = to.get(i);
+                    moved[j >>> 6] |= 1L << j;
+                }
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Marks the unvisited neighbours of cell i as visited and appends them
+     * to neighbours as (degree, cell) pairs
+     *
+     * @return the new number of neighbours
+     */
+    private static int unvisited(
+        IntBuffer offsets, IntBuffer adjacency, int i, int[] degree, boolean[] visited, long[] neighbours, int count
+    ) {
+        for (int k = offsets.get(i), to = offsets.get(i+1); k < to; ++k) {
+            int j = adjacency.get(k);
+            if (!visited[j]) {
+                visited[j] = true;
+                neighbours[count++] = ((long)degree[j] << 32) | j;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,287 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thinks a stream of input patterns on a brain asynchronously.
+ *
+ * Patterns wait in a bounded queue and are taken from it in micro-batches of
+ * up to batch() patterns, which are thought together with the bit-sliced
+ * evaluation of Brain.thinkBatch() on the topology the brain had when the
+ * pipeline was created. Batches run on an executor, at most parallelism() at
+ * a time; the result of each pattern (in the format of Brain.snapshot()) is
+ * delivered through a CompletableFuture, completed by the thread that
+ * thought the batch.
+ *
+ * When patterns come in faster than they are thought the queue fills up and
+ * submit() blocks (offer() gives up after a timeout, failing the result):
+ * producers are slowed down to the pace of the pipeline, and so they are if
+ * the consumers of the results, running on the pipeline threads, lag behind.
+ * Under load batches fill up on their own; a larger queue trades latency for
+ * throughput.
+ */
+public class Pipeline implements AutoCloseable {
+
+    private final Topology topology;
+    private final BlockingQueue<Request> queue;
+
+    private int batch = Batch.LANES;
+    private int parallelism = 1;
+    private Budget budget = Budget.UNLIMITED;
+    private Executor executor = ForkJoinPool.commonPool();
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * @param brain the brain, frozen right away
+     * @param capacity the number of patterns that can wait to be thought -
+     *                 greater than 0
+     */
+    public Pipeline(Brain brain, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than 0 (" + capacity + ")");
+        }
+        this.topology = brain.freeze();
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * @param size the most patterns thought together (64 by default, the
+     *             number of patterns Brain.thinkBatch() thinks at once)
+     *
+     * @return this pipeline
+     */
+    public Pipeline batch(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("batch size must be greater than 0 (" + size + ")");
+        }
+        this.batch = size;
+
+        return this;
+    }
+
+    /**
+     * @param parallelism the most batches thought at the same time (1 by
+     *                    default)
+     *
+     * @return this pipeline
+     */
+    public Pipeline parallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be greater than 0 (" + parallelism + ")");
+        }
+        this.parallelism = parallelism;
+
+        return this;
+    }
+
+    /**
+     * @param budget the budget of each batch (unlimited by default)
+     *
+     * @return this pipeline
+     */
+    public Pipeline budget(Budget budget) {
+        this.budget = budget;
+
+        return this;
+    }
+
+    /**
+     * @param executor where batches are thought (the common pool by default)
+     *
+     * @return this pipeline
+     */
+    public Pipeline executor(Executor executor) {
+        this.executor = executor;
+
+        return this;
+    }
+
+    /**
+     * Queues a pattern, waiting for room in the queue if needed
+     *
+     * @param input the cells to activate
+     *
+     * @return the state the brain reaches for the given pattern; if the
+     *         executor rejected the batch the pattern is taken back and the
+     *         future is already failed with a RejectedExecutionException
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the pipeline has been closed
+     */
+    public CompletableFuture<long[]> submit(int... input) throws InterruptedException {
+        ensureOpen();
+        Request request = new Request(input);
+        queue.put(request);
+
+        return schedule(request);
+    }
+
+    /**
+     * Queues a pattern, waiting up to the given time for room in the queue
+     *
+     * @param input the cells to activate
+     * @param timeout how long to wait
+     * @param unit the unit of timeout
+     *
+     * @return the state the brain reaches for the given pattern; if the
+     *         queue was still full after timeout the pattern is not queued
+     *         and the future is already failed with a TimeoutException;
+     *         if the executor rejected the batch the pattern is taken back
+     *         and the future is already failed with a
+     *         RejectedExecutionException
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the pipeline has been closed
+     */
+    public CompletableFuture<long[]> offer(int[] input, long timeout, TimeUnit unit) throws InterruptedException {
+        ensureOpen();
+        Request request = new Request(input);
+        if (!queue.offer(request, timeout, unit)) {
+            request.result.completeExceptionally(
+                new TimeoutException("queue still full after " + timeout + " " + unit.toString().toLowerCase())
+            );
+            return request.result;
+        }
+
+        return schedule(request);
+    }
+
+    /**
+     * @return the number of patterns waiting to be thought
+     */
+    public int pending() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of batches thought so far
+     */
+    public long batches() {
+        return batches.get();
+    }
+
+    /**
+     * Stops accepting patterns; the ones already queued are still thought.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("pipeline is closed");
+        }
+    }
+
+    /**
+     * Schedules a request just queued; if the executor rejects the drain the
+     * request is taken back, unless a running drain took it already, and
+     * failed, or nobody would ever think it
+     */
+    private CompletableFuture<long[]> schedule(Request request) {
+        try {
+            schedule();
+        } catch (RejectedExecutionException x) {
+            if (queue.remove(request)) {
+                request.result.completeExceptionally(x);
+            }
+        }
+
+        return request.result;
+    }
+
+    /**
+     * Starts a new drain() if there are patterns waiting and less than
+     * parallelism drains running
+     */
+    private void schedule() {
+        while (!queue.isEmpty()) {
+            int n = running.get();
+            if (n >= parallelism) {
+                return;
+            }
+            if (running.compareAndSet(n, n + 1)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException x) {
+                    running.decrementAndGet();
+                    throw x;
+                }
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        List<Request> requests = new ArrayList<>(batch);
+        try {
+            while (queue.drainTo(requests, batch) > 0) {
+                think(requests);
+                requests.clear();
+            }
+        } finally {
+            running.decrementAndGet();
+        }
+
+        //
+        // patterns queued after the last drainTo() but before the decrement
+        // may have found no room to start a drain
+        //
+        schedule();
+    }
+
+    private void think(List<Request> requests) {
+        int[][] inputs = new int[requests.size()][];
+        for (int i = 0; i < inputs.length; ++i) {
+            inputs[i] = requests.get(i).input;
+        }
+
+        long[][] results;
+        try {
+            results = Batch.think(topology, inputs, budget);
+        } catch (Throwable x) {
+            //
+            // errors too (e.g. OutOfMemoryError), or nobody would ever hear
+            // of these patterns again
+            //
+            for (Request request: requests) {
+                request.result.completeExceptionally(x);
+            }
+            return;
+        } finally {
+            batches.incrementAndGet();
+        }
+
+        for (int i = 0; i < results.length; ++i) {
+            requests.get(i).result.complete(results[i]);
+        }
+    }
+
+    // --------------------------------------------------------- Request
+
+    private static final class Request {
+        final int[] input;
+        final CompletableFuture<long[]> result = new CompletableFuture<>();
+
+        Request(int[] input) {
+            this.input = input;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.stefanofornari.braincells;
+
+/**
+ * How Brain.think() propagates activations through the connections.
+ */
+public enum Propagation {
+    
+    /**
+     * Visit all cells in index order, over and over, until a whole pass does
+     * not change any cell. Each pass costs as much as the entire brain.
+     */
+    SWEEP {
+        @Override
+        Thought think(Topology topology, Activation activation, Budget budget) {
+            return Sweep.think(topology, activation, budget);
+        }
+    },
+    
+    /**
+     * Visit only the cells whose potential may have changed, keeping the
+     * potentials up to date as cells flip. Cells are visited in the same
+     * order SWEEP would visit them, so the outcome is exactly the same, but
+     * the cost scales with the part of the brain actually involved.
+     */
+    FRONTIER {
+        @Override
+        Thought think(Topology topology, Activation activation, Budget budget) {
+            return Frontier.think(topology, activation, budget);
+        }
+    },
+    
+    /**
+     * Synchronous rounds computed in parallel on the common ForkJoinPool:
+     * every cell is updated from the state of the previous round, which makes
+     * the outcome independent of the visiting order (and of the number of
+     * threads) but not necessarily the same of SWEEP (see Parallel). Rounds
+     * stop when nothing changes or when two states keep alternating.
+     */
+    PARALLEL {
+        @Override
+        Thought think(Topology topology, Activation activation, Budget budget) {
+            return Parallel.think(topology, activation, budget);
+        }
+    },
+    
+    /**
+     * SWEEP on code generated for the topology, with the neighbours of each
+     * cell as constants and no loops or branches (see Compiled). The code is
+     * generated the first time a topology thinks, so it pays off on small
+     * brains that think many times between changes; the outcome is exactly
+     * the same of SWEEP, which is used instead for larger topologies.
+     */
+    COMPILED {
+        @Override
+        Thought think(Topology topology, Activation activation, Budget budget) {
+            return Compiled.think(topology, activation, budget);
+        }
+    };
+    
+    abstract Thought think(Topology topology, Activation activation, Budget budget);
+}
@@ -0,0 +1,45 @@
+package com.github.stefanofornari.braincells;
+
+/**
+ * The outcome of Pruning.prune().
+ */
+public final class Pruned {
+
+    /**
+     * The number of directed connections removed (each connection between two
+     * distinct cells counts twice, as in Topology.connections()), put back if
+     * the pruning was rolled back
+     */
+    public final long connections;
+
+    /**
+     * The accuracy on the validation samples before pruning
+     */
+    public final double before;
+
+    /**
+     * The accuracy on the validation samples with the connections removed
+     */
+    public final double after;
+
+    /**
+     * Whether the connections have been put back, the accuracy having dropped
+     * more than allowed
+     */
+    public final boolean rolledBack;
+
+    Pruned(long connections, double before, double after, boolean rolledBack) {
+        this.connections = connections;
+        this.before = before;
+        this.after = after;
+        this.rolledBack = rolledBack;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%d connections pruned, %.2f%% -> %.2f%% accuracy%s",
+            connections, before * 100, after * 100, rolledBack ? ", rolled back" : ""
+        );
+    }
+}
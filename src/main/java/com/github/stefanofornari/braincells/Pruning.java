@@ -0,0 +1,228 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+import java.util.BitSet;
+
+/**
+ * Removes the connections of a brain that do not make a difference to what it
+ * thinks, so that it takes less memory and thinks faster.
+ *
+ * From its creation a pruning counts how many times each connection of the
+ * brain contributes to flipping a cell while the brain thinks, in think() and
+ * in Training (see Usage), sampling one think in every(). prune() then
+ * removes the connections that contributed fewer than threshold() times in
+ * both directions, and the promoters and detractors between the same two
+ * cells, which always cancel out. A connection that never contributed to a
+ * flip may still have kept a cell from flipping, so the brain is validated on
+ * held-out samples before and after: if the accuracy drops by more than
+ * tolerance() the connections are put back.
+ *
+ * Counting slows down the thinks it samples; close() stops it.
+ */
+public class Pruning implements AutoCloseable {
+
+    private final Brain brain;
+    private final Usage usage = new Usage();
+
+    private int threshold = 1;
+    private double tolerance = 0;
+    private Budget budget = Budget.UNLIMITED;
+
+    public Pruning(Brain brain) {
+        this.brain = brain;
+        brain.usage = usage;
+    }
+
+    /**
+     * @param thinks count the connections used by one think in this many (1
+     *               by default, all thinks)
+     *
+     * @return this pruning
+     */
+    public Pruning every(int thinks) {
+        if (thinks <= 0) {
+            throw new IllegalArgumentException("thinks must be greater than 0 (" + thinks + ")");
+        }
+        usage.every(thinks);
+
+        return this;
+    }
+
+    /**
+     * @param uses connections that contributed to fewer flips are removed (1
+     *             by default, only connections never used)
+     *
+     * @return this pruning
+     */
+    public Pruning threshold(int uses) {
+        if (uses <= 0) {
+            throw new IllegalArgumentException("uses must be greater than 0 (" + uses + ")");
+        }
+        this.threshold = uses;
+
+        return this;
+    }
+
+    /**
+     * @param accuracy how much validation accuracy can be lost (0 by default)
+     *
+     * @return this pruning
+     */
+    public Pruning tolerance(double accuracy) {
+        if ((accuracy < 0) || (accuracy > 1)) {
+            throw new IllegalArgumentException("tolerance must be between 0 and 1 (" + accuracy + ")");
+        }
+        this.tolerance = accuracy;
+
+        return this;
+    }
+
+    /**
+     * @param budget the budget of each validation think() (unlimited by
+     *               default)
+     *
+     * @return this pruning
+     */
+    public Pruning budget(Budget budget) {
+        this.budget = budget;
+
+        return this;
+    }
+
+    /**
+     * @return the number of thinks counted so far
+     */
+    public long counted() {
+        return usage.counted();
+    }
+
+    /**
+     * Removes unused and cancelling connections, unless the accuracy on the
+     * given samples drops by more than tolerance(). The activation state of
+     * the brain is not changed; counting goes on afterwards.
+     *
+     * @param validation samples not used for training
+     *
+     * @return what has been removed and the accuracy before and after
+     */
+    public Pruned prune(Iterable<Sample> validation) {
+        final Topology t = brain.freeze();
+        final int[][] counters = usage.counters(t);
+        final double before = accuracy(t, validation);
+
+        BitSet promoters = unused(brain.promoters, counters[0]);
+        BitSet detractors = unused(brain.detractors, counters[1]);
+        cancelling(promoters, detractors);
+
+        long[] promoterEdges = edges(brain.promoters, promoters);
+        long[] detractorEdges = edges(brain.detractors, detractors);
+        long removed = brain.disconnect(brain.promoters, promoters)
+                     + brain.disconnect(brain.detractors, detractors);
+        if (removed == 0) {
+            return new Pruned(0, before, before, false);
+        }
+
+        double after = accuracy(brain.freeze(), validation);
+        if (after < before - tolerance) {
+            brain.connect(brain.promoters, promoterEdges, 0, promoterEdges.length);
+            brain.connect(brain.detractors, detractorEdges, 0, detractorEdges.length);
+            usage.restore(t, counters);
+            return new Pruned(removed, before, after, true);
+        }
+
+        return new Pruned(removed, before, after, false);
+    }
+
+    /**
+     * Stops counting
+     */
+    @Override
+    public void close() {
+        if (brain.usage == usage) {
+            brain.usage = null;
+        }
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    /**
+     * @return the positions of the compacted connections used fewer than
+     *         threshold times in both directions
+     */
+    private BitSet unused(Adjacency adjacency, int[] counters) {
+        final IntBuffer offsets = adjacency.offsets, neighbours = adjacency.neighbours;
+
+        BitSet unused = new BitSet(neighbours.limit());
+        for (int i = 0; i < brain.size; ++i) {
+            for (int k = offsets.get(i), to = offsets.get(i+1); k < to; ++k) {
+                int j = neighbours.get(k);
+                if ((j >= i) && (counters[k] < threshold)) {
+                    int back = adjacency.indexOf(j, i);
+                    if (counters[back] < threshold) {
+                        unused.set(k);
+                        unused.set(back);
+                    }
+                }
+            }
+        }
+
+        return unused;
+    }
+
+    /**
+     * Adds to the given positions the promoters and detractors connecting
+     * the same cells
+     */
+    private void cancelling(BitSet promoters, BitSet detractors) {
+        final IntBuffer offsets = brain.promoters.offsets, neighbours = brain.promoters.neighbours;
+
+        for (int i = 0; i < brain.size; ++i) {
+            for (int k = offsets.get(i), to = offsets.get(i+1); k < to; ++k) {
+                int d = brain.detractors.indexOf(i, neighbours.get(k));
+                if (d >= 0) {
+                    promoters.set(k);
+                    detractors.set(d);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the connections at the given positions, packed and sorted as
+     *         Adjacency.addAll() wants them
+     */
+    private long[] edges(Adjacency adjacency, BitSet positions) {
+        long[] edges = new long[positions.cardinality()];
+        int e = 0;
+        for (int a = 0; a < brain.size; ++a) {
+            int k = positions.nextSetBit(adjacency.offsets.get(a)), to = adjacency.offsets.get(a+1);
+            for (; (k >= 0) && (k < to); k = positions.nextSetBit(k+1)) {
+                edges[e++] = ((long)a << 31) | adjacency.neighbours.get(k);
+            }
+        }
+
+        return edges;
+    }
+
+    /**
+     * @return the fraction of the samples the topology gets right, 0 if there
+     *         are none; the thinks are not counted
+     */
+    private double accuracy(Topology t, Iterable<Sample> samples) {
+        int count = 0, correct = 0;
+        Activation activation = new Activation(t.size);
+        for (Sample sample: samples) {
+            activation.clear();
+            for (int cell: sample.input) {
+                activation.set(t.order.internal(cell));
+            }
+            brain.propagation().think(t, activation, budget);
+            if (sample.matches(activation, t.order)) {
+                ++correct;
+            }
+            ++count;
+        }
+
+        return (count == 0) ? 0 : (double)correct / count;
+    }
+}
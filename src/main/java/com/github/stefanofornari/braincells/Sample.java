@@ -0,0 +1,171 @@
+package com.github.stefanofornari.braincells;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A training example: the cells to activate and the cells that are expected
+ * to be active (ons) and not active (offs) once the brain has thought.
+ * 
+ * In text form a sample is a line with the three lists of cells separated by
+ * '|', cells being separated by blanks or commas, e.g.:
+ * <pre>
+ *   1 2 | 7 | 3, 4
+ * </pre>
+ */
+public final class Sample {
+    
+    public final int[] input;
+    public final int[] ons;
+    public final int[] offs;
+    
+    public Sample(int[] input, int[] ons, int[] offs) {
+        this.input = input;
+        this.ons = ons;
+        this.offs = offs;
+    }
+    
+    /**
+     * @return true if all ons and no offs are active in the given activation
+     */
+    public boolean matches(Activation activation) {
+        return matches(activation, Permutation.IDENTITY);
+    }
+    
+    /**
+     * As matches(Activation) for the activation of a reordered brain (see
+     * Brain.reorder())
+     */
+    boolean matches(Activation activation, Permutation order) {
+        for (int cell: ons) {
+            if (!activation.get(order.internal(cell))) {
+                return false;
+            }
+        }
+        for (int cell: offs) {
+            if (activation.get(order.internal(cell))) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Parses a sample in text form
+     * 
+     * @param line the sample text
+     * 
+     * @return the sample
+     * 
+     * @throws IllegalArgumentException if line is not a valid sample
+     */
+    public static Sample parse(String line) {
+        String[] parts = line.split("\\|", -1);
+        if (parts.length != 3) {
+            throw new IllegalArgumentException(
+                "a sample must be 'input | ons | offs' (" + line + ")"
+            );
+        }
+        try {
+            return new Sample(cells(parts[0]), cells(parts[1]), cells(parts[2]));
+        } catch (NumberFormatException x) {
+            throw new IllegalArgumentException("invalid cell in sample (" + line + ")");
+        }
+    }
+    
+    /**
+     * Reads samples from a text file, one per line; blank lines and lines
+     * starting with '#' are skipped. The file is read lazily and again for
+     * each iterator, so that it can be used for more epochs; errors reading
+     * the file are thrown as UncheckedIOException.
+     * 
+     * @param file the samples file
+     * 
+     * @return the samples in the file
+     */
+    public static Iterable<Sample> lines(Path file) {
+        return () -> new Lines(file);
+    }
+    
+    @Override
+    public String toString() {
+        return join(input) + " | " + join(ons) + " | " + join(offs);
+    }
+    
+    // --------------------------------------------------------- Private methods
+    
+    private static int[] cells(String list) {
+        list = list.trim();
+        return list.isEmpty()
+             ? new int[0]
+             : Arrays.stream(list.split("[\\s,]+")).mapToInt(Integer::parseInt).toArray();
+    }
+    
+    private static String join(int[] cells) {
+        StringBuilder sb = new StringBuilder();
+        for (int cell: cells) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(cell);
+        }
+        return sb.toString();
+    }
+    
+    // ----------------------------------------------------------- Lines
+    
+    private static class Lines implements Iterator<Sample> {
+        
+        private final BufferedReader reader;
+        private Sample next;
+        
+        Lines(Path file) {
+            try {
+                reader = Files.newBufferedReader(file);
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+            advance();
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+        
+        @Override
+        public Sample next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Sample sample = next;
+            advance();
+            
+            return sample;
+        }
+        
+        private void advance() {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        next = parse(line);
+                        return;
+                    }
+                }
+                next = null;
+                reader.close();
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+        }
+    }
+}
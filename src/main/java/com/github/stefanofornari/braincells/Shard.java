@@ -0,0 +1,201 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+
+/**
+ * The part of a sharded brain (see ShardedBrain) a worker thinks on: the
+ * cells from() ... to()-1 of the topology, with their connections and
+ * resistances only. Cells are indexed as the brain keeps them (see
+ * Brain.reorder()); a reordered brain keeps connected cells close, so that
+ * fewer connections cross shards.
+ *
+ * A shard keeps the state of all cells of the brain, one bit each, but only
+ * the ones it owns and the ones its cells are connected to are current: the
+ * boundary cells of the other shards, whose changes are sent to it by
+ * ShardedBrain at every round. In turn, it reports the changes of its own
+ * boundary cells, the ones connected to cells of other shards.
+ *
+ * Shards are driven through handle(), by the in-JVM LocalTransport or by a
+ * ShardServer for SocketTransport, one command at a time.
+ */
+public final class Shard {
+
+    public enum Command {
+        /**
+         * De-activates all cells; no cells in, none out
+         */
+        REST,
+        /**
+         * Updates the cells that changed (cell if active, ~cell if not) and
+         * thinks until the cells of the shard settle. Out: the outcome
+         * ordinal and period, the flips, the connections gone through and a
+         * hash of the state of the cells of the shard (as two ints each,
+         * high first) and the boundary cells of the shard that changed, in
+         * the same format as the cells in
+         */
+        EXCHANGE,
+        /**
+         * Nothing in, the active cells of the shard out
+         */
+        SNAPSHOT,
+        /**
+         * Updates the cells that changed as EXCHANGE, without thinking;
+         * nothing out
+         */
+        UPDATE
+    }
+
+    /**
+     * The number of ints before the cells in the answer to EXCHANGE
+     */
+    static final int HEADER = 8;
+
+    private final int from, to;
+    private final Topology topology;
+    private final Activation activation;
+
+    /**
+     * The owned cells connected to cells of other shards, one bit each
+     */
+    private final long[] boundary;
+
+    Shard(int from, int to, Topology topology, long[] boundary, int size) {
+        this.from = from;
+        this.to = to;
+        this.topology = topology;
+        this.boundary = boundary;
+        this.activation = new Activation(size);
+    }
+
+    public int from() {
+        return from;
+    }
+
+    public int to() {
+        return to;
+    }
+
+    /**
+     * Executes a command (not thread safe)
+     *
+     * @param command the command
+     * @param cells the cells in
+     *
+     * @return the cells out
+     */
+    public int[] handle(Command command, int[] cells) {
+        switch (command) {
+            case REST:
+                activation.clear();
+                return new int[0];
+            case EXCHANGE:
+                return exchange(cells);
+            case UPDATE:
+                update(cells);
+                return new int[0];
+            case SNAPSHOT:
+                return snapshot();
+        }
+        throw new IllegalArgumentException("unknown command " + command);
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private void update(int[] changes) {
+        for (int change: changes) {
+            if (change >= 0) {
+                activation.set(change);
+            } else {
+                activation.clear(~change);
+            }
+        }
+    }
+
+    private int[] exchange(int[] changes) {
+        update(changes);
+
+        //
+        // a sweep over the cells of the shard, as Sweep; boundary cells are
+        // reported once, with the state they end up in
+        //
+        final Convergence convergence = new Convergence(Budget.UNLIMITED, activation.words());
+        final IntBuffer changed = IntBuffer.allocate(to - from);
+        final long[] reported = new long[boundary.length];
+        Thought thought;
+        while (true) {
+            boolean again = false;
+            convergence.scanned(topology.connections());
+            for (int i = 0; i < to - from; ++i) {
+                int cell = from + i;
+                boolean active = activation.get(cell);
+                if (topology.flips(i, topology.potential(i, activation), active)) {
+                    activation.set(cell, !active);
+                    convergence.flip(cell);
+                    again = true;
+                    if ((boundary[i >>> 6] & (1L << i)) != 0) {
+                        if ((reported[i >>> 6] & (1L << i)) == 0) {
+                            reported[i >>> 6] |= (1L << i);
+                            changed.put(cell);
+                        }
+                    }
+                }
+            }
+            if (!again) {
+                thought = convergence.settled();
+                break;
+            }
+            thought = convergence.pass(activation.words());
+            if (thought != null) {
+                break;
+            }
+        }
+
+        int[] out = new int[HEADER + changed.position()];
+        out[0] = thought.outcome.ordinal();
+        out[1] = thought.period;
+        out[2] = (int)(thought.flips >>> 32); out[3] = (int)thought.flips;
+        out[4] = (int)(thought.edges >>> 32); out[5] = (int)thought.edges;
+        long hash = hash();
+        out[6] = (int)(hash >>> 32); out[7] = (int)hash;
+        for (int k = 0; k < changed.position(); ++k) {
+            int cell = changed.get(k);
+            out[HEADER + k] = activation.get(cell) ? cell : ~cell;
+        }
+
+        return out;
+    }
+
+    /**
+     * @return a hash of the state of the cells of the shard
+     */
+    private long hash() {
+        long hash = 0;
+        for (int w = from >>> 6, last = (to - 1) >>> 6; w <= last; ++w) {
+            long mask = -1L;
+            if (w == (from >>> 6)) {
+                mask &= -1L << from;
+            }
+            if (w == last) {
+                mask &= -1L >>> (63 - ((to - 1) & 63));
+            }
+            hash = (hash ^ (activation.word(w) & mask)) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 32;
+        }
+
+        return hash;
+    }
+
+    private int[] snapshot() {
+        IntBuffer active = IntBuffer.allocate(to - from);
+        for (int cell = from; cell < to; ++cell) {
+            if (activation.get(cell)) {
+                active.put(cell);
+            }
+        }
+        int[] cells = new int[active.position()];
+        active.rewind();
+        active.get(cells);
+
+        return cells;
+    }
+}
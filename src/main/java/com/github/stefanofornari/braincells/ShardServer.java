@@ -0,0 +1,126 @@
+package com.github.stefanofornari.braincells;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Serves the commands of SocketTransport to a shard, over TCP. Each
+ * connection is served by a thread of its own; commands are executed one at
+ * a time.
+ *
+ * A command is the ordinal of a Shard.Command followed by the number of cells
+ * and the cells; the answer is the number of cells and the cells, or -1 and
+ * the message of the error that occurred. All values are ints, big endian.
+ */
+public class ShardServer implements AutoCloseable {
+
+    private final Shard shard;
+    private final ServerSocket server;
+
+    /**
+     * Starts serving the given shard on the given port of the loopback
+     * interface
+     *
+     * @param shard the shard
+     * @param port the port, 0 for any free port (see port())
+     *
+     * @throws IOException if the port can not be opened
+     */
+    public ShardServer(Shard shard, int port) throws IOException {
+        this(shard, port, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Starts serving the given shard on the given port and address
+     *
+     * @param shard the shard
+     * @param port the port, 0 for any free port (see port())
+     * @param address the address to listen on
+     *
+     * @throws IOException if the port can not be opened
+     */
+    public ShardServer(Shard shard, int port, InetAddress address) throws IOException {
+        this.shard = shard;
+        this.server = new ServerSocket(port, 50, address);
+
+        Thread acceptor = new Thread(this::accept, "shard-server-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread t = new Thread(() -> serve(socket), "shard-connection-" + socket.getPort());
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException x) {
+                //
+                // closed
+                //
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (
+            Socket s = socket;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))
+        ) {
+            s.setTcpNoDelay(true);
+            while (true) {
+                int command;
+                try {
+                    command = in.readInt();
+                } catch (EOFException x) {
+                    return;
+                }
+                int[] cells = new int[in.readInt()];
+                for (int k = 0; k < cells.length; ++k) {
+                    cells[k] = in.readInt();
+                }
+
+                int[] answer;
+                try {
+                    synchronized (shard) {
+                        answer = shard.handle(Shard.Command.values()[command], cells);
+                    }
+                } catch (RuntimeException x) {
+                    out.writeInt(-1);
+                    out.writeUTF(String.valueOf(x));
+                    out.flush();
+                    continue;
+                }
+                out.writeInt(answer.length);
+                for (int cell: answer) {
+                    out.writeInt(cell);
+                }
+                out.flush();
+            }
+        } catch (IOException x) {
+            //
+            // the client went away
+            //
+        }
+    }
+}
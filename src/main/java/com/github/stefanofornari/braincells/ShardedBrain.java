@@ -0,0 +1,266 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A brain split in shards (see Partition and Shard), each thinking on its
+ * own cells wherever the transport reaches it, so that brains too large for
+ * a single process can still think.
+ *
+ * think() goes in rounds, one colour of shards at a time (see
+ * Partition.colours(): shards with cells connected to each other have
+ * different colours, so they never think at once on each other's old
+ * state): in each round the shards of its colour get the boundary cells of
+ * the other shards that changed since they last thought (the input cells in
+ * the first one) and think on their cells until they settle; the shards of
+ * the other colours just get the changes. The brain settles when a round of
+ * each colour goes by with no boundary cell changing. The fixed point
+ * reached is one Propagation.SWEEP might reach too, not necessarily the same.
+ *
+ * Rounds that flip cells are the passes of the budget and, as in a brain,
+ * their states are checked for cycles with Brent's algorithm (see
+ * Convergence): the state of a round is made of the boundary cells, a hash
+ * of the cells of each shard and the colour of the next round. The outcome
+ * is OSCILLATING if a shard oscillates on its own or the brain oscillates
+ * across shards. Not thread safe.
+ */
+public class ShardedBrain implements AutoCloseable {
+
+    public final int size;
+
+    private final Partition partition;
+    private final Transport transport;
+
+    private final int[] colours;
+    private final List<Integer> inputs = new ArrayList<>();
+
+    /**
+     * The state of the rounds: the cells as last known to have changed, one
+     * bit each, the hash of each shard and the colour of the next round
+     */
+    private final long[] state;
+
+    /**
+     * @param partition the partition of the brain
+     * @param transport the transport to the shards of the partition, in order
+     */
+    public ShardedBrain(Partition partition, Transport transport) {
+        if (transport.shards() != partition.shards()) {
+            throw new IllegalArgumentException(
+                "transport reaches " + transport.shards() + " shards instead of " + partition.shards()
+            );
+        }
+        this.size = partition.size;
+        this.partition = partition;
+        this.transport = transport;
+        this.colours = partition.colours();
+        this.state = new long[((size + 63) >>> 6) + partition.shards() + 1];
+    }
+
+    /**
+     * De-activates all cells
+     *
+     * @return this brain
+     */
+    public ShardedBrain rest() {
+        inputs.clear();
+        Arrays.fill(state, 0);
+        all(Shard.Command.REST, new int[0]);
+
+        return this;
+    }
+
+    /**
+     * Activates the given cells at the next think()
+     *
+     * @param cells the cells
+     *
+     * @return this brain
+     */
+    public ShardedBrain activate(int... cells) {
+        for (int cell: cells) {
+            inputs.add(partition.order.internal(cell));
+        }
+
+        return this;
+    }
+
+    public Thought think() {
+        return think(Budget.UNLIMITED);
+    }
+
+    /**
+     * @param budget the maximum rounds flipping cells and/or time allowed
+     *
+     * @return how the thinking ended
+     */
+    public Thought think(Budget budget) {
+        final long start = System.nanoTime();
+        final int shards = partition.shards(), colours = Arrays.stream(this.colours).max().getAsInt() + 1;
+        final int words = (size + 63) >>> 6;
+
+        int[] changes = inputs.stream().mapToInt(Integer::intValue).toArray();
+        inputs.clear();
+        for (int change: changes) {
+            set(change);
+        }
+
+        final Convergence convergence = new Convergence(budget, state);
+        final boolean[] stale = new boolean[shards];
+        Arrays.fill(stale, true);
+
+        Thought.Outcome outcome = Thought.Outcome.SETTLED;
+        int rounds = 0, period = 0, colour = (int)state[words + shards], quiet = 0;
+        long flips = 0, edges = 0;
+        while (true) {
+            int[][] answers = round(colour, changes, stale);
+
+            IntBuffer changed = IntBuffer.allocate(size);
+            long roundFlips = 0;
+            for (int shard = 0; shard < shards; ++shard) {
+                int[] answer = answers[shard];
+                if (answer == null) {
+                    continue;
+                }
+                if (answer[0] == Thought.Outcome.OSCILLATING.ordinal()) {
+                    outcome = Thought.Outcome.OSCILLATING;
+                    period = Math.max(period, answer[1]);
+                }
+                roundFlips += ((long)answer[2] << 32) | (answer[3] & 0xFFFFFFFFL);
+                edges += ((long)answer[4] << 32) | (answer[5] & 0xFFFFFFFFL);
+                state[words + shard] = ((long)answer[6] << 32) | (answer[7] & 0xFFFFFFFFL);
+                for (int k = Shard.HEADER; k < answer.length; ++k) {
+                    if (set(answer[k])) {
+                        convergence.flip((answer[k] >= 0) ? answer[k] : ~answer[k]);
+                        changed.put(answer[k]);
+                    }
+                }
+            }
+            if (roundFlips > 0) {
+                ++rounds;
+                flips += roundFlips;
+            }
+            colour = (colour + 1) % colours;
+            state[words + shards] = colour;
+
+            changes = new int[changed.position()];
+            changed.rewind();
+            changed.get(changes);
+
+            if (outcome == Thought.Outcome.OSCILLATING) {
+                break;
+            }
+            quiet = (changes.length == 0) ? quiet + 1 : 0;
+            if (quiet == colours) {
+                break;
+            }
+            if (roundFlips > 0) {
+                Thought thought = convergence.pass(state);
+                if (thought != null) {
+                    outcome = thought.outcome;
+                    period = thought.period;
+                    break;
+                }
+            }
+        }
+
+        //
+        // boundary cells that changed in the last round still have to reach
+        // the other shards, so that a new think() starts from the right state
+        //
+        for (int change: changes) {
+            inputs.add(change);
+        }
+
+        return new Thought(outcome, rounds, period, flips, edges, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the state of all cells (see Brain.snapshot())
+     */
+    public long[] snapshot() {
+        long[] words = new long[(size + 63) >>> 6];
+        for (int[] cells: all(Shard.Command.SNAPSHOT, new int[0])) {
+            for (int cell: cells) {
+                words[cell >>> 6] |= (1L << cell);
+            }
+        }
+
+        return partition.order.external(words);
+    }
+
+    /**
+     * Closes the transport
+     */
+    @Override
+    public void close() {
+        transport.close();
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    /**
+     * Sends the changes to all shards: the stale shards of the given colour
+     * think on them, the others just get them
+     *
+     * @return the answer of each shard that thought, null for the others
+     */
+    private int[][] round(int colour, int[] changes, boolean[] stale) {
+        List<CompletableFuture<int[]>> futures = new ArrayList<>();
+        for (int shard = 0; shard < transport.shards(); ++shard) {
+            if ((colours[shard] == colour) && (stale[shard] || (changes.length > 0))) {
+                stale[shard] = false;
+                futures.add(transport.send(shard, Shard.Command.EXCHANGE, changes));
+            } else if (changes.length > 0) {
+                stale[shard] = true;
+                futures.add(transport.send(shard, Shard.Command.UPDATE, changes).thenApply(cells -> null));
+            } else {
+                futures.add(CompletableFuture.completedFuture(null));
+            }
+        }
+        int[][] answers = new int[futures.size()][];
+        for (int shard = 0; shard < answers.length; ++shard) {
+            answers[shard] = futures.get(shard).join();
+        }
+
+        return answers;
+    }
+
+    /**
+     * Records a change (cell if active, ~cell if not) in the state
+     *
+     * @return true if the cell was not known to be in that state
+     */
+    private boolean set(int change) {
+        int cell = (change >= 0) ? change : ~change;
+        long bit = 1L << cell;
+        if (((state[cell >>> 6] & bit) != 0) == (change >= 0)) {
+            return false;
+        }
+        state[cell >>> 6] ^= bit;
+
+        return true;
+    }
+
+    /**
+     * Sends the same command to all shards at once
+     *
+     * @return the answer of each shard
+     */
+    private int[][] all(Shard.Command command, int[] cells) {
+        List<CompletableFuture<int[]>> futures = new ArrayList<>();
+        for (int shard = 0; shard < transport.shards(); ++shard) {
+            futures.add(transport.send(shard, command, cells));
+        }
+        int[][] answers = new int[futures.size()][];
+        for (int shard = 0; shard < answers.length; ++shard) {
+            answers[shard] = futures.get(shard).join();
+        }
+
+        return answers;
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.stefanofornari.braincells;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Transport to shards served by ShardServers, one connection each (see
+ * ShardServer for the protocol). Each connection has a thread of its own
+ * waiting for the answers, so that shards think in parallel.
+ */
+public class SocketTransport implements Transport {
+
+    private final Socket[] sockets;
+    private final DataInputStream[] ins;
+    private final DataOutputStream[] outs;
+    private final ExecutorService executor;
+
+    /**
+     * @param addresses the address of each shard, in order
+     *
+     * @throws IOException if a shard can not be reached
+     */
+    public SocketTransport(InetSocketAddress... addresses) throws IOException {
+        sockets = new Socket[addresses.length];
+        ins = new DataInputStream[addresses.length];
+        outs = new DataOutputStream[addresses.length];
+        try {
+            for (int i = 0; i < addresses.length; ++i) {
+                sockets[i] = new Socket(addresses[i].getAddress(), addresses[i].getPort());
+                sockets[i].setTcpNoDelay(true);
+                ins[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+                outs[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+            }
+        } catch (IOException x) {
+            closeSockets();
+            throw x;
+        }
+        executor = Executors.newFixedThreadPool(Math.max(1, addresses.length), r -> {
+            Thread t = new Thread(r, "shard-transport");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public int shards() {
+        return sockets.length;
+    }
+
+    @Override
+    public CompletableFuture<int[]> send(int shard, Shard.Command command, int[] cells) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                DataOutputStream out = outs[shard];
+                out.writeInt(command.ordinal());
+                out.writeInt(cells.length);
+                for (int cell: cells) {
+                    out.writeInt(cell);
+                }
+                out.flush();
+
+                DataInputStream in = ins[shard];
+                int n = in.readInt();
+                if (n < 0) {
+                    throw new IllegalStateException("shard " + shard + " failed: " + in.readUTF());
+                }
+                int[] answer = new int[n];
+                for (int k = 0; k < n; ++k) {
+                    answer[k] = in.readInt();
+                }
+                return answer;
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+        }, executor);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        closeSockets();
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private void closeSockets() {
+        for (Socket socket: sockets) {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException x) {
+                    //
+                    // nothing else to do
+                    //
+                }
+            }
+        }
+    }
+}
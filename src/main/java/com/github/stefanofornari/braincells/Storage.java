@@ -0,0 +1,23 @@
+package com.github.stefanofornari.braincells;
+
+/**
+ * Where a brain keeps its connections and resistances (see Brain(int, int,
+ * Storage)).
+ */
+public enum Storage {
+    
+    /**
+     * Java arrays on the heap, released by the garbage collector
+     */
+    HEAP,
+    
+    /**
+     * Direct buffers outside the Java heap, released by Brain.close(). The
+     * brain does not create a BrainCell per cell either (Brain.cells is
+     * empty, see Brain.cell()), so the heap used by the brain and the work of
+     * the garbage collector do not grow with the number of cells and
+     * connections. A single buffer holds at most 2GB, which limits the
+     * connections of each kind to about 500 millions.
+     */
+    OFF_HEAP
+}
@@ -0,0 +1,37 @@
+package com.github.stefanofornari.braincells;
+
+/**
+ * Propagation.SWEEP: the cells are evaluated in index order, each one seeing
+ * the changes made to the cells before it, until a full pass changes nothing.
+ * The index is the one of the topology, which is not the index of the brain
+ * cells once the brain has been reordered (see Brain.reorder()).
+ */
+class Sweep {
+    
+    static Thought think(Topology t, Activation a, Budget budget) {
+        final Convergence convergence = new Convergence(budget, a.words());
+        
+        //
+        // we repeat the thinking until no new cells have been activated
+        //
+        while (true) {
+            boolean again = false;
+            convergence.scanned(t.connections());
+            for (int i = 0; i < t.size; ++i) {
+                boolean active = a.get(i);
+                if (t.flips(i, t.potential(i, a), active)) {
+                    a.set(i, !active);
+                    convergence.flip(i);
+                    again = true;
+                }
+            }
+            if (!again) {
+                return convergence.settled();
+            }
+            Thought thought = convergence.pass(a.words());
+            if (thought != null) {
+                return thought;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.stefanofornari.braincells;
+
+/**
+ * How a think() ended.
+ */
+public final class Thought {
+    
+    public enum Outcome {
+        /**
+         * No cell changes any more
+         */
+        SETTLED,
+        /**
+         * The brain went back to a state it had already been in and would
+         * keep cycling through the same states forever
+         */
+        OSCILLATING,
+        /**
+         * The budget ran out before the brain settled
+         */
+        EXHAUSTED
+    }
+    
+    public final Outcome outcome;
+    
+    /**
+     * The number of passes that changed at least one cell (rounds for
+     * Propagation.PARALLEL)
+     */
+    public final int passes;
+    
+    /**
+     * The number of passes after which the state repeats when OSCILLATING, 0
+     * otherwise
+     */
+    public final int period;
+    
+    /**
+     * The number of times a cell changed state
+     */
+    public final long flips;
+    
+    /**
+     * The number of connections gone through to compute potentials (each
+     * connection between two distinct cells counts twice)
+     */
+    public final long edges;
+    
+    /**
+     * How long the thinking took, in nanoseconds
+     */
+    public final long nanos;
+    
+    Thought(Outcome outcome, int passes, int period, long flips, long edges, long nanos) {
+        this.outcome = outcome;
+        this.passes = passes;
+        this.period = period;
+        this.flips = flips;
+        this.edges = edges;
+        this.nanos = nanos;
+    }
+    
+    public boolean isSettled() {
+        return outcome == Outcome.SETTLED;
+    }
+    
+    @Override
+    public String toString() {
+        return outcome + " after " + passes + " passes"
+             + ((outcome == Outcome.OSCILLATING) ? " (period " + period + ")" : "");
+    }
+}
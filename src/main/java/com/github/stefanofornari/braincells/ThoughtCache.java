@@ -0,0 +1,160 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the state a brain settles to for the most recent input patterns,
+ * so that thinking a pattern seen before just restores that state.
+ *
+ * Patterns are sets of cells: the order of the cells and duplicates do not
+ * matter. Only thoughts that settled are remembered, the others depend on
+ * the budget. The least recently used pattern is dropped when the cache is
+ * full, and all patterns are dropped as soon as the brain is wired, learns,
+ * changes resistances, is reordered or thinks in a different propagation
+ * mode (see Brain.version), which is checked at every think().
+ *
+ * A cache is bound to its brain and, as the brain, is not thread safe.
+ */
+public class ThoughtCache {
+
+    private final Brain brain;
+    private final int capacity;
+
+    private final LinkedHashMap<Pattern, Entry> entries;
+    private long version;
+    private Propagation propagation;
+
+    private long hits = 0, misses = 0;
+
+    /**
+     * @param brain the brain
+     * @param capacity the number of patterns remembered - greater than 0
+     */
+    public ThoughtCache(Brain brain, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than 0 (" + capacity + ")");
+        }
+        this.brain = brain;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Pattern, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Pattern, ThoughtCache.Entry> eldest) {
+                return size() > ThoughtCache.this.capacity;
+            }
+        };
+        this.version = brain.version;
+        this.propagation = brain.propagation();
+    }
+
+    /**
+     * Same as brain.rest().activate(input).think(budget), leaving the brain
+     * in the state reached; if the input has been thought before the state
+     * is restored and the Thought of that time is returned.
+     *
+     * @param input the cells to activate
+     * @param budget the maximum passes and/or time allowed
+     *
+     * @return how the thinking ended
+     */
+    public Thought think(int[] input, Budget budget) {
+        if ((version != brain.version) || (propagation != brain.propagation())) {
+            entries.clear();
+            version = brain.version;
+            propagation = brain.propagation();
+        }
+
+        Pattern pattern = new Pattern(input);
+        Entry entry = entries.get(pattern);
+        if (entry != null) {
+            ++hits;
+            brain.restore(entry.state);
+            return entry.thought;
+        }
+
+        ++misses;
+        Thought thought = brain.rest().activate(input).think(budget);
+        if (thought.isSettled()) {
+            entries.put(pattern, new Entry(brain.snapshot(), thought));
+        }
+
+        return thought;
+    }
+
+    public Thought think(int... input) {
+        return think(input, Budget.UNLIMITED);
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of patterns remembered
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Forgets all patterns, keeping hits and misses
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public String toString() {
+        return size() + "/" + capacity + " patterns, " + hits + " hits, " + misses + " misses";
+    }
+
+    // --------------------------------------------------------- Pattern
+
+    /**
+     * A set of cells as a sorted array without duplicates
+     */
+    private static final class Pattern {
+        private final int[] cells;
+        private final int hash;
+
+        Pattern(int[] input) {
+            int[] sorted = input.clone();
+            Arrays.sort(sorted);
+            int n = 0;
+            for (int i = 0; i < sorted.length; ++i) {
+                if ((n == 0) || (sorted[i] != sorted[n-1])) {
+                    sorted[n++] = sorted[i];
+                }
+            }
+            this.cells = (n == sorted.length) ? sorted : Arrays.copyOf(sorted, n);
+            this.hash = Arrays.hashCode(cells);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Pattern) && Arrays.equals(cells, ((Pattern)o).cells);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // ----------------------------------------------------------- Entry
+
+    private static final class Entry {
+        final long[] state;
+        final Thought thought;
+
+        Entry(long[] state, Thought thought) {
+            this.state = state;
+            this.thought = thought;
+        }
+    }
+}
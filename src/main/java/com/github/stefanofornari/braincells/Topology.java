@@ -0,0 +1,144 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+
+/**
+ * An immutable, compacted snapshot of the connections of a brain in
+ * compressed sparse row form. Promoters of cell i are
+ * promoters[promoterOffsets[i]] ... promoters[promoterOffsets[i+1]-1] (and the
+ * same for detractors); each list is sorted by cell index. The resistance
+ * of each cell (see Brain) is kept along with the connections.
+ *
+ * A topology is obtained with Brain.freeze() and does not change if the brain
+ * is wired further afterwards. Densely connected cells also get neighbour
+ * bitmasks (see Masks) to count their active neighbours word by word; the
+ * neighbours of the others are counted by a Kernel.
+ *
+ * Cells are indexed as the brain keeps them, which is not the index of the
+ * brain cells once the brain has been reordered (see Brain.reorder()).
+ *
+ * Arrays are kept in buffers, which are on the heap, off-heap (see Storage)
+ * or mapped from a file (see BrainImage).
+ */
+public final class Topology {
+
+    public final int size;
+
+    final IntBuffer promoterOffsets;
+    final IntBuffer promoters;
+    final IntBuffer detractorOffsets;
+    final IntBuffer detractors;
+    
+    final Masks promoterMasks;
+    final Masks detractorMasks;
+    
+    final IntBuffer resistances;
+    
+    /**
+     * Where the cells are kept (see Brain.reorder())
+     */
+    final Permutation order;
+    
+    /**
+     * The code generated for Propagation.COMPILED, once generated
+     */
+    Compiled compiled;
+
+    /**
+     * Whether the topology can not be compiled and thinks with Sweep under
+     * Propagation.COMPILED, once found out
+     */
+    boolean interpreted;
+
+    Topology(
+        int size, Adjacency promoters, Adjacency detractors, IntBuffer resistances,
+        Permutation order, Memory memory
+    ) {
+        this(
+            size,
+            promoters.offsets, promoters.neighbours,
+            detractors.offsets, detractors.neighbours,
+            Masks.of(size, promoters.offsets, promoters.neighbours, memory),
+            Masks.of(size, detractors.offsets, detractors.neighbours, memory),
+            memory.copy(resistances, size),
+            order
+        );
+    }
+
+    Topology(
+        int size,
+        IntBuffer promoterOffsets, IntBuffer promoters,
+        IntBuffer detractorOffsets, IntBuffer detractors,
+        Masks promoterMasks, Masks detractorMasks,
+        IntBuffer resistances, Permutation order
+    ) {
+        this.size = size;
+        this.promoterOffsets = promoterOffsets;
+        this.promoters = promoters;
+        this.detractorOffsets = detractorOffsets;
+        this.detractors = detractors;
+        this.promoterMasks = promoterMasks;
+        this.detractorMasks = detractorMasks;
+        this.resistances = resistances;
+        this.order = order;
+    }
+
+    public int promoters(int cell) {
+        return promoterOffsets.get(cell+1) - promoterOffsets.get(cell);
+    }
+
+    public int detractors(int cell) {
+        return detractorOffsets.get(cell+1) - detractorOffsets.get(cell);
+    }
+
+    public int resistance(int cell) {
+        return resistances.get(cell);
+    }
+
+    /**
+     * @return the number of directed connections (each connection between two
+     *         distinct cells counts twice)
+     */
+    public int connections() {
+        return promoters.limit() + detractors.limit();
+    }
+
+    /**
+     * @return the number of active promoters minus the number of active
+     *         detractors of the given cell
+     */
+    int potential(int cell, Activation activation) {
+        return count(cell, promoterOffsets, promoters, promoterMasks, activation)
+             - count(cell, detractorOffsets, detractors, detractorMasks, activation);
+    }
+    
+    /**
+     * @return true if a cell with the given potential and state would flip:
+     *         an inactive cell activates if its potential is at least its
+     *         resistance, an active one de-activates if its potential is at
+     *         most minus its resistance
+     */
+    boolean flips(int cell, int potential, boolean active) {
+        int resistance = resistances.get(cell);
+        return active ? (potential <= -resistance) : (potential >= resistance);
+    }
+    
+    // --------------------------------------------------------- Private methods
+    
+    private static int count(
+        int cell, IntBuffer offsets, IntBuffer neighbours, Masks masks, Activation activation
+    ) {
+        int count = 0;
+        
+        int w = masks.first.get(cell);
+        if (w >= 0) {
+            for (int k = masks.offsets.get(cell), to = masks.offsets.get(cell+1); k < to; ++k) {
+                count += Long.bitCount(masks.bits.get(k) & activation.word(w++));
+            }
+        } else {
+            count = Kernel.DEFAULT.count(neighbours, offsets.get(cell), offsets.get(cell+1), activation);
+        }
+        
+        return count;
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Trains a brain on a stream of samples in mini-batches.
+ * 
+ * For each batch the brain is frozen and every sample is thought on its own
+ * activation against that read-only topology, in parallel on a ForkJoinPool.
+ * The states reached are then handed to BrainTrainer.learn() one sample at a
+ * time, in the order the samples came in, so the connections created do not
+ * depend on the number of threads. A sample is counted as correct if the
+ * brain got it right before learning from it.
+ * 
+ * With batches of one sample this is the same as doing by hand rest(),
+ * activate(input), think() and learn(ons, offs) for each sample; with larger
+ * batches the samples of a batch do not see the connections created for the
+ * samples before them in the same batch.
+ */
+public class Training {
+    
+    private final Brain brain;
+    private final BrainTrainer trainer;
+    
+    private int batch = 256;
+    private Budget budget = Budget.UNLIMITED;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    
+    public Training(Brain brain) {
+        this.brain = brain;
+        this.trainer = new BrainTrainer(brain);
+    }
+    
+    /**
+     * @param size the number of samples thought against the same topology
+     *             (256 by default)
+     * 
+     * @return this training
+     */
+    public Training batch(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("batch size must be greater than 0 (" + size + ")");
+        }
+        this.batch = size;
+        
+        return this;
+    }
+    
+    /**
+     * @param budget the budget of each sample's think() (unlimited by default)
+     * 
+     * @return this training
+     */
+    public Training budget(Budget budget) {
+        this.budget = budget;
+        
+        return this;
+    }
+    
+    /**
+     * @param pool the pool samples are thought on (the common pool by
+     *             default)
+     * 
+     * @return this training
+     */
+    public Training pool(ForkJoinPool pool) {
+        this.pool = pool;
+        
+        return this;
+    }
+    
+    /**
+     * Goes through the given samples once, leaving the brain in the state
+     * reached by the last sample.
+     * 
+     * @param samples the samples
+     * 
+     * @return accuracy and throughput of the epoch
+     */
+    public Epoch epoch(Iterator<Sample> samples) {
+        final long start = System.nanoTime();
+        
+        int count = 0, correct = 0;
+        Sample[] chunk = new Sample[batch];
+        while (samples.hasNext()) {
+            int n = 0;
+            while (n < batch && samples.hasNext()) {
+                chunk[n++] = samples.next();
+            }
+            
+            long[][] states = new long[n][];
+            correct += pool.invoke(new Evaluation(brain.freeze(), chunk, states, 0, n));
+            
+            for (int i = 0; i < n; ++i) {
+                brain.restore(states[i]);
+                trainer.learn(chunk[i].ons, chunk[i].offs);
+            }
+            count += n;
+        }
+        
+        return new Epoch(count, correct, System.nanoTime() - start);
+    }
+    
+    /**
+     * Goes through the given samples the given number of times
+     * 
+     * @param samples the samples
+     * @param epochs the number of epochs
+     * 
+     * @return accuracy and throughput of each epoch
+     */
+    public List<Epoch> train(Iterable<Sample> samples, int epochs) {
+        List<Epoch> result = new ArrayList<>(epochs);
+        for (int i = 0; i < epochs; ++i) {
+            result.add(epoch(samples.iterator()));
+        }
+        
+        return result;
+    }
+    
+    // ------------------------------------------------------ Evaluation
+    
+    /**
+     * Thinks samples [from, to) on their own activation, stores the states
+     * reached and returns the number of samples the brain got right.
+     */
+    private class Evaluation extends RecursiveTask<Integer> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final Topology t;
+        private final Sample[] samples;
+        private final long[][] states;
+        private final int from, to;
+        
+        Evaluation(Topology t, Sample[] samples, long[][] states, int from, int to) {
+            this.t = t; this.samples = samples; this.states = states;
+            this.from = from; this.to = to;
+        }
+        
+        @Override
+        protected Integer compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                Evaluation left = new Evaluation(t, samples, states, from, middle);
+                left.fork();
+                int right = new Evaluation(t, samples, states, middle, to).compute();
+                return left.join() + right;
+            }
+            
+            int correct = 0;
+            for (int i = from; i < to; ++i) {
+                Activation activation = new Activation(t.size);
+                for (int cell: samples[i].input) {
+                    activation.set(t.order.internal(cell));
+                }
+                final Usage usage = brain.usage;
+                brain.metrics().thought(
+                    (usage == null)
+                    ? brain.propagation().think(t, activation, budget)
+                    : usage.think(t, activation, budget, brain.propagation())
+                );
+                if (samples[i].matches(activation, t.order)) {
+                    ++correct;
+                }
+                states[i] = t.order.external(activation.words());
+            }
+            
+            return correct;
+        }
+    }
+}
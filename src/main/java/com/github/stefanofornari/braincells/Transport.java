@@ -0,0 +1,31 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * How a ShardedBrain sends commands to its shards, wherever they are:
+ * LocalTransport calls shards in the same JVM, SocketTransport talks to
+ * ShardServers over TCP. ShardedBrain sends at most one command at a time to
+ * each shard, to all shards at once.
+ */
+public interface Transport extends AutoCloseable {
+
+    /**
+     * @return the number of shards reachable, 0 ... shards()-1
+     */
+    int shards();
+
+    /**
+     * Sends a command to a shard (see Shard.handle())
+     *
+     * @param shard the shard
+     * @param command the command
+     * @param cells the cells in
+     *
+     * @return the cells out, or the failure to get them
+     */
+    CompletableFuture<int[]> send(int shard, Shard.Command command, int[] cells);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,207 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how many times each connection of a brain contributed to a flip
+ * while the brain thinks (see Pruning).
+ *
+ * A connection to an active neighbour contributes to the flip of a cell if it
+ * pushes the cell the way it flips: promoters when the cell activates,
+ * detractors when it de-activates. Counting means going through the
+ * neighbours of every cell that flips, so only one think() in every() is
+ * counted; the others think as usual. Counted thinks go through the cells as
+ * their propagation mode would, so they end as they would have otherwise, but
+ * always on the calling thread.
+ *
+ * Counters are indexed as the compacted connections of the topology they
+ * were last counted on. When the brain is wired further they are carried
+ * over to the new topology, connection by connection; reordering the brain
+ * (see Brain.reorder()) resets them. Thinks on the same topology from many
+ * threads (as in Training) can be counted at once.
+ */
+final class Usage {
+
+    private volatile int every = 1;
+    private final AtomicLong thinks = new AtomicLong();
+
+    private Topology t;
+    private int[] promoters = new int[0], detractors = new int[0];
+    private long counted = 0;
+
+    /**
+     * @param thinks count one think in this many
+     */
+    void every(int thinks) {
+        this.every = thinks;
+    }
+
+    /**
+     * Thinks with the given propagation mode, counting the contributions of
+     * the connections if this think is sampled
+     */
+    Thought think(Topology t, Activation a, Budget budget, Propagation propagation) {
+        if (thinks.getAndIncrement() % every != 0) {
+            return propagation.think(t, a, budget);
+        }
+
+        Counter counter = new Counter(t);
+        Thought thought = counter.think(a, budget, propagation == Propagation.PARALLEL);
+        count(t, counter.uses, counter.n);
+
+        return thought;
+    }
+
+    /**
+     * @return the number of thinks counted so far
+     */
+    synchronized long counted() {
+        return counted;
+    }
+
+    /**
+     * @return the promoter and detractor counters of the given topology,
+     *         indexed as its compacted connections (not copies)
+     */
+    synchronized int[][] counters(Topology t) {
+        align(t);
+
+        return new int[][] {promoters, detractors};
+    }
+
+    /**
+     * Goes back to the given counters of the given topology, as returned by
+     * counters()
+     */
+    synchronized void restore(Topology t, int[][] counters) {
+        this.t = t;
+        this.promoters = counters[0];
+        this.detractors = counters[1];
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    /**
+     * Adds the uses collected by a counted think: k for promoter k, ~k for
+     * detractor k
+     */
+    private synchronized void count(Topology t, int[] uses, int n) {
+        align(t);
+        for (int u = 0; u < n; ++u) {
+            int k = uses[u];
+            if (k >= 0) {
+                ++promoters[k];
+            } else {
+                ++detractors[~k];
+            }
+        }
+        ++counted;
+    }
+
+    /**
+     * Carries the counters over to the given topology
+     */
+    private void align(Topology t) {
+        if (this.t == t) {
+            return;
+        }
+        if ((this.t == null) || (this.t.order != t.order)) {
+            promoters = new int[t.promoters.limit()];
+            detractors = new int[t.detractors.limit()];
+        } else {
+            promoters = carry(this.t.promoterOffsets, this.t.promoters, promoters, t.promoterOffsets, t.promoters);
+            detractors = carry(this.t.detractorOffsets, this.t.detractors, detractors, t.detractorOffsets, t.detractors);
+        }
+        this.t = t;
+    }
+
+    /**
+     * @return the counters of the connections in the new CSR arrays, taken
+     *         from the same connections in the old ones (0 for new ones)
+     */
+    private static int[] carry(
+        IntBuffer offsets, IntBuffer neighbours, int[] counters, IntBuffer newOffsets, IntBuffer newNeighbours
+    ) {
+        int[] carried = new int[newNeighbours.limit()];
+        for (int i = 0, size = newOffsets.limit() - 1; i < size; ++i) {
+            int k = offsets.get(i), to = offsets.get(i+1);
+            for (int n = newOffsets.get(i), end = newOffsets.get(i+1); (n < end) && (k < to); ++n) {
+                int j = newNeighbours.get(n);
+                while ((k < to) && (neighbours.get(k) < j)) {
+                    ++k;
+                }
+                if ((k < to) && (neighbours.get(k) == j)) {
+                    carried[n] = counters[k++];
+                }
+            }
+        }
+        return carried;
+    }
+
+    // ----------------------------------------------------------- Counter
+
+    /**
+     * A think of SWEEP (or synchronous, as PARALLEL, on a single thread)
+     * collecting the uses of the connections of the cells that flip
+     */
+    private static class Counter {
+
+        private final Topology t;
+
+        int[] uses = new int[64];
+        int n = 0;
+
+        Counter(Topology t) {
+            this.t = t;
+        }
+
+        Thought think(Activation a, Budget budget, boolean synchronous) {
+            final Convergence convergence = new Convergence(budget, a.words());
+            final Activation read = synchronous ? new Activation(t.size, a.words().clone()) : a;
+
+            while (true) {
+                boolean again = false;
+                convergence.scanned(t.connections());
+                for (int i = 0; i < t.size; ++i) {
+                    boolean active = read.get(i);
+                    if (t.flips(i, t.potential(i, read), active)) {
+                        if (active) {
+                            use(i, t.detractorOffsets, t.detractors, read, true);
+                        } else {
+                            use(i, t.promoterOffsets, t.promoters, read, false);
+                        }
+                        a.set(i, !active);
+                        convergence.flip(i);
+                        again = true;
+                    }
+                }
+                if (!again) {
+                    return convergence.settled();
+                }
+                Thought thought = convergence.pass(a.words());
+                if (thought != null) {
+                    return thought;
+                }
+                if (synchronous) {
+                    read.restore(a.words());
+                }
+            }
+        }
+
+        /**
+         * Collects the connections of cell i to the cells active in read
+         */
+        private void use(int i, IntBuffer offsets, IntBuffer neighbours, Activation read, boolean detractors) {
+            for (int k = offsets.get(i), to = offsets.get(i+1); k < to; ++k) {
+                if (read.get(neighbours.get(k))) {
+                    if (n == uses.length) {
+                        uses = Arrays.copyOf(uses, 2 * n);
+                    }
+                    uses[n++] = detractors ? ~k : k;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernel on the JDK Vector API: the neighbours are taken as many at a time as
+ * a long vector has lanes; the words holding their bits are gathered from the
+ * activation, shifted by the neighbour index (shifts are taken modulo 64) and
+ * masked, and the lanes are summed once at the end. Branch free, no lookup
+ * of the epoch stamps (see Activation.words()).
+ * 
+ * Only lists at least as long as a vector and on the heap are counted here;
+ * the others (e.g. mapped from a BrainImage) go to Kernel.SCALAR.
+ */
+final class VectorKernel extends Kernel {
+    
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS =
+        VectorSpecies.of(int.class, VectorShape.forBitSize(LONGS.vectorBitSize() / 2));
+    private static final int LANES = LONGS.length();
+    
+    //
+    // the gather takes the word offsets from an array: one per thread, as
+    // PARALLEL counts from many threads at once
+    //
+    private static final ThreadLocal<int[]> INDEX =
+        ThreadLocal.withInitial(() -> new int[LANES]);
+    
+    @Override
+    int count(IntBuffer neighbours, int from, int to, Activation activation) {
+        if ((to - from < LANES) || !neighbours.hasArray()) {
+            return SCALAR.count(neighbours, from, to, activation);
+        }
+        
+        final int[] cells = neighbours.array();
+        final int base = neighbours.arrayOffset();
+        final long[] words = activation.words();
+        final int[] index = INDEX.get();
+        
+        LongVector sum = LongVector.zero(LONGS);
+        int k = from;
+        for (int bound = to - LANES; k <= bound; k += LANES) {
+            IntVector j = IntVector.fromArray(INTS, cells, base + k);
+            j.lanewise(VectorOperators.LSHR, 6).intoArray(index, 0);
+            LongVector shifts = (LongVector)j.convertShape(VectorOperators.I2L, LONGS, 0);
+            sum = sum.add(
+                LongVector.fromArray(LONGS, words, 0, index, 0)
+                          .lanewise(VectorOperators.LSHR, shifts)
+                          .and(1L)
+            );
+        }
+        
+        int count = (int)sum.reduceLanes(VectorOperators.ADD);
+        for (; k < to; ++k) {
+            int j = cells[base + k];
+            count += (int)(words[j >>> 6] >>> j) & 1;
+        }
+        
+        return count;
+    }
+    
+    @Override
+    public String toString() {
+        return "vector (" + LANES + " lanes)";
+    }
+}
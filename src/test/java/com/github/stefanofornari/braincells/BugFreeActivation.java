@@ -0,0 +1,121 @@
+package com.github.stefanofornari.braincells;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The activation state of a brain is a bitset, one bit per cell. Clearing it
+ * just starts a new epoch: words written in older epochs read as 0.
+ */
+public class BugFreeActivation {
+
+    @Test
+    public void new_activation_has_all_cells_inactive() {
+        Activation a = new Activation(130);
+
+        then(a.size).isEqualTo(130);
+        then(a.words).hasSize(3).containsOnly(0L);
+        then(a.count()).isZero();
+        then(a.next(0)).isEqualTo(-1);
+    }
+
+    @Test
+    public void set_and_clear_cells() {
+        Activation a = new Activation(130);
+
+        a.set(0); a.set(63); a.set(64); a.set(129, true);
+        then(a.get(0)).isTrue();
+        then(a.get(1)).isFalse();
+        then(a.get(63)).isTrue();
+        then(a.get(64)).isTrue();
+        then(a.get(129)).isTrue();
+        then(a.count()).isEqualTo(4);
+
+        a.clear(63); a.set(64, false);
+        then(a.get(63)).isFalse();
+        then(a.get(64)).isFalse();
+        then(a.count()).isEqualTo(2);
+
+        a.clear();
+        then(a.count()).isZero();
+    }
+
+    @Test
+    public void next_iterates_active_cells_in_order() {
+        Activation a = new Activation(200);
+
+        a.set(3); a.set(64); a.set(65); a.set(199);
+
+        then(a.next(0)).isEqualTo(3);
+        then(a.next(3)).isEqualTo(3);
+        then(a.next(4)).isEqualTo(64);
+        then(a.next(65)).isEqualTo(65);
+        then(a.next(66)).isEqualTo(199);
+        then(a.next(200)).isEqualTo(-1);
+    }
+
+    @Test
+    public void snapshot_and_restore() {
+        Activation a = new Activation(100);
+
+        a.set(1); a.set(99);
+        long[] snapshot = a.snapshot();
+
+        a.clear(); a.set(50);
+        then(a.get(1)).isFalse();
+
+        a.restore(snapshot);
+        then(a.get(1)).isTrue();
+        then(a.get(50)).isFalse();
+        then(a.get(99)).isTrue();
+
+        thenThrownBy(() -> a.restore(new long[1]))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("snapshot of 1 words does not fit a brain of 100 cells");
+    }
+
+    @Test
+    public void clear_leaves_stale_words_reading_as_zero() {
+        Activation a = new Activation(200);
+
+        a.set(3); a.set(70); a.set(199);
+        a.clear();
+
+        //
+        // the bits are still there, but stale
+        //
+        then(a.words[0]).isEqualTo(1L << 3);
+        then(a.get(3)).isFalse();
+        then(a.get(70)).isFalse();
+        then(a.next(0)).isEqualTo(-1);
+        then(a.count()).isZero();
+
+        //
+        // a stale word is zeroed when written again
+        //
+        a.set(4);
+        then(a.words[0]).isEqualTo(1L << 4);
+        a.clear(70);
+        then(a.word(1)).isZero();
+        then(a.get(3)).isFalse();
+        then(a.next(0)).isEqualTo(4);
+        then(a.next(5)).isEqualTo(-1);
+
+        then(a.words()).containsExactly(1L << 4, 0L, 0L, 0L);
+        then(a.snapshot()).containsExactly(1L << 4, 0L, 0L, 0L);
+    }
+
+    @Test
+    public void restore_after_clear() {
+        Activation a = new Activation(100);
+
+        a.set(1);
+        long[] snapshot = a.snapshot();
+        a.clear(); a.clear();
+
+        a.restore(snapshot);
+        then(a.get(1)).isTrue();
+        then(a.count()).isEqualTo(1);
+    }
+}
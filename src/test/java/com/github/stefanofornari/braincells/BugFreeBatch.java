@@ -0,0 +1,79 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.settles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.jupiter.api.Test;
+
+/**
+ * thinkBatch() evaluates many input patterns at once, giving for each of them
+ * the same result of rest(), activate(pattern), think().
+ */
+public class BugFreeBatch {
+
+    @Test
+    public void think_batch_of_no_patterns() {
+        then(new Brain(10).thinkBatch(new int[0][])).isEmpty();
+    }
+
+    @Test
+    public void think_batch_does_not_change_the_brain() {
+        Brain brain = new Brain(10);
+
+        brain.promoter(0, 1).activate(5);
+
+        long[][] results = brain.thinkBatch(new int[][] {{0}, {2}});
+
+        then(results[0]).containsExactly(0b11L);
+        then(results[1]).containsExactly(0b100L);
+        then(brain.snapshot()).containsExactly(0b100000L);
+    }
+
+    @Test
+    public void think_batch_gives_the_same_results_of_think() {
+        Random r = new Random(20191215);
+
+        for (int n = 0; n < 20; ++n) {
+            int size = 10 + r.nextInt(150);
+            Brain brain = new Brain(size, 1 + r.nextInt(2));
+            for (int i = r.nextInt(size/2); i > 0; --i) {
+                brain.resistance(r.nextInt(size), 1 + r.nextInt(4));
+            }
+            for (int i = r.nextInt(4*size); i > 0; --i) {
+                if (r.nextInt(3) == 0) {
+                    brain.detractor(r.nextInt(size), r.nextInt(size));
+                } else {
+                    brain.promoter(r.nextInt(size), r.nextInt(size));
+                }
+            }
+
+            //
+            // more than 64 patterns to span multiple batches; patterns that
+            // would make think() oscillate forever are left out
+            //
+            List<int[]> patterns = new ArrayList<>();
+            List<long[]> expected = new ArrayList<>();
+            for (int p = 0; p < 150; ++p) {
+                int[] pattern = new int[1 + r.nextInt(4)];
+                for (int i = 0; i < pattern.length; ++i) {
+                    pattern[i] = r.nextInt(size);
+                }
+                brain.rest().activate(pattern);
+                if (settles(brain, 100)) {
+                    brain.think();
+                    patterns.add(pattern);
+                    expected.add(brain.snapshot());
+                }
+            }
+
+            long[][] results = brain.thinkBatch(patterns.toArray(new int[0][]));
+
+            then(results).hasSize(patterns.size());
+            for (int p = 0; p < results.length; ++p) {
+                then(results[p]).containsExactly(expected.get(p));
+            }
+        }
+    }
+}
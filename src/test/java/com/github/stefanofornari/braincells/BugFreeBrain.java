@@ -1,14 +1,21 @@
 package com.github.stefanofornari.braincells;
 
+import static com.github.stefanofornari.braincells.Utils.settles;
 import static com.github.stefanofornari.braincells.Utils.thenBrainIs;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.function.Predicate;
 import static org.assertj.core.api.Assertions.fail;
 import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
 /**
  * A brain is a set of BrainCells that may or may not be connected. A cell can
@@ -17,10 +24,10 @@ import org.junit.jupiter.api.Test;
  * the activation of A promotes the activation of B (and vice versa - a 
  * connection is symmetric); when the activation of A inhibit the action of B, 
  * the connection is called detracting. A cell activates if and only if the
- * number of cells connected through promoting connections is greater than
- * the number of cells connected through detracting connections (in other words
- * if the number of active promoters is higher than the number of active 
- * detractors).
+ * number of active promoters exceeds the number of active detractors by at
+ * least the resistance of the cell (1 by default) and de-activates if and
+ * only if the number of active detractors exceeds the number of active
+ * promoters by at least the resistance.
  * 
  * A brain has input and output cells. Input cells are directly activated 
  */
@@ -50,7 +57,7 @@ public class BugFreeBrain {
         Brain brain = new Brain(1);
         
         then(brain.cells).hasSize(1);
-        then(brain.cells[0].active).isFalse();
+        then(brain.cells[0].isActive()).isFalse();
         then(brain.cells[0].promoters).isEmpty();
         then(brain.cells[0].detractors).isEmpty();
         
@@ -58,7 +65,7 @@ public class BugFreeBrain {
         then(brain.cells).allMatch(new Predicate<BrainCell>() {
             @Override
             public boolean test(BrainCell c) {
-                return (c.active == false) &&
+                return (c.isActive() == false) &&
                        c.promoters.isEmpty() &&
                        c.detractors.isEmpty();
             }
@@ -84,6 +91,30 @@ public class BugFreeBrain {
         then(brain.cells[4].promoters).containsExactly(brain.cells[3]);
     }
     
+    @Test
+    public void connections_not_compacted_yet_are_listed_in_order() {
+        Brain brain = new Brain(1000);
+        BrainCell[] expected = new BrainCell[110];
+        for (int i = 0; i < 10; ++i) {
+            brain.promoter(0, 10 - i);
+            expected[i] = brain.cells[i + 1];
+        }
+        brain.freeze();
+        for (int i = 0; i < 100; ++i) {
+            brain.promoter(0, 999 - i);
+            expected[10 + i] = brain.cells[999 - i];
+        }
+        then(brain.promoters.isCompacted()).isFalse();
+
+        then(brain.cells[0].promoters).containsExactly(expected);
+        Iterator<BrainCell> cells = brain.cells[0].promoters.iterator();
+        for (int i = 0; i < expected.length; ++i) {
+            cells.next();
+        }
+        then(cells.hasNext()).isFalse();
+        thenThrownBy(cells::next).isInstanceOf(NoSuchElementException.class);
+    }
+
     @Test
     public void fluid_brain_promoter() {
         Brain brain = new Brain(10);
@@ -134,9 +165,31 @@ public class BugFreeBrain {
     }
     
     @Test
-    public void think_with_no_connections_does_not_activate_any_cell() {
+    public void snapshot_and_restore_activation_state() {
         Brain brain = new Brain(10);
         
+        long[] snapshot = brain.activate(1, 3).snapshot();
+        brain.rest().activate(5);
+        
+        then(brain.restore(snapshot)).isSameAs(brain);
+        thenBrainIs(
+            brain,
+            false, true, false, true, false, false, false, false, false, false
+        );
+        
+        //
+        // a snapshot is a copy
+        //
+        brain.activate(7);
+        brain.restore(snapshot);
+        then(brain.cells[7].isActive()).isFalse();
+    }
+    
+    @ParameterizedTest
+    @EnumSource(Propagation.class)
+    public void think_with_no_connections_does_not_activate_any_cell(Propagation propagation) {
+        Brain brain = new Brain(10).propagation(propagation);
+        
         brain.think();
         
         thenBrainIsRested(brain);
@@ -156,9 +209,10 @@ public class BugFreeBrain {
         );
     }
     
-    @Test
-    public void think_with_too_not_enough_promoters_does_not_activate_any_cells() {
-        Brain brain = new Brain(10);
+    @ParameterizedTest
+    @EnumSource(Propagation.class)
+    public void think_with_too_not_enough_promoters_does_not_activate_any_cells(Propagation propagation) {
+        Brain brain = new Brain(10).propagation(propagation);
         
         brain.promoter(2, 0).promoter(7, 5).promoter(9, 2)
              .detractor(3, 0).detractor(5, 9).detractor(3, 7);
@@ -173,9 +227,10 @@ public class BugFreeBrain {
         );
     }
     
-    @Test
-    public void think_with_activate_a_cell_when_prmoteres_gt_detractrors() {
-        Brain brain = new Brain(10);
+    @ParameterizedTest
+    @EnumSource(Propagation.class)
+    public void think_with_activate_a_cell_when_prmoteres_gt_detractrors(Propagation propagation) {
+        Brain brain = new Brain(10).propagation(propagation);
         
         brain.promoter(0, 1).promoter(0, 4).promoter(4, 5).promoter(2, 5)
              .detractor(1, 3).detractor(2, 4)
@@ -188,6 +243,183 @@ public class BugFreeBrain {
         );
     }
     
+    @Test
+    public void frontier_think_gives_the_same_result_of_sweep() {
+        Random r = new Random(20191201);
+        
+        int tried = 0;
+        while (tried < 200) {
+            int size = 5 + r.nextInt(60);
+            int resistance = 1 + r.nextInt(2);
+            Brain sweep = new Brain(size, resistance);
+            Brain frontier = new Brain(size, resistance).propagation(Propagation.FRONTIER);
+            
+            for (int i = r.nextInt(size/4); i > 0; --i) {
+                int cell = r.nextInt(size), cellResistance = 1 + r.nextInt(3);
+                sweep.resistance(cell, cellResistance); frontier.resistance(cell, cellResistance);
+            }
+            for (int i = r.nextInt(3*size); i > 0; --i) {
+                int a = r.nextInt(size), b = r.nextInt(size);
+                if (r.nextInt(3) == 0) {
+                    sweep.detractor(a, b); frontier.detractor(a, b);
+                } else {
+                    sweep.promoter(a, b); frontier.promoter(a, b);
+                }
+            }
+            for (int i = 1 + r.nextInt(3); i > 0; --i) {
+                int a = r.nextInt(size);
+                sweep.activate(a); frontier.activate(a);
+            }
+            
+            //
+            // without connections changes sweep may oscillate forever; we
+            // compare only brains that settle
+            //
+            if (!settles(sweep, 100)) {
+                continue;
+            }
+            ++tried;
+            
+            then(frontier.think().passes).isEqualTo(sweep.think().passes);
+            for (int i = 0; i < size; ++i) {
+                then(frontier.cells[i].isActive()).isEqualTo(sweep.cells[i].isActive());
+            }
+        }
+    }
+    
+    @ParameterizedTest
+    @EnumSource(Propagation.class)
+    public void think_activates_cells_when_promoters_exceed_detractors_by_resistance(Propagation propagation) {
+        Brain brain = new Brain(5, 2).propagation(propagation);
+        
+        brain.promoter(0, 2).promoter(1, 2).promoter(0, 3).activate(0).think();
+        
+        thenBrainIs(brain, true, false, false, false, false);
+        
+        brain.activate(1).think();
+        
+        thenBrainIs(brain, true, true, true, false, false);
+        
+        brain.resistance(3, 1).think();
+        
+        thenBrainIs(brain, true, true, true, true, false);
+    }
+    
+    @ParameterizedTest
+    @EnumSource(Propagation.class)
+    public void think_deactivates_cells_when_detractors_exceed_promoters_by_resistance(Propagation propagation) {
+        Brain brain = new Brain(4, 2).propagation(propagation);
+        
+        brain.detractor(0, 3).detractor(1, 3).activate(0, 3).think();
+        
+        thenBrainIs(brain, true, false, false, true);
+        
+        brain.activate(1).think();
+        
+        thenBrainIs(brain, true, true, false, false);
+    }
+    
+    @Test
+    public void resistance_must_be_positive() {
+        thenThrownBy(() -> new Brain(10, 0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("resistance must be greater than 0 (0)");
+        
+        Brain brain = new Brain(10, 3);
+        then(brain.resistance(4)).isEqualTo(3);
+        thenThrownBy(() -> brain.resistance(4, -1))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("resistance must be greater than 0 (-1)");
+        then(brain.resistance(4)).isEqualTo(3);
+    }
+    
+    @Test
+    public void resistance_changes_are_frozen_in_the_topology() {
+        Brain brain = new Brain(3);
+        
+        Topology t = brain.freeze();
+        then(brain.resistance(1, 1).freeze()).isSameAs(t);
+        
+        Topology t2 = brain.resistance(1, 4).freeze();
+        then(t2).isNotSameAs(t);
+        then(t2.resistance(1)).isEqualTo(4);
+        then(t.resistance(1)).isEqualTo(1);
+        then(brain.resistance(1)).isEqualTo(4);
+    }
+    
+    @Test
+    public void update_switches_cells_and_thinks() {
+        Brain brain = new Brain(6);
+        
+        brain.promoter(0, 1).promoter(1, 2).detractor(3, 2).promoter(4, 5);
+        
+        then(brain.update(new int[] {0}, new int[0]).isSettled()).isTrue();
+        thenBrainIs(brain, true, true, true, false, false, false);
+        
+        brain.update(new int[] {4}, new int[0]);
+        thenBrainIs(brain, true, true, true, false, true, true);
+        
+        //
+        // inputs are not clamped: 3 is switched off again by 2
+        //
+        brain.update(new int[] {3}, new int[] {5});
+        thenBrainIs(brain, true, true, true, false, true, true);
+        
+        //
+        // potentials are computed again after changes done otherwise
+        //
+        brain.rest().activate(1);
+        brain.update(new int[0], new int[0]);
+        thenBrainIs(brain, true, true, true, false, false, false);
+        
+        brain.detractor(2, 5);
+        brain.update(new int[] {4}, new int[0]);
+        thenBrainIs(brain, true, true, true, false, true, false);
+    }
+    
+    @Test
+    public void update_gives_the_same_result_of_think() {
+        Random r = new Random(20200119);
+        
+        for (int n = 0; n < 50; ++n) {
+            int size = 5 + r.nextInt(200);
+            int resistance = 1 + r.nextInt(2);
+            Brain incremental = new Brain(size, resistance), full = new Brain(size, resistance);
+            for (int i = r.nextInt(4*size); i > 0; --i) {
+                int a = r.nextInt(size), b = r.nextInt(size);
+                if (r.nextInt(3) == 0) {
+                    incremental.detractor(a, b); full.detractor(a, b);
+                } else {
+                    incremental.promoter(a, b); full.promoter(a, b);
+                }
+            }
+            
+            for (int step = 0; step < 20; ++step) {
+                if (r.nextInt(5) == 0) {
+                    incremental.rest(); full.rest();
+                }
+                int[] on = r.ints(r.nextInt(3), 0, size).toArray();
+                int[] off = r.ints(r.nextInt(3), 0, size).toArray();
+                
+                full.activate(on);
+                for (int cell: off) {
+                    full.cells[cell].setActive(false);
+                }
+                
+                then(incremental.update(on, off, Budget.passes(100)).passes)
+                    .isEqualTo(full.think(Budget.passes(100)).passes);
+                then(incremental.snapshot()).containsExactly(full.snapshot());
+            }
+        }
+    }
+    
+    @Test
+    public void fluid_propagation() {
+        Brain brain = new Brain(10);
+        
+        then(brain.propagation(Propagation.FRONTIER)).isSameAs(brain);
+    }
+    
     @Test
     public void connect_cells_ok() {
         fail("connect_cells_ok to be implemented!");
@@ -234,7 +466,7 @@ public class BugFreeBrain {
         then(brain.cells).allMatch(new Predicate<BrainCell>() {
             @Override
             public boolean test(BrainCell c) {
-                return (c.active == false);
+                return (c.isActive() == false);
             }
         });
     }
@@ -1,6 +1,8 @@
 package com.github.stefanofornari.braincells;
 
+import static com.github.stefanofornari.braincells.Utils.array;
 import static com.github.stefanofornari.braincells.Utils.thenBrainIs;
+import java.util.Random;
 import java.util.function.Predicate;
 import static org.assertj.core.api.BDDAssertions.then;
 import org.junit.jupiter.api.AfterAll;
@@ -72,7 +74,7 @@ public class BugFreeBrainCellsLearning {
         //
         // we want cell 3 to be active
         //
-        then(brain.cells[3].active).isFalse(); // just to make sure...
+        then(brain.cells[3].isActive()).isFalse(); // just to make sure...
         
         //
         // kick off the learning
@@ -94,7 +96,7 @@ public class BugFreeBrainCellsLearning {
         //
         // we want cell 2 to be active
         //
-        then(brain.cells[2].active).isFalse(); // just to make sure...
+        then(brain.cells[2].isActive()).isFalse(); // just to make sure...
         
         //
         // kick off the learning
@@ -230,7 +232,7 @@ public class BugFreeBrainCellsLearning {
         // A cell shall be considered for connection only if it is not already
         // connected to 2*resistence cells
         //
-        Brain brain = createBrainAndThink(1, 2, 5);
+        Brain brain = createBrainWithResistanceAndThink(1, 2, 5);
         BrainTrainer trainer = new BrainTrainer(brain);
         
         brain.promoter(0, 2).promoter(2,3);
@@ -260,13 +262,13 @@ public class BugFreeBrainCellsLearning {
         // Activations:
         // 2 -> 9, 1 -> 5
         //
-        Brain brain = createBrainAndThink(1, 2);
+        Brain brain = createBrainWithResistanceAndThink(1, 2);
         BrainTrainer trainer = new BrainTrainer(brain);
         
         trainer.learn(new int[] {9}, new int[0]);
         
-        brain.cells[2].active = false;
-        brain.cells[1].active = true;
+        brain.cells[2].setActive(false);
+        brain.cells[1].setActive(true);
         
         brain.think(); trainer.learn(new int[] {5}, new int[0]);
         
@@ -296,7 +298,7 @@ public class BugFreeBrainCellsLearning {
         // Activations:
         // (1,2) -> 7, (4,5) -> 9
         //
-        Brain brain = createBrainAndThink(2, 1, 2);
+        Brain brain = createBrainWithResistanceAndThink(2, 1, 2);
         BrainTrainer trainer = new BrainTrainer(brain);
         
         trainer.learn(new int[] {7}, new int[0]);
@@ -338,7 +340,7 @@ public class BugFreeBrainCellsLearning {
         // Activations:
         // (1,2) -> 7, (4,5) -> 9, (1,2,4,5) -> (7,9,0)
         //
-        Brain brain = createBrainAndThink(2, 1, 2, 4, 5);
+        Brain brain = createBrainWithResistanceAndThink(2, 1, 2, 4, 5);
         BrainTrainer trainer = new BrainTrainer(brain);
         
         trainer.learn(new int[] {7}, new int[0]);
@@ -370,13 +372,91 @@ public class BugFreeBrainCellsLearning {
         );
     }
     
+    @Test
+    public void learn_connects_active_cells_with_capacity_in_index_order() {
+        Random r = new Random(20200105);
+        
+        for (int n = 0; n < 50; ++n) {
+            int size = 10 + r.nextInt(300);
+            int resistance = 1 + r.nextInt(3);
+            Brain brain = new Brain(size, resistance), expected = new Brain(size, resistance);
+            for (int i = r.nextInt(5); i > 0; --i) {
+                int cell = r.nextInt(size), cellResistance = 1 + r.nextInt(4);
+                brain.resistance(cell, cellResistance); expected.resistance(cell, cellResistance);
+            }
+            BrainTrainer trainer = new BrainTrainer(brain);
+            
+            for (int step = 0; step < 20; ++step) {
+                //
+                // some wiring done outside the trainer too
+                //
+                for (int i = r.nextInt(3); i > 0; --i) {
+                    int a = r.nextInt(size), b = r.nextInt(size);
+                    brain.promoter(a, b); expected.promoter(a, b);
+                }
+                
+                brain.rest(); expected.rest();
+                for (int i = 1 + r.nextInt(size/2); i > 0; --i) {
+                    int a = r.nextInt(size);
+                    brain.activate(a); expected.activate(a);
+                }
+                int[] ons = r.ints(1 + r.nextInt(5), 0, size).toArray();
+                int[] offs = r.ints(1 + r.nextInt(5), 0, size).toArray();
+                
+                trainer.learn(ons, offs);
+                learn(expected, ons, offs);
+                
+                for (int i = 0; i < size; ++i) {
+                    then(brain.cells[i].promoters).hasSameSizeAs(expected.cells[i].promoters);
+                    then(brain.cells[i].detractors).hasSameSizeAs(expected.cells[i].detractors);
+                }
+                then(array(brain.freeze().promoters)).containsExactly(array(expected.freeze().promoters));
+                then(array(brain.freeze().detractors)).containsExactly(array(expected.freeze().detractors));
+            }
+        }
+    }
+    
     // --------------------------------------------------------- Private methods
     
+    /**
+     * Learning by scanning all cells for each target, as a reference
+     */
+    private void learn(Brain brain, int[] ons, int[] offs) {
+        for (int cell: ons) {
+            if (!brain.cells[cell].isActive()) {
+                int missing = brain.resistance(cell);
+                for (BrainCell c: brain.cells) {
+                    if ((missing > 0) && (c.index != cell) && c.isActive() &&
+                        (c.promoters.size() < 2*brain.resistance(c.index)) &&
+                        !c.promoters.contains(brain.cells[cell])) {
+                        brain.promoter(c.index, cell); --missing;
+                    }
+                }
+            }
+        }
+        for (int cell: offs) {
+            if (brain.cells[cell].isActive()) {
+                int missing = brain.resistance(cell);
+                for (BrainCell c: brain.cells) {
+                    if ((missing > 0) && (c.index != cell) && c.isActive() &&
+                        (c.detractors.size() < 2*brain.resistance(c.index)) &&
+                        !c.detractors.contains(brain.cells[cell])) {
+                        brain.detractor(c.index, cell); --missing;
+                    }
+                }
+            }
+        }
+    }
+    
     private Brain createBrainAndThink(int ... activeCells) {
-        Brain brain = new Brain(10);
+        return createBrainWithResistanceAndThink(1, activeCells);
+    }
+    
+    private Brain createBrainWithResistanceAndThink(int resistance, int ... activeCells) {
+        Brain brain = new Brain(10, resistance);
         
         for (int i=0; i<activeCells.length; ++i) {
-            brain.cells[activeCells[i]].active = true;
+            brain.cells[activeCells[i]].setActive(true);
         }
         
         brain.think();
@@ -0,0 +1,168 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.array;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A brain can be written to a binary image and mapped back in memory: the
+ * topology of the mapped brain is the file itself, only the activation bits
+ * are loaded in the heap.
+ */
+public class BugFreeBrainImage {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void write_and_map_back() throws IOException {
+        Brain brain = new Brain(10, 2);
+        brain.promoter(0, 1).promoter(0, 4).promoter(4, 5).promoter(2, 5)
+             .detractor(1, 3).detractor(2, 4)
+             .resistance(4, 1)
+             .activate(0, 2, 3);
+
+        Path file = dir.resolve("brain.img");
+        BrainImage.write(brain, file);
+
+        BrainImage image = BrainImage.map(file);
+        Topology t = brain.freeze();
+
+        then(image.topology.size).isEqualTo(10);
+        then(array(image.topology.promoterOffsets)).containsExactly(array(t.promoterOffsets));
+        then(array(image.topology.promoters)).containsExactly(array(t.promoters));
+        then(array(image.topology.detractorOffsets)).containsExactly(array(t.detractorOffsets));
+        then(array(image.topology.detractors)).containsExactly(array(t.detractors));
+        then(image.activation.snapshot()).containsExactly(brain.snapshot());
+        then(image.topology.resistance(4)).isEqualTo(1);
+        then(image.topology.resistance(5)).isEqualTo(2);
+        then(image.brain().resistance(4)).isEqualTo(1);
+
+        //
+        // the topology is mapped, not loaded
+        //
+        then(image.topology.promoters.isDirect()).isTrue();
+        then(image.topology.promoters.isReadOnly()).isTrue();
+    }
+
+    @Test
+    public void mapped_brain_thinks_like_the_original() throws IOException {
+        Random r = new Random(20191215);
+
+        for (int n = 0; n < 20; ++n) {
+            int size = 1 + r.nextInt(300);
+            Brain brain = new Brain(size, 1 + r.nextInt(2));
+            brain.resistance(r.nextInt(size), 1 + r.nextInt(3));
+            for (int i = r.nextInt(8*size); i > 0; --i) {
+                int a = r.nextInt(size), b = r.nextInt(size);
+                if (r.nextInt(3) == 0) {
+                    brain.detractor(a, b);
+                } else {
+                    brain.promoter(a, b);
+                }
+            }
+            for (int i = 1 + r.nextInt(3); i > 0; --i) {
+                brain.activate(r.nextInt(size));
+            }
+
+            Path file = dir.resolve("brain" + n + ".img");
+            BrainImage.write(brain, file);
+            Brain mapped = BrainImage.map(file).brain();
+
+            then(mapped.think(Budget.passes(100)).passes)
+                .isEqualTo(brain.think(Budget.passes(100)).passes);
+            then(mapped.snapshot()).containsExactly(brain.snapshot());
+        }
+    }
+
+    @Test
+    public void mapped_brain_can_be_wired_further() throws IOException {
+        Brain brain = new Brain(4);
+        brain.promoter(0, 1);
+
+        Path file = dir.resolve("brain.img");
+        BrainImage.write(brain, file);
+
+        Brain mapped = BrainImage.map(file).brain();
+        then(mapped.cells[0].promoters).containsExactly(mapped.cells[1]);
+
+        mapped.promoter(0, 2).detractor(3, 1);
+        then(mapped.cells[0].promoters).containsExactly(mapped.cells[1], mapped.cells[2]);
+        then(array(mapped.freeze().promoters)).containsExactly(1, 2, 0, 0);
+        then(array(mapped.freeze().detractors)).containsExactly(3, 1);
+
+        //
+        // the file is not touched
+        //
+        then(array(BrainImage.map(file).topology.promoters)).containsExactly(1, 0);
+    }
+
+    @Test
+    public void thinking_on_the_image_does_not_change_the_file() throws IOException {
+        Brain brain = new Brain(3);
+        brain.promoter(0, 1).promoter(1, 2).activate(0);
+
+        Path file = dir.resolve("brain.img");
+        BrainImage.write(brain, file);
+
+        BrainImage image = BrainImage.map(file);
+        then(image.think(Propagation.FRONTIER, Budget.UNLIMITED).isSettled()).isTrue();
+        then(image.activation.count()).isEqualTo(3);
+
+        then(BrainImage.map(file).activation.count()).isEqualTo(1);
+    }
+
+    @Test
+    public void map_rejects_invalid_images() throws IOException {
+        Path file = dir.resolve("brain.img");
+
+        Files.write(file, new byte[] {1, 2, 3});
+        thenThrownBy(() -> BrainImage.map(file))
+            .isInstanceOf(IOException.class).hasMessageContaining("is not a brain image");
+
+        Files.write(file, new byte[64]);
+        thenThrownBy(() -> BrainImage.map(file))
+            .isInstanceOf(IOException.class).hasMessageContaining("is not a brain image");
+
+        BrainImage.write(new Brain(100).promoter(1, 2), file);
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 8));
+        thenThrownBy(() -> BrainImage.map(file))
+            .isInstanceOf(IOException.class).hasMessageContaining("is truncated");
+
+        content[4] = 4;
+        Files.write(file, content);
+        thenThrownBy(() -> BrainImage.map(file))
+            .isInstanceOf(IOException.class).hasMessageContaining("unsupported brain image version 4");
+    }
+
+    @Test
+    public void map_rejects_images_with_wrong_counts() throws IOException {
+        Path file = dir.resolve("brain.img");
+        BrainImage.write(new Brain(100).promoter(1, 2).detractor(3, 4), file);
+        byte[] content = Files.readAllBytes(file);
+
+        //
+        // negative size, negative counts and counts the offsets disagree with
+        //
+        for (int[] header: new int[][] {{2, -1}, {3, -1}, {4, -8}, {5, -1}, {3, 1}, {4, 0}, {6, 3}}) {
+            ByteBuffer image = ByteBuffer.wrap(content.clone()).order(ByteOrder.LITTLE_ENDIAN);
+            image.putInt(4 * header[0], header[1]);
+            Files.write(file, image.array());
+            thenThrownBy(() -> BrainImage.map(file))
+                .isInstanceOf(IOException.class).hasMessageContaining("is not a brain image");
+        }
+
+        Files.write(file, content);
+        then(BrainImage.map(file).topology.connections()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,207 @@
+package com.github.stefanofornari.braincells;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A BrainLoader wires a brain in bulk as connecting cells one by one would.
+ */
+public class BugFreeBrainLoader {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void loading_gives_the_same_topology_as_connecting() {
+        Random r = new Random(20200410);
+        for (int n = 0; n < 20; ++n) {
+            int size = 1 + r.nextInt(300);
+            Brain expected = new Brain(size), brain = new Brain(size);
+            if (n % 4 == 0) {
+                //
+                // loading on top of connections, some staged
+                //
+                wire(r, size, 2*size, expected, brain);
+                brain.freeze();
+                wire(r, size, 10, expected, brain);
+            }
+
+            int[][] promoters = edges(r, size, r.nextInt(5*size));
+            int[][] detractors = edges(r, size, r.nextInt(2*size));
+            for (int i = 0; i < promoters[0].length; ++i) {
+                expected.promoter(promoters[0][i], promoters[1][i]);
+            }
+            for (int i = 0; i < detractors[0].length; ++i) {
+                expected.detractor(detractors[0][i], detractors[1][i]);
+            }
+
+            long before = brain.freeze().connections();
+            BrainLoader loader = new BrainLoader(brain)
+                .promoters(promoters[0], promoters[1])
+                .detractors(detractors[0], detractors[1]);
+            then(loader.pending()).isEqualTo(promoters[0].length + detractors[0].length);
+            long added = loader.load();
+            then(loader.pending()).isZero();
+
+            then(added).isEqualTo(expected.freeze().connections() - before);
+            thenSame(brain.freeze(), expected.freeze());
+        }
+    }
+
+    @Test
+    public void loading_a_reordered_brain() {
+        Random r = new Random(20200411);
+        Brain expected = new Brain(200), brain = new Brain(200);
+        wire(r, 200, 600, expected, brain);
+        expected.reorder();
+        brain.reorder();
+
+        int[][] promoters = edges(r, 200, 300);
+        new BrainLoader(brain).promoters(promoters[0], promoters[1]).load();
+        for (int i = 0; i < promoters[0].length; ++i) {
+            expected.promoter(promoters[0][i], promoters[1][i]);
+        }
+
+        thenSame(brain.freeze(), expected.freeze());
+        for (int i = 0; i < 10; ++i) {
+            int cell = r.nextInt(200);
+            then(brain.rest().activate(cell).think().passes).isEqualTo(expected.rest().activate(cell).think().passes);
+            then(brain.snapshot()).containsExactly(expected.snapshot());
+        }
+    }
+
+    @Test
+    public void loading_changes_the_version_only_if_something_is_added() {
+        Brain brain = new Brain(5);
+        brain.promoter(0, 1);
+        long version = brain.version;
+
+        then(new BrainLoader(brain).promoter(1, 0).promoter(0, 1).load()).isZero();
+        then(brain.version).isEqualTo(version);
+
+        then(new BrainLoader(brain).detractor(0, 1).promoter(3, 3).load()).isEqualTo(3);
+        then(brain.version).isGreaterThan(version);
+        then(brain.freeze().detractors(0)).isEqualTo(1);
+        then(brain.freeze().promoters(3)).isEqualTo(1);
+    }
+
+    @Test
+    public void loading_csv_files() throws IOException {
+        Path file = dir.resolve("edges.csv");
+        Files.write(file, Arrays.asList(
+            "# a,b[,kind]", "0,1", "1, 2, +", "", "2,3,-", "3,4"
+        ));
+
+        Brain brain = new Brain(5), expected = new Brain(5);
+        expected.promoter(0, 1).promoter(1, 2).detractor(2, 3).promoter(3, 4);
+
+        new BrainLoader(brain).csv(file).load();
+        thenSame(brain.freeze(), expected.freeze());
+
+        Files.write(file, Arrays.asList("0,1", "1,2,x"));
+        thenThrownBy(() -> new BrainLoader(brain).csv(file))
+            .isInstanceOf(IOException.class)
+            .hasMessage(file + ":2: kind must be + or - (x) (1,2,x)");
+        Files.write(file, Arrays.asList("0,5"));
+        thenThrownBy(() -> new BrainLoader(brain).csv(file))
+            .isInstanceOf(IOException.class)
+            .hasMessage(file + ":1: cells must be between 0 and 4 (5) (0,5)");
+        Files.write(file, Arrays.asList("0"));
+        thenThrownBy(() -> new BrainLoader(brain).csv(file))
+            .isInstanceOf(IOException.class)
+            .hasMessage(file + ":1: not a connection (0)");
+    }
+
+    @Test
+    public void loading_binary_files() throws IOException {
+        Random r = new Random(20200412);
+        Path file = dir.resolve("edges.bin");
+        Brain brain = new Brain(1000), expected = new Brain(1000);
+
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            for (int i = 0; i < 5000; ++i) {
+                int a = r.nextInt(1000), b = r.nextInt(1000);
+                if (r.nextInt(3) == 0) {
+                    expected.detractor(a, b);
+                    out.writeInt(a); out.writeInt(~b);
+                } else {
+                    expected.promoter(a, b);
+                    out.writeInt(a); out.writeInt(b);
+                }
+            }
+        }
+
+        then(new BrainLoader(brain).binary(file).pending()).isEqualTo(5000);
+        new BrainLoader(brain).binary(file).load();
+        thenSame(brain.freeze(), expected.freeze());
+
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0); out.writeInt(1); out.writeInt(2);
+        }
+        thenThrownBy(() -> new BrainLoader(brain).binary(file))
+            .isInstanceOf(IOException.class)
+            .hasMessage(file + " is truncated");
+
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0); out.writeInt(1000);
+        }
+        thenThrownBy(() -> new BrainLoader(brain).binary(file))
+            .isInstanceOf(IOException.class)
+            .hasMessage(file + ": cells must be between 0 and 999 (1000)");
+    }
+
+    @Test
+    public void arguments_are_checked() {
+        BrainLoader loader = new BrainLoader(new Brain(3));
+
+        thenThrownBy(() -> loader.promoter(-1, 0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("cells must be between 0 and 2 (-1)");
+        thenThrownBy(() -> loader.detractors(new int[] {0, 1}, new int[] {2}))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("a and b must have the same length (2 and 1)");
+        then(loader.pending()).isZero();
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private void thenSame(Topology t, Topology expected) {
+        then(ints(t.promoterOffsets)).containsExactly(ints(expected.promoterOffsets));
+        then(ints(t.promoters)).containsExactly(ints(expected.promoters));
+        then(ints(t.detractorOffsets)).containsExactly(ints(expected.detractorOffsets));
+        then(ints(t.detractors)).containsExactly(ints(expected.detractors));
+    }
+
+    private int[] ints(IntBuffer buffer) {
+        int[] ints = new int[buffer.limit()];
+        buffer.duplicate().rewind().get(ints);
+        return ints;
+    }
+
+    private int[][] edges(Random r, int size, int count) {
+        return new int[][] {r.ints(count, 0, size).toArray(), r.ints(count, 0, size).toArray()};
+    }
+
+    private void wire(Random r, int size, int count, Brain... brains) {
+        for (int i = 0; i < count; ++i) {
+            int a = r.nextInt(size), b = r.nextInt(size);
+            boolean promoter = r.nextBoolean();
+            for (Brain brain: brains) {
+                if (promoter) {
+                    brain.promoter(a, b);
+                } else {
+                    brain.detractor(a, b);
+                }
+            }
+        }
+    }
+}
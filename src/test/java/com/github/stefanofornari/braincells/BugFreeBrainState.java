@@ -0,0 +1,130 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.random;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Many threads can think on the same brain at once, each with an activation
+ * state of its own (Brain.state()) sharing the frozen topology.
+ */
+public class BugFreeBrainState {
+
+    @Test
+    public void state_thinks_like_the_brain_without_touching_it() {
+        Brain brain = new Brain(5);
+        brain.promoter(0, 1).promoter(1, 2).detractor(2, 3).activate(4);
+
+        BrainState state = brain.state();
+        then(state.topology).isSameAs(brain.freeze());
+        then(state.snapshot()).containsExactly(0L);
+
+        Thought thought = state.activate(0).think();
+        then(thought.isSettled()).isTrue();
+        then(state.isActive(2)).isTrue();
+        then(state.isActive(3)).isFalse();
+        then(state.snapshot()).containsExactly(0b00111L);
+
+        then(brain.snapshot()).containsExactly(0b10000L);
+
+        then(state.rest().snapshot()).containsExactly(0L);
+        then(state.restore(brain.snapshot()).isActive(4)).isTrue();
+    }
+
+    @Test
+    public void state_keeps_the_topology_it_was_created_with() {
+        Brain brain = new Brain(3);
+        brain.promoter(0, 1);
+
+        BrainState state = brain.state();
+        brain.promoter(1, 2);
+
+        then(state.activate(0).think().isSettled()).isTrue();
+        then(state.snapshot()).containsExactly(0b011L);
+        BrainState fresh = brain.state();
+        fresh.activate(0).think();
+        then(fresh.snapshot()).containsExactly(0b111L);
+    }
+
+    @Test
+    public void state_updates_like_the_brain() {
+        Random r = new Random(20200301);
+
+        for (int n = 0; n < 20; ++n) {
+            Brain brain = random(r, 10 + r.nextInt(200), true);
+            BrainState state = brain.state();
+
+            for (int step = 0; step < 10; ++step) {
+                int[] on = r.ints(r.nextInt(3), 0, brain.size).toArray();
+                int[] off = r.ints(r.nextInt(3), 0, brain.size).toArray();
+                then(state.update(on, off, Budget.passes(100)).passes)
+                    .isEqualTo(brain.update(on, off, Budget.passes(100)).passes);
+                then(state.snapshot()).containsExactly(brain.snapshot());
+                if (step == 5) {
+                    state.rest();
+                    brain.rest();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void many_threads_think_on_the_same_brain() throws InterruptedException, ExecutionException {
+        Random r = new Random(20200302);
+        Brain brain = random(r, 500, true).reorder();
+
+        List<int[]> inputs = new ArrayList<>();
+        List<long[]> expected = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            int[] input = r.ints(1 + r.nextInt(5), 0, 500).toArray();
+            brain.rest().activate(input).think(Budget.passes(100));
+            inputs.add(input);
+            expected.add(brain.snapshot());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<long[]>>> results = new ArrayList<>();
+            for (int t = 0; t < 8; ++t) {
+                results.add(executor.submit(() -> {
+                    BrainState state = brain.state();
+                    List<long[]> snapshots = new ArrayList<>();
+                    for (int[] input: inputs) {
+                        state.rest().activate(input).think(Budget.passes(100));
+                        snapshots.add(state.snapshot());
+                    }
+                    return snapshots;
+                }));
+            }
+            for (Future<List<long[]>> result: results) {
+                List<long[]> snapshots = result.get();
+                for (int i = 0; i < inputs.size(); ++i) {
+                    then(snapshots.get(i)).containsExactly(expected.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void states_report_to_the_metrics_of_the_brain() {
+        BrainMetrics metrics = new BrainMetrics();
+        Brain brain = new Brain(3).metrics(metrics).propagation(Propagation.FRONTIER);
+        brain.promoter(0, 1);
+
+        BrainState state = brain.state();
+        state.activate(0).think();
+        state.update(new int[] {2}, new int[0]);
+
+        then(metrics.getThoughts()).isEqualTo(2);
+        then(metrics.getFlips()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.random;
+import java.util.Random;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.jupiter.api.Test;
+
+/**
+ * With Propagation.COMPILED a brain thinks on code generated for its
+ * topology, exactly as Propagation.SWEEP would.
+ */
+public class BugFreeCompiled {
+
+    @Test
+    public void compiled_think_gives_the_same_result_of_sweep() {
+        Random r = new Random(20200501);
+        for (int n = 0; n < 200; ++n) {
+            int size = 1 + r.nextInt((n % 10 == 0) ? 1500 : 200);
+            long seed = r.nextLong();
+            Brain sweep = random(new Random(seed), size, true);
+            Brain compiled = random(new Random(seed), size, true).propagation(Propagation.COMPILED);
+            for (int i = r.nextInt(size / 4 + 1); i > 0; --i) {
+                int cell = r.nextInt(size), resistance = 1 + r.nextInt(3);
+                sweep.resistance(cell, resistance); compiled.resistance(cell, resistance);
+            }
+            if (n % 3 == 0) {
+                sweep.reorder(); compiled.reorder();
+            }
+
+            for (int i = 0; i < 5; ++i) {
+                int[] input = r.ints(1 + r.nextInt(5), 0, size).toArray();
+                Thought expected = sweep.rest().activate(input).think(Budget.passes(50));
+                Thought thought = compiled.rest().activate(input).think(Budget.passes(50));
+
+                then(thought.outcome).isEqualTo(expected.outcome);
+                then(thought.passes).isEqualTo(expected.passes);
+                then(thought.period).isEqualTo(expected.period);
+                then(thought.flips).isEqualTo(expected.flips);
+                then(thought.edges).isEqualTo(expected.edges);
+                then(compiled.snapshot()).containsExactly(sweep.snapshot());
+            }
+            then(compiled.freeze().compiled == null).isEqualTo(Runtime.version().feature() < 15);
+        }
+    }
+
+    @Test
+    public void code_is_generated_once_per_topology() {
+        Brain brain = new Brain(100).propagation(Propagation.COMPILED);
+        brain.promoter(0, 1).promoter(1, 2).think();
+
+        Compiled code = brain.freeze().compiled;
+        if (Runtime.version().feature() < 15) {
+            //
+            // no hidden classes to unload
+            //
+            then(code).isNull();
+            then(brain.freeze().interpreted).isTrue();
+            return;
+        }
+        then(code).isNotNull();
+        brain.activate(0).think();
+        then(brain.freeze().compiled).isSameAs(code);
+
+        //
+        // hidden classes have a / in their name
+        //
+        then(code.getClass().getName()).contains("/");
+
+        brain.promoter(2, 3).activate(0).think();
+        then(brain.freeze().compiled).isNotSameAs(code);
+        then(brain.cell(3).isActive()).isTrue();
+
+        //
+        // states of the brain share the code
+        //
+        BrainState state = brain.state();
+        state.activate(1).think();
+        then(brain.freeze().compiled).isSameAs(state.topology.compiled);
+    }
+
+    @Test
+    public void large_topologies_are_interpreted() {
+        Brain brain = random(new Random(20200502), 500, true);
+
+        then(Compiled.compile(brain.freeze(), 100)).isNull();
+
+        //
+        // neighbours spread over too many words
+        //
+        Brain spread = new Brain(64 * (Compiled.GROUPS + 1));
+        for (int i = 0; i <= Compiled.GROUPS; ++i) {
+            spread.promoter(0, 64 * i);
+        }
+        then(Compiled.compile(spread.freeze(), Compiled.LIMIT)).isNull();
+
+        spread.propagation(Propagation.COMPILED).activate(0).think();
+        then(spread.freeze().compiled).isNull();
+        then(spread.freeze().interpreted).isTrue();
+        then(spread.cell(64 * Compiled.GROUPS).isActive()).isTrue();
+    }
+}
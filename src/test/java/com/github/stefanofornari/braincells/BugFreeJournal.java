@@ -0,0 +1,267 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.array;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A journal records what a brain learns, so that it can be recovered as it
+ * was after a crash, on top of the last compacted image.
+ */
+public class BugFreeJournal {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void recover_connections_and_resistances() throws IOException {
+        Random r = new Random(20200420);
+        Brain expected = new Brain(100, 2);
+
+        try (Journal journal = Journal.open(dir)) {
+            Brain brain = journal.recover(() -> new Brain(100, 2));
+            then(brain.journal).isSameAs(journal);
+
+            wire(r, 300, expected, brain);
+            new BrainLoader(brain).promoter(7, 8).detractor(9, 9).load();
+            expected.promoter(7, 8).detractor(9, 9);
+            brain.reorder();
+            wire(r, 100, expected, brain);
+
+            then(journal.entries()).isPositive();
+        }
+        then(dir.resolve("segment-1.log")).exists();
+
+        try (Journal journal = Journal.open(dir)) {
+            Brain brain = journal.recover(() -> new Brain(100, 2));
+            thenSame(brain, expected);
+            then(journal.entries()).isZero();
+        }
+        then(dir.resolve("segment-2.log")).exists();
+    }
+
+    @Test
+    public void torn_groups_are_ignored() throws IOException {
+        Brain expected = new Brain(10);
+        expected.promoter(0, 1).promoter(1, 2);
+
+        try (Journal journal = Journal.open(dir)) {
+            Brain brain = journal.recover(() -> new Brain(10));
+            brain.promoter(0, 1);
+            journal.commit();
+            brain.promoter(1, 2);
+        }
+
+        //
+        // a group cut short by a crash and one with a bad checksum
+        //
+        Path segment = dir.resolve("segment-1.log");
+        byte[] groups = Files.readAllBytes(segment);
+        then(groups).hasSize(2 * (4 + 9 + 4));
+        groups[4 + 9 + 4 + 5] ^= 1;
+        Files.write(segment, groups);
+        Files.write(segment, new byte[] {18, 0, 0, 0, 1, 3}, StandardOpenOption.APPEND);
+
+        try (Journal journal = Journal.open(dir)) {
+            Brain brain = journal.recover(() -> new Brain(10));
+            then(brain.freeze().promoters(0)).isEqualTo(1);
+            then(brain.freeze().promoters(2)).isZero();
+        }
+
+        groups[4 + 9 + 4 + 5] ^= 1;
+        Files.write(segment, groups, StandardOpenOption.TRUNCATE_EXISTING);
+        Files.write(segment, new byte[] {18, 0, 0, 0, 1, 3}, StandardOpenOption.APPEND);
+        try (Journal journal = Journal.open(dir)) {
+            then(journal.recover(() -> new Brain(10)).freeze().promoters(2)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void compaction_replaces_segments_with_an_image() throws IOException {
+        Random r = new Random(20200421);
+        Brain expected = new Brain(200, 1);
+
+        try (Journal journal = Journal.open(dir)) {
+            Brain brain = journal.recover(() -> new Brain(200, 1));
+            wire(r, 500, expected, brain);
+
+            journal.compact().join();
+            then(dir.resolve(Journal.IMAGE)).exists();
+            then(dir.resolve("segment-1.log")).doesNotExist();
+            then(dir.resolve("segment-2.log")).exists();
+
+            wire(r, 100, expected, brain);
+        }
+
+        try (Journal journal = Journal.open(dir)) {
+            Brain brain = journal.recover(() -> {
+                throw new AssertionError("the image must be used");
+            });
+            thenSame(brain, expected);
+
+            //
+            // compacting again on top of the mapped image
+            //
+            wire(r, 100, expected, brain);
+            journal.compact().join();
+        }
+        try (Journal journal = Journal.open(dir)) {
+            thenSame(journal.recover(() -> null), expected);
+        }
+        then(Files.list(dir).filter(f -> f.toString().endsWith(".log")).count()).isEqualTo(2);
+    }
+
+    @Test
+    public void overlapping_compactions_keep_all_changes() throws IOException {
+        Random r = new Random(20200422);
+        Brain expected = new Brain(200, 1);
+
+        try (Journal journal = Journal.open(dir)) {
+            Brain brain = journal.recover(() -> new Brain(200, 1));
+            List<CompletableFuture<Void>> compactions = new ArrayList<>();
+            for (int i = 0; i < 5; ++i) {
+                wire(r, 200, expected, brain);
+                compactions.add(journal.compact());
+            }
+            compactions.forEach(CompletableFuture::join);
+        }
+        then(dir.resolve("segment-5.log")).doesNotExist();
+
+        //
+        // a temporary image left by a crash
+        //
+        Files.write(dir.resolve(Journal.IMAGE + "-1.tmp"), new byte[] {1, 2, 3});
+        try (Journal journal = Journal.open(dir)) {
+            thenSame(journal.recover(() -> null), expected);
+        }
+        then(dir.resolve(Journal.IMAGE + "-1.tmp")).doesNotExist();
+    }
+
+    @Test
+    public void recover_pruned_connections() throws IOException {
+        Brain expected = new Brain(5);
+        expected.promoter(0, 1).promoter(1, 2).promoter(3, 4);
+
+        try (Journal journal = Journal.open(dir)) {
+            Brain brain = journal.recover(() -> new Brain(5));
+            brain.promoter(0, 1).promoter(1, 2).promoter(3, 4).detractor(4, 2);
+            brain.reorder();
+            try (Pruning pruning = new Pruning(brain)) {
+                brain.activate(0).think();
+                then(pruning.prune(Arrays.asList(Sample.parse("0 | 1 2 |"))).connections).isEqualTo(4);
+            }
+            brain.promoter(3, 4);
+        }
+
+        try (Journal journal = Journal.open(dir)) {
+            thenSame(journal.recover(() -> new Brain(5)), expected);
+        }
+    }
+
+    @Test
+    public void pending_entries_are_written_in_groups() throws IOException {
+        try (Journal journal = Journal.open(dir).interval(Duration.ofHours(1)).capacity(2 * 9)) {
+            Brain brain = journal.recover(() -> new Brain(10));
+            brain.promoter(0, 1).promoter(1, 2).promoter(2, 3).promoter(2, 3);
+            then(journal.entries()).isEqualTo(3);
+            then(journal.groups()).isEqualTo(1);
+            then(journal.syncs()).isZero();
+
+            journal.commit();
+            then(journal.groups()).isEqualTo(2);
+            then(journal.syncs()).isEqualTo(1);
+        }
+
+        try (Journal journal = Journal.open(dir).interval(Duration.ZERO)) {
+            Brain brain = journal.recover(() -> new Brain(10));
+            brain.detractor(0, 1).resistance(3, 2);
+            then(journal.groups()).isEqualTo(2);
+            then(journal.syncs()).isEqualTo(2);
+        }
+
+        try (Journal journal = Journal.open(dir).interval(Duration.ofMillis(1))) {
+            Brain brain = journal.recover(() -> new Brain(10));
+            brain.promoter(5, 6);
+            long start = System.currentTimeMillis();
+            while (journal.syncs() == 0 && System.currentTimeMillis() - start < 5000) {
+                Thread.yield();
+            }
+            then(journal.syncs()).isEqualTo(1);
+            then(brain.resistance(3)).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void arguments_are_checked() throws IOException {
+        Journal journal = Journal.open(dir);
+
+        thenThrownBy(() -> journal.interval(Duration.ofMillis(-1)))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("interval must not be negative (PT-0.001S)");
+        thenThrownBy(() -> journal.capacity(8))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("capacity must be at least 9 (8)");
+        thenThrownBy(() -> journal.commit())
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("journal not recovered yet");
+
+        journal.recover(() -> new Brain(3));
+        thenThrownBy(() -> journal.recover(() -> new Brain(3)))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("journal already recovered");
+        journal.close();
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private void thenSame(Brain brain, Brain expected) {
+        Topology t = brain.freeze(), e = expected.freeze();
+        then(t.connections()).isEqualTo(e.connections());
+        for (int cell = 0; cell < brain.size; ++cell) {
+            then(brain.resistance(cell)).isEqualTo(expected.resistance(cell));
+        }
+
+        //
+        // the brains may keep cells in different orders
+        //
+        Random r = new Random(brain.size);
+        for (int i = 0; i < 10; ++i) {
+            int[] input = r.ints(3, 0, brain.size).toArray();
+            then(brain.rest().activate(input).think().passes)
+                .isEqualTo(expected.rest().activate(input).think().passes);
+            then(brain.snapshot()).containsExactly(expected.snapshot());
+        }
+        if (t.order.isIdentity() && e.order.isIdentity()) {
+            then(array(t.promoters)).containsExactly(array(e.promoters));
+            then(array(t.detractors)).containsExactly(array(e.detractors));
+        }
+    }
+
+    private void wire(Random r, int count, Brain... brains) {
+        for (int i = 0; i < count; ++i) {
+            int a = r.nextInt(brains[0].size), b = r.nextInt(brains[0].size);
+            int kind = r.nextInt(10);
+            for (Brain brain: brains) {
+                if (kind == 0) {
+                    brain.resistance(a, 1 + b % 3);
+                } else if (kind < 4) {
+                    brain.detractor(a, b);
+                } else {
+                    brain.promoter(a, b);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.stefanofornari.braincells;
+
+import java.nio.IntBuffer;
+import java.util.Random;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.jupiter.api.Test;
+
+/**
+ * All kernels count the active neighbours of a cell the same; the vector one
+ * is used when the JVM has jdk.incubator.vector (as the tests, with profile
+ * vector), the scalar one otherwise.
+ */
+public class BugFreeKernel {
+
+    @Test
+    public void kernels_count_the_same() {
+        Random r = new Random(20200320);
+        Kernel vector = Kernel.load("vector");
+
+        for (int n = 0; n < 200; ++n) {
+            int size = 1 + r.nextInt(1000);
+            Activation activation = new Activation(size);
+            for (int i = r.nextInt(size); i > 0; --i) {
+                activation.set(r.nextInt(size));
+            }
+            if (n % 10 == 0) {
+                //
+                // stale words must read as 0
+                //
+                activation.clear();
+                activation.set(r.nextInt(size));
+            }
+
+            int[] cells = r.ints(r.nextInt(100), 0, size).sorted().toArray();
+            IntBuffer neighbours = IntBuffer.wrap(cells);
+            int from = cells.length == 0 ? 0 : r.nextInt(cells.length), to = cells.length;
+
+            then(vector.count(neighbours, from, to, activation))
+                .isEqualTo(Kernel.SCALAR.count(neighbours, from, to, activation));
+        }
+    }
+
+    @Test
+    public void off_heap_lists_are_counted_too() {
+        Activation activation = new Activation(100);
+        activation.set(0); activation.set(70); activation.set(99);
+
+        IntBuffer neighbours = Memory.of(Storage.OFF_HEAP).ints(20);
+        for (int k = 0; k < 20; ++k) {
+            neighbours.put(k, 5*k);
+        }
+
+        then(Kernel.load("vector").count(neighbours, 0, 20, activation)).isEqualTo(2);
+        then(Kernel.SCALAR.count(neighbours, 0, 20, activation)).isEqualTo(2);
+    }
+
+    @Test
+    public void scalar_kernel_is_used_when_asked_or_unknown() {
+        then(Kernel.load("scalar")).isSameAs(Kernel.SCALAR);
+        then(Kernel.load("gpu")).isSameAs(Kernel.SCALAR);
+        then(Kernel.load("vector").toString()).isEqualTo(Kernel.DEFAULT.toString());
+    }
+}
@@ -0,0 +1,153 @@
+package com.github.stefanofornari.braincells;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A brain reports what it does while thinking and learning to its Metrics;
+ * BrainMetrics adds the reports up and exposes them through JMX.
+ */
+public class BugFreeMetrics {
+
+    @Test
+    public void thought_counts_flips_and_edges() {
+        //
+        // 0 - 1 - 2: 4 directed connections
+        //
+        Brain brain = new Brain(3);
+        brain.promoter(0, 1).promoter(1, 2);
+
+        Thought thought = brain.activate(0).think();
+        then(thought.passes).isEqualTo(1);
+        then(thought.flips).isEqualTo(2);
+        then(thought.edges).isEqualTo(2 * 4); // a pass flipping 1 and 2, one changing nothing
+        then(thought.nanos).isPositive();
+
+        thought = brain.propagation(Propagation.FRONTIER).rest().activate(0).think();
+        then(thought.passes).isEqualTo(1);
+        then(thought.flips).isEqualTo(2);
+        then(thought.edges).isEqualTo(1 + 2 + 1); // spreading 0, 1 and 2
+
+        thought = brain.propagation(Propagation.PARALLEL).rest().activate(0).think();
+        then(thought.passes).isEqualTo(2);
+        then(thought.flips).isEqualTo(2);
+        then(thought.edges).isEqualTo(3 * 4);
+    }
+
+    @Test
+    public void frontier_goes_through_fewer_edges() {
+        Brain brain = new Brain(1000);
+        for (int i = 0; i < 999; ++i) {
+            brain.promoter(i, i+1);
+        }
+        brain.detractor(10, 20);
+
+        Thought sweep = brain.activate(500).think();
+        Thought frontier = brain.propagation(Propagation.FRONTIER).rest().activate(500).think();
+        then(frontier.flips).isEqualTo(sweep.flips);
+        then(frontier.edges).isLessThan(sweep.edges / 100);
+
+        Thought update = brain.rest().update(new int[] {500}, new int[0]);
+        then(update.flips).isEqualTo(sweep.flips);
+        then(update.edges).isEqualTo(frontier.edges);
+    }
+
+    @Test
+    public void brain_reports_thoughts_and_learns() {
+        List<Thought> thoughts = new ArrayList<>();
+        List<Integer> learns = new ArrayList<>();
+        Metrics metrics = new Metrics() {
+            @Override
+            public void thought(Thought thought) {
+                thoughts.add(thought);
+            }
+            @Override
+            public void learned(int connections) {
+                learns.add(connections);
+            }
+        };
+
+        Brain brain = new Brain(10, 2).metrics(metrics);
+        BrainTrainer trainer = new BrainTrainer(brain);
+
+        Thought thought = brain.activate(1, 2, 3).think();
+        then(thoughts).containsExactly(thought);
+
+        trainer.learn(new int[] {7}, new int[] {8});
+        then(learns).containsExactly(2);
+
+        brain.update(new int[] {4}, new int[0]);
+        then(thoughts).hasSize(2);
+
+        new Training(brain).batch(2).epoch(List.of(Sample.parse("1 2 | 7 |"), Sample.parse("4 | 9 |")).iterator());
+        then(thoughts).hasSize(4);
+        then(learns).hasSize(3);
+    }
+
+    @Test
+    public void brain_metrics_add_up_reports() {
+        BrainMetrics metrics = new BrainMetrics();
+        then(metrics.getThoughts()).isZero();
+        then(metrics.getPassesPerThought()).isZero();
+        then(metrics.getThinkTimeMillis(99)).isZero();
+
+        metrics.thought(new Thought(Thought.Outcome.SETTLED, 2, 0, 10, 100, 1500));
+        metrics.thought(new Thought(Thought.Outcome.OSCILLATING, 6, 2, 20, 300, 5000));
+        metrics.thought(new Thought(Thought.Outcome.EXHAUSTED, 4, 0, 0, 200, 500));
+        metrics.learned(3);
+        metrics.learned(0);
+
+        then(metrics.getThoughts()).isEqualTo(3);
+        then(metrics.getSettled()).isEqualTo(1);
+        then(metrics.getOscillating()).isEqualTo(1);
+        then(metrics.getExhausted()).isEqualTo(1);
+        then(metrics.getPasses()).isEqualTo(12);
+        then(metrics.getMaxPasses()).isEqualTo(6);
+        then(metrics.getPassesPerThought()).isEqualTo(4.0);
+        then(metrics.getFlips()).isEqualTo(30);
+        then(metrics.getFlipsPerPass()).isEqualTo(2.5);
+        then(metrics.getEdges()).isEqualTo(600);
+        then(metrics.getThinkTimes()).containsExactly(1, 1, 0, 1);
+        then(metrics.getThinkTimeMillis(50)).isEqualTo(0.002);
+        then(metrics.getThinkTimeMillis(100)).isEqualTo(0.008);
+        then(metrics.getLearns()).isEqualTo(2);
+        then(metrics.getConnections()).isEqualTo(3);
+        then(metrics.getConnectionsPerLearn()).isEqualTo(1.5);
+        then(metrics.toString()).startsWith("3 thoughts (1 settled, 1 oscillating, 1 exhausted)");
+
+        metrics.reset();
+        then(metrics.getThoughts()).isZero();
+        then(metrics.getMaxPasses()).isZero();
+        then(metrics.getThinkTimes()).containsExactly(0);
+        then(metrics.getLearns()).isZero();
+    }
+
+    @Test
+    public void brain_metrics_are_exported_through_jmx() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.github.stefanofornari.braincells:type=Brain,name=\"test\"");
+
+        BrainMetrics metrics = new BrainMetrics().register("test");
+        try {
+            new Brain(3).metrics(metrics).promoter(0, 1).activate(0).think();
+
+            then(server.getAttribute(name, "Thoughts")).isEqualTo(1L);
+            then(server.getAttribute(name, "Flips")).isEqualTo(1L);
+            then(server.getAttribute(name, "FlipsPerPass")).isEqualTo(1.0);
+
+            thenThrownBy(() -> new BrainMetrics().register("test"))
+                .isInstanceOf(JMException.class);
+        } finally {
+            metrics.unregister();
+        }
+        then(server.isRegistered(name)).isFalse();
+        metrics.unregister();
+    }
+}
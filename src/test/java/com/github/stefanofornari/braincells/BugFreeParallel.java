@@ -0,0 +1,121 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.thenBrainIs;
+import java.util.Arrays;
+import java.util.Random;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.jupiter.api.Test;
+
+/**
+ * With Propagation.PARALLEL thinking happens in synchronous rounds: all cells
+ * are updated at once from the state of the previous round.
+ */
+public class BugFreeParallel {
+
+    @Test
+    public void think_stops_when_two_states_alternate() {
+        //
+        // 1 and 2 inhibit themselves and promote each other: in synchronous
+        // rounds they keep swapping, while a sweep activates both
+        //
+        Brain parallel = new Brain(3).propagation(Propagation.PARALLEL);
+        Brain sweep = new Brain(3);
+        for (Brain brain: new Brain[] {parallel, sweep}) {
+            brain.detractor(1, 1).detractor(2, 2).promoter(1, 2).activate(2).think();
+        }
+
+        thenBrainIs(parallel, false, true, false);
+        then(parallel.isSettled()).isFalse();
+
+        thenBrainIs(sweep, false, true, true);
+        then(sweep.isSettled()).isTrue();
+        then(parallel.restore(sweep.snapshot()).isSettled()).isTrue();
+    }
+
+    @Test
+    public void think_gives_the_same_result_of_synchronous_rounds() {
+        Random r = new Random(20191222);
+
+        for (int n = 0; n < 30; ++n) {
+            //
+            // large enough to be split in many tasks
+            //
+            int size = 100 + r.nextInt(20000);
+            Brain brain = new Brain(size).propagation(Propagation.PARALLEL);
+            for (int i = r.nextInt(3*size); i > 0; --i) {
+                if (r.nextInt(3) == 0) {
+                    brain.detractor(r.nextInt(size), r.nextInt(size));
+                } else {
+                    brain.promoter(r.nextInt(size), r.nextInt(size));
+                }
+            }
+            for (int i = 1 + r.nextInt(size/10); i > 0; --i) {
+                brain.activate(r.nextInt(size));
+            }
+
+            boolean[] expected = rounds(brain);
+
+            brain.think();
+            for (int i = 0; i < size; ++i) {
+                then(brain.cells[i].isActive()).isEqualTo(expected[i]);
+            }
+        }
+    }
+
+    @Test
+    public void is_settled_right_after_rest() {
+        //
+        // rest() leaves the words of the activation stale, to be cleared by
+        // whoever reads them first: not the rounds, at once
+        //
+        Random r = new Random(20191223);
+        for (int n = 0; n < 10; ++n) {
+            int size = 20000;
+            Brain parallel = new Brain(size).propagation(Propagation.PARALLEL);
+            Brain sweep = new Brain(size);
+            for (int i = 20 * size; i > 0; --i) {
+                int a = r.nextInt(size), b = r.nextInt(size);
+                parallel.promoter(a, b); sweep.promoter(a, b);
+            }
+            parallel.activate(r.ints(size / 2, 0, size).toArray()).think();
+
+            int[] input = r.ints(1 + r.nextInt(3), 0, size).toArray();
+            then(parallel.rest().activate(input).isSettled())
+                .isEqualTo(sweep.rest().activate(input).isSettled());
+            then(parallel.rest().isSettled()).isTrue();
+        }
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    /**
+     * Synchronous rounds over the cells API until the state does not change
+     * or alternates between two states
+     */
+    private boolean[] rounds(Brain brain) {
+        boolean[] previous = null, current = new boolean[brain.cells.length];
+        for (int i = 0; i < current.length; ++i) {
+            current[i] = brain.cells[i].isActive();
+        }
+
+        while (true) {
+            boolean[] next = current.clone();
+            for (BrainCell cell: brain.cells) {
+                int potential = 0;
+                for (BrainCell pair: cell.promoters) {
+                    potential += current[pair.index] ? 1 : 0;
+                }
+                for (BrainCell pair: cell.detractors) {
+                    potential -= current[pair.index] ? 1 : 0;
+                }
+                if (potential != 0) {
+                    next[cell.index] = potential > 0;
+                }
+            }
+            if (Arrays.equals(next, current) || Arrays.equals(next, previous)) {
+                return next;
+            }
+            previous = current; current = next;
+        }
+    }
+}
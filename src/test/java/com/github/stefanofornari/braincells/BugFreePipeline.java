@@ -0,0 +1,188 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A Pipeline thinks input patterns asynchronously in micro-batches, with a
+ * bounded queue slowing producers down when it can not keep up.
+ */
+public class BugFreePipeline {
+
+    @Test
+    public void pipeline_thinks_like_the_brain() throws InterruptedException, ExecutionException {
+        Random r = new Random(20200315);
+        Brain brain = new Brain(300, 2);
+        for (int i = 0; i < 1200; ++i) {
+            int a = r.nextInt(300), b = r.nextInt(300);
+            if (r.nextInt(3) == 0) {
+                brain.detractor(a, b);
+            } else {
+                brain.promoter(a, b);
+            }
+        }
+        brain.reorder();
+
+        int[][] inputs = new int[500][];
+        for (int i = 0; i < inputs.length; ++i) {
+            inputs[i] = r.ints(1 + r.nextInt(5), 0, 300).toArray();
+        }
+        long[][] expected = brain.thinkBatch(inputs, Budget.passes(100));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (Pipeline pipeline = new Pipeline(brain, 50).parallelism(4).executor(executor).budget(Budget.passes(100))) {
+            List<CompletableFuture<long[]>> results = new ArrayList<>();
+            for (int[] input: inputs) {
+                results.add(pipeline.submit(input));
+            }
+            for (int i = 0; i < inputs.length; ++i) {
+                then(results.get(i).get()).containsExactly(expected[i]);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void waiting_patterns_are_thought_in_batches() throws InterruptedException {
+        Brain brain = new Brain(3);
+        brain.promoter(0, 1);
+
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        Pipeline pipeline = new Pipeline(brain, 100).batch(64).executor(tasks::add);
+
+        List<CompletableFuture<long[]>> results = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            results.add(pipeline.submit(i % 3));
+        }
+        then(tasks).hasSize(1);
+        then(pipeline.pending()).isEqualTo(100);
+        then(results.get(0)).isNotDone();
+
+        tasks.poll().run();
+        then(tasks).isEmpty();
+        then(pipeline.pending()).isZero();
+        then(pipeline.batches()).isEqualTo(2);
+        long[][] expected = brain.thinkBatch(new int[][] {{0}, {1}, {2}});
+        for (int i = 0; i < 100; ++i) {
+            then(results.get(i).join()).containsExactly(expected[i % 3]);
+        }
+
+        pipeline.submit(2);
+        then(tasks).hasSize(1);
+    }
+
+    @Test
+    public void producers_wait_when_the_queue_is_full() throws InterruptedException {
+        Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        Pipeline pipeline = new Pipeline(new Brain(2), 2).executor(tasks::add);
+
+        then(pipeline.offer(new int[] {0}, 0, TimeUnit.MILLISECONDS)).isNotDone();
+        then(pipeline.offer(new int[] {1}, 0, TimeUnit.MILLISECONDS)).isNotDone();
+        CompletableFuture<long[]> late = pipeline.offer(new int[] {0}, 10, TimeUnit.MILLISECONDS);
+        thenThrownBy(late::join)
+            .hasCauseInstanceOf(TimeoutException.class)
+            .hasMessageContaining("queue still full after 10 milliseconds");
+        then(pipeline.pending()).isEqualTo(2);
+
+        CompletableFuture<CompletableFuture<long[]>> blocked = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pipeline.submit(1);
+            } catch (InterruptedException x) {
+                throw new RuntimeException(x);
+            }
+        });
+        Thread.sleep(50);
+        then(blocked).isNotDone();
+
+        //
+        // the waiting pattern gets in as soon as there is room; whichever
+        // drain picks it up, it is thought once all tasks ran
+        //
+        tasks.poll().run();
+        CompletableFuture<long[]> result = blocked.join();
+        for (Runnable task; (task = tasks.poll()) != null;) {
+            task.run();
+        }
+        then(result.join()).containsExactly(0b10L);
+        then(pipeline.pending()).isZero();
+    }
+
+    @Test
+    public void errors_are_delivered_to_the_patterns_of_the_batch() throws InterruptedException {
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        Pipeline pipeline = new Pipeline(new Brain(2), 10).executor(tasks::add);
+
+        CompletableFuture<long[]> good = pipeline.submit(0), bad = pipeline.submit(5);
+        tasks.poll().run();
+
+        then(good).isCompletedExceptionally();
+        then(bad).isCompletedExceptionally();
+        then(pipeline.batches()).isEqualTo(1);
+    }
+
+    @Test
+    public void patterns_rejected_by_the_executor_are_failed() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        Pipeline pipeline = new Pipeline(new Brain(2), 10).executor(executor);
+
+        thenThrownBy(pipeline.submit(0)::join)
+            .hasCauseInstanceOf(RejectedExecutionException.class);
+        thenThrownBy(pipeline.offer(new int[] {1}, 0, TimeUnit.MILLISECONDS)::join)
+            .hasCauseInstanceOf(RejectedExecutionException.class);
+        then(pipeline.pending()).isZero();
+
+        //
+        // the pipeline is still usable with an executor that takes batches
+        //
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        CompletableFuture<long[]> result = pipeline.executor(tasks::add).submit(1);
+        tasks.poll().run();
+        then(result.join()).containsExactly(0b10L);
+    }
+
+    @Test
+    public void closed_pipeline_does_not_accept_patterns() throws InterruptedException {
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        Pipeline pipeline = new Pipeline(new Brain(2), 10).executor(tasks::add);
+
+        CompletableFuture<long[]> result = pipeline.submit(0);
+        pipeline.close();
+        thenThrownBy(() -> pipeline.submit(1))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("pipeline is closed");
+
+        tasks.poll().run();
+        then(result.join()).containsExactly(0b01L);
+    }
+
+    @Test
+    public void arguments_are_checked() {
+        Brain brain = new Brain(1);
+
+        thenThrownBy(() -> new Pipeline(brain, 0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("capacity must be greater than 0 (0)");
+        thenThrownBy(() -> new Pipeline(brain, 1).batch(0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("batch size must be greater than 0 (0)");
+        thenThrownBy(() -> new Pipeline(brain, 1).parallelism(-1))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("parallelism must be greater than 0 (-1)");
+    }
+}
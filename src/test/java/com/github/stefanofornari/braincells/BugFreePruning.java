@@ -0,0 +1,177 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A pruning removes the connections that never contributed to a flip while
+ * the brain was thinking, and those that cancel out, as long as the brain
+ * keeps getting held-out samples right.
+ */
+public class BugFreePruning {
+
+    @Test
+    public void prune_connections_never_used() {
+        Brain brain = new Brain(5);
+        brain.promoter(0, 1).promoter(1, 2).promoter(3, 4).detractor(4, 2);
+
+        try (Pruning pruning = new Pruning(brain)) {
+            brain.activate(0).think();
+            then(pruning.counted()).isEqualTo(1);
+
+            Pruned pruned = pruning.prune(samples("0 | 1 2 | 3 4"));
+            then(pruned.connections).isEqualTo(4);
+            then(pruned.before).isEqualTo(1.0);
+            then(pruned.after).isEqualTo(1.0);
+            then(pruned.rolledBack).isFalse();
+            then(pruned.toString()).isEqualTo("4 connections pruned, 100.00% -> 100.00% accuracy");
+        }
+
+        Topology t = brain.freeze();
+        then(t.connections()).isEqualTo(4);
+        then(t.promoters(1)).isEqualTo(2);
+        then(t.promoters(3)).isZero();
+        then(t.detractors(2)).isZero();
+
+        //
+        // the activation state is left as it was
+        //
+        then(brain.snapshot()).containsExactly(0b111L);
+    }
+
+    @Test
+    public void prune_promoters_and_detractors_cancelling_out() {
+        Brain brain = new Brain(3);
+        brain.promoter(0, 2).promoter(1, 2).detractor(1, 2);
+
+        try (Pruning pruning = new Pruning(brain)) {
+            brain.activate(0, 1).think();
+
+            Pruned pruned = pruning.prune(samples("0 1 | 2 |"));
+            then(pruned.connections).isEqualTo(4);
+            then(pruned.rolledBack).isFalse();
+        }
+        then(brain.freeze().promoters(2)).isEqualTo(1);
+        then(brain.freeze().detractors(2)).isZero();
+    }
+
+    @Test
+    public void prune_rolls_back_when_accuracy_drops() {
+        //
+        // the detractor never flips 2, but keeps it off when 0 and 1 are on
+        //
+        Brain brain = new Brain(3);
+        brain.promoter(0, 2).detractor(1, 2);
+
+        try (Pruning pruning = new Pruning(brain)) {
+            brain.activate(0).think();
+            brain.rest().activate(0, 1).think();
+
+            Iterable<Sample> validation = samples("0 | 2 |", "0 1 | | 2");
+            Pruned pruned = pruning.prune(validation);
+            then(pruned.connections).isEqualTo(2);
+            then(pruned.before).isEqualTo(1.0);
+            then(pruned.after).isEqualTo(0.5);
+            then(pruned.rolledBack).isTrue();
+            then(brain.freeze().detractors(2)).isEqualTo(1);
+
+            //
+            // counters survive the roll back: the promoter is still used
+            //
+            pruned = pruning.tolerance(0.5).prune(validation);
+            then(pruned.connections).isEqualTo(2);
+            then(pruned.rolledBack).isFalse();
+            then(brain.freeze().detractors(2)).isZero();
+            then(brain.freeze().promoters(2)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void counted_thinks_end_as_the_others() {
+        Random r = new Random(20200601);
+        for (Propagation propagation: Propagation.values()) {
+            for (int n = 0; n < 20; ++n) {
+                int size = 10 + r.nextInt(200);
+                long seed = r.nextLong();
+                Brain brain = random(new Random(seed), size, true).propagation(propagation);
+                Brain counted = random(new Random(seed), size, true).propagation(propagation);
+                try (Pruning pruning = new Pruning(counted)) {
+                    for (int i = 0; i < 5; ++i) {
+                        int[] input = r.ints(1 + r.nextInt(5), 0, size).toArray();
+                        Thought expected = brain.rest().activate(input).think(Budget.passes(50));
+                        Thought thought = counted.rest().activate(input).think(Budget.passes(50));
+
+                        then(thought.outcome).isEqualTo(expected.outcome);
+                        then(thought.passes).isEqualTo(expected.passes);
+                        then(thought.flips).isEqualTo(expected.flips);
+                        then(counted.snapshot()).containsExactly(brain.snapshot());
+                    }
+                    then(pruning.counted()).isEqualTo(5);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void prune_a_trained_brain() {
+        Random r = new Random(20200602);
+        Brain brain = new Brain(300, 2);
+        List<Sample> training = new ArrayList<>(), validation = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            Sample sample = new Sample(
+                r.ints(8, 0, 100).toArray(), r.ints(2, 100, 200).toArray(), r.ints(2, 200, 300).toArray()
+            );
+            ((i % 4 == 0) ? validation : training).add(sample);
+        }
+
+        try (Pruning pruning = new Pruning(brain).every(2)) {
+            new Training(brain).batch(16).budget(Budget.passes(20)).train(training, 3);
+            then(pruning.counted()).isPositive();
+
+            //
+            // training goes on after pruning, counters are carried over
+            //
+            int connections = brain.freeze().connections();
+            Pruned pruned = pruning.tolerance(0.05).budget(Budget.passes(20)).prune(validation);
+            if (pruned.rolledBack) {
+                then(brain.freeze().connections()).isEqualTo(connections);
+                then(pruned.after).isLessThan(pruned.before - 0.05);
+            } else {
+                then(brain.freeze().connections()).isEqualTo(connections - pruned.connections);
+                then(pruned.after).isGreaterThanOrEqualTo(pruned.before - 0.05);
+            }
+            new Training(brain).batch(16).budget(Budget.passes(20)).train(training, 1);
+            pruning.prune(validation);
+        }
+        then(brain.usage).isNull();
+    }
+
+    @Test
+    public void arguments_are_checked() {
+        Pruning pruning = new Pruning(new Brain(3));
+
+        thenThrownBy(() -> pruning.every(0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("thinks must be greater than 0 (0)");
+        thenThrownBy(() -> pruning.threshold(0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("uses must be greater than 0 (0)");
+        thenThrownBy(() -> pruning.tolerance(1.5))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("tolerance must be between 0 and 1 (1.5)");
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private Iterable<Sample> samples(String... lines) {
+        List<Sample> samples = new ArrayList<>();
+        Arrays.stream(lines).forEach(line -> samples.add(Sample.parse(line)));
+        return samples;
+    }
+}
@@ -0,0 +1,257 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.random;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A brain can renumber internally its cells so that connected cells are kept
+ * close to each other (Brain.reorder()); cells keep their index. Thinking
+ * visits the cells in the new order, so only Propagation.PARALLEL gives
+ * exactly the same results as before.
+ */
+public class BugFreeReordering {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void connected_cells_are_kept_close() {
+        //
+        // a chain 0 - 1 - ... - 99 with scrambled indices
+        //
+        Random r = new Random(20200202);
+        int[] chain = r.ints(0, 100).distinct().limit(100).toArray();
+
+        Brain brain = new Brain(100);
+        for (int i = 1; i < 100; ++i) {
+            brain.promoter(chain[i-1], chain[i]);
+        }
+        then(bandwidth(brain.freeze())).isGreaterThan(10);
+
+        brain.reorder();
+        then(bandwidth(brain.freeze())).isEqualTo(1);
+
+        for (int i = 1; i < 100; ++i) {
+            then(brain.cells[chain[i]].promoters).contains(brain.cells[chain[i-1]]);
+        }
+        then(brain.cells[chain[0]].promoters).containsExactly(brain.cells[chain[1]]);
+    }
+
+    @Test
+    public void reordered_brain_keeps_the_index_of_its_cells() {
+        Brain brain = new Brain(6, 2);
+        brain.promoter(0, 5).promoter(5, 2).detractor(2, 4).promoter(4, 1).promoter(1, 3)
+             .resistance(5, 1)
+             .activate(0, 3);
+        long[] snapshot = brain.snapshot();
+
+        brain.reorder();
+
+        then(brain.snapshot()).containsExactly(snapshot);
+        then(brain.cells[0].isActive()).isTrue();
+        then(brain.cells[5].isActive()).isFalse();
+        then(brain.resistance(5)).isEqualTo(1);
+        then(brain.resistance(0)).isEqualTo(2);
+        then(brain.cells[5].promoters).containsExactlyInAnyOrder(brain.cells[0], brain.cells[2]);
+        then(brain.cells[2].detractors).containsExactly(brain.cells[4]);
+
+        brain.promoter(5, 3).activate(5);
+        then(brain.cells[3].promoters).containsExactlyInAnyOrder(brain.cells[1], brain.cells[5]);
+        then(brain.cells[5].isActive()).isTrue();
+
+        brain.rest().restore(snapshot);
+        then(brain.snapshot()).containsExactly(snapshot);
+    }
+
+    @Test
+    public void reordered_brain_thinks_in_parallel_like_the_original() {
+        Random r = new Random(20200203);
+
+        for (int n = 0; n < 20; ++n) {
+            int size = 10 + r.nextInt(300);
+            Brain original = random(new Random(n), size, true), reordered = random(new Random(n), size, true);
+            int cell = r.nextInt(size), resistance = 1 + r.nextInt(3);
+            original.resistance(cell, resistance); reordered.resistance(cell, resistance);
+            reordered.reorder();
+
+            for (int step = 0; step < 5; ++step) {
+                int[] input = r.ints(1 + r.nextInt(5), 0, size).toArray();
+                original.propagation(Propagation.PARALLEL).rest().activate(input);
+                reordered.propagation(Propagation.PARALLEL).rest().activate(input);
+
+                then(reordered.think(Budget.passes(100)).passes)
+                    .isEqualTo(original.think(Budget.passes(100)).passes);
+                then(reordered.snapshot()).containsExactly(original.snapshot());
+                then(reordered.isSettled()).isEqualTo(original.isSettled());
+            }
+        }
+    }
+
+    @Test
+    public void reordered_brain_visits_cells_in_the_new_order() {
+        Random r = new Random(20200206);
+
+        for (int n = 0; n < 20; ++n) {
+            int size = 10 + r.nextInt(300);
+            Brain brain = random(r, size, true).reorder();
+
+            int[] input = r.ints(1 + r.nextInt(5), 0, size).toArray();
+            Thought sweep = brain.propagation(Propagation.SWEEP).rest().activate(input).think(Budget.passes(100));
+            long[] expected = brain.snapshot();
+            Thought frontier = brain.propagation(Propagation.FRONTIER).rest().activate(input).think(Budget.passes(100));
+            then(frontier.passes).isEqualTo(sweep.passes);
+            then(brain.snapshot()).containsExactly(expected);
+
+            then(brain.rest().update(input, new int[0], Budget.passes(100)).passes).isEqualTo(sweep.passes);
+            then(brain.snapshot()).containsExactly(expected);
+
+            if (sweep.isSettled()) {
+                then(brain.thinkBatch(new int[][] {input, {0}}, Budget.passes(100))[0]).containsExactly(expected);
+            }
+        }
+    }
+
+    @Test
+    public void reordered_brain_settles_to_the_same_closure() {
+        //
+        // with promoters only and resistance 1 the only fixed point reachable
+        // is the set of cells connected to the input, whatever the order
+        //
+        Random r = new Random(20200207);
+
+        for (int n = 0; n < 20; ++n) {
+            int size = 10 + r.nextInt(300);
+            Brain original = new Brain(size), reordered = new Brain(size);
+            for (int i = r.nextInt(2*size); i > 0; --i) {
+                int a = r.nextInt(size), b = r.nextInt(size);
+                original.promoter(a, b); reordered.promoter(a, b);
+            }
+            reordered.reorder();
+
+            int[] input = r.ints(1 + r.nextInt(5), 0, size).toArray();
+            original.activate(input).think();
+            reordered.activate(input).think();
+            then(reordered.snapshot()).containsExactly(original.snapshot());
+            then(reordered.thinkBatch(new int[][] {input})[0]).containsExactly(original.snapshot());
+        }
+    }
+
+    @Test
+    public void reordered_brain_learns_like_the_original() {
+        Random r = new Random(20200204);
+
+        for (int n = 0; n < 20; ++n) {
+            int size = 10 + r.nextInt(200);
+            Brain original = new Brain(size, 2), reordered = new Brain(size, 2);
+            for (int i = r.nextInt(3*size); i > 0; --i) {
+                int a = r.nextInt(size), b = r.nextInt(size);
+                original.promoter(a, b); reordered.promoter(a, b);
+            }
+            original.propagation(Propagation.PARALLEL);
+            reordered.propagation(Propagation.PARALLEL).reorder();
+
+            BrainTrainer originalTrainer = new BrainTrainer(original);
+            BrainTrainer reorderedTrainer = new BrainTrainer(reordered);
+            for (int step = 0; step < 20; ++step) {
+                int[] input = r.ints(1 + r.nextInt(5), 0, size).toArray();
+                int[] ons = r.ints(1 + r.nextInt(3), 0, size).toArray();
+                int[] offs = r.ints(r.nextInt(3), 0, size).toArray();
+
+                original.rest().activate(input).think(Budget.passes(100));
+                reordered.rest().activate(input).think(Budget.passes(100));
+                then(reordered.snapshot()).containsExactly(original.snapshot());
+
+                originalTrainer.learn(ons, offs);
+                reorderedTrainer.learn(ons, offs);
+
+                if (step == 10) {
+                    reordered.reorder();
+                }
+            }
+
+            then(connections(reordered)).isEqualTo(connections(original));
+        }
+    }
+
+    @Test
+    public void reordered_brain_trains_like_the_original() {
+        Random r = new Random(20200205);
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            samples.add(new Sample(
+                r.ints(1 + r.nextInt(4), 0, 100).toArray(),
+                r.ints(r.nextInt(3), 0, 100).toArray(),
+                r.ints(r.nextInt(3), 0, 100).toArray()
+            ));
+        }
+
+        Brain original = new Brain(100), reordered = new Brain(100);
+        for (int i = 0; i < 100; ++i) {
+            original.promoter(i, (i * 37) % 100); reordered.promoter(i, (i * 37) % 100);
+        }
+        original.propagation(Propagation.PARALLEL);
+        reordered.propagation(Propagation.PARALLEL).reorder();
+
+        List<Epoch> expected = new Training(original).batch(16).train(samples, 2);
+        List<Epoch> epochs = new Training(reordered).batch(16).train(samples, 2);
+
+        for (int i = 0; i < 2; ++i) {
+            then(epochs.get(i).correct).isEqualTo(expected.get(i).correct);
+        }
+        then(connections(reordered)).isEqualTo(connections(original));
+        then(reordered.snapshot()).containsExactly(original.snapshot());
+    }
+
+    @Test
+    public void reordered_brain_image() throws IOException {
+        Brain brain = new Brain(10);
+        brain.promoter(0, 9).promoter(9, 3).promoter(3, 7).detractor(7, 1).activate(0, 7).reorder();
+
+        Path file = dir.resolve("brain.img");
+        BrainImage.write(brain, file);
+        Brain mapped = BrainImage.map(file).brain();
+
+        then(mapped.snapshot()).containsExactly(brain.snapshot());
+        then(mapped.cells[9].promoters).containsExactlyInAnyOrder(mapped.cells[0], mapped.cells[3]);
+        then(mapped.think().passes).isEqualTo(brain.think().passes);
+        then(mapped.snapshot()).containsExactly(brain.snapshot());
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    /**
+     * @return the highest distance between the indices of two connected cells
+     */
+    private int bandwidth(Topology t) {
+        int max = 0;
+        for (int i = 0; i < t.size; ++i) {
+            for (int k = t.promoterOffsets.get(i); k < t.promoterOffsets.get(i+1); ++k) {
+                max = Math.max(max, Math.abs(t.promoters.get(k) - i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the connections of each cell by cell index, as text
+     */
+    private List<String> connections(Brain brain) {
+        List<String> connections = new ArrayList<>();
+        for (BrainCell cell: brain.cells) {
+            List<Integer> promoters = new ArrayList<>(), detractors = new ArrayList<>();
+            cell.promoters.forEach(c -> promoters.add(c.index));
+            cell.detractors.forEach(c -> detractors.add(c.index));
+            promoters.sort(null);
+            detractors.sort(null);
+            connections.add(cell.index + ": " + promoters + " " + detractors);
+        }
+        return connections;
+    }
+}
@@ -0,0 +1,257 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.random;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Random;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A brain split in shards thinks in rounds, shards exchanging the changes of
+ * the cells connected to other shards, until they all settle.
+ */
+public class BugFreeShardedBrain {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void shards_own_all_cells_once() {
+        Brain brain = random(new Random(20200401), 1000, false);
+
+        Partition partition = Partition.of(brain, 7);
+        then(partition.shards()).isEqualTo(7);
+        then(partition.from(0)).isZero();
+        then(partition.to(6)).isEqualTo(1000);
+        for (int s = 0; s < 7; ++s) {
+            then(partition.to(s)).isGreaterThan(partition.from(s));
+            if (s > 0) {
+                then(partition.from(s)).isEqualTo(partition.to(s-1));
+            }
+            Shard shard = partition.shard(s);
+            then(shard.from()).isEqualTo(partition.from(s));
+            then(shard.to()).isEqualTo(partition.to(s));
+            then(partition.owner(shard.from())).isEqualTo(s);
+            then(partition.owner(shard.to() - 1)).isEqualTo(s);
+        }
+
+        then(Partition.of(new Brain(3), 3).to(0)).isEqualTo(1);
+    }
+
+    @Test
+    public void sharded_brain_activates_what_the_brain_activates() {
+        //
+        // with promoters only, activation just spreads: whatever the order,
+        // the same cells end up active
+        //
+        Random r = new Random(20200402);
+        for (int n = 0; n < 20; ++n) {
+            Brain brain = random(r, 50 + r.nextInt(500), false);
+            if (n % 2 == 0) {
+                brain.reorder();
+            }
+            int[] input = r.ints(1 + r.nextInt(3), 0, brain.size).toArray();
+            brain.rest().activate(input).think();
+
+            Partition partition = Partition.of(brain, 1 + r.nextInt(5));
+            try (ShardedBrain sharded = new ShardedBrain(partition, local(partition))) {
+                then(sharded.activate(input).think().isSettled()).isTrue();
+                then(sharded.snapshot()).containsExactly(brain.snapshot());
+            }
+        }
+    }
+
+    @Test
+    public void sharded_brain_settles_to_a_fixed_point_of_the_brain() {
+        Random r = new Random(20200403);
+        int settled = 0;
+        for (int n = 0; n < 20; ++n) {
+            Brain brain = random(r, 50 + r.nextInt(500), true).reorder();
+            Partition partition = Partition.of(brain, 2 + r.nextInt(4));
+
+            try (ShardedBrain sharded = new ShardedBrain(partition, local(partition))) {
+                for (int step = 0; step < 5; ++step) {
+                    int[] input = r.ints(1 + r.nextInt(5), 0, brain.size).toArray();
+                    Thought thought = sharded.rest().activate(input).think();
+                    then(thought.outcome).isNotEqualTo(Thought.Outcome.EXHAUSTED);
+                    if (thought.isSettled()) {
+                        ++settled;
+                        //
+                        // no cell of the brain would change
+                        //
+                        brain.restore(sharded.snapshot());
+                        then(brain.think().passes).isZero();
+                        then(brain.snapshot()).containsExactly(sharded.snapshot());
+                    }
+                }
+            }
+        }
+        then(settled).isEqualTo(100);
+    }
+
+    @Test
+    public void boundary_changes_go_across_shards_in_rounds() {
+        Brain brain = new Brain(6);
+        brain.promoter(0, 1).promoter(1, 2).promoter(2, 3).promoter(3, 4).promoter(4, 5);
+
+        Partition partition = Partition.of(brain, 3);
+        then(partition.from(1)).isEqualTo(2);
+        then(partition.from(2)).isEqualTo(4);
+
+        try (ShardedBrain sharded = new ShardedBrain(partition, local(partition))) {
+            Thought thought = sharded.activate(0).think(Budget.passes(1));
+            then(thought.outcome).isEqualTo(Thought.Outcome.EXHAUSTED);
+            then(thought.passes).isEqualTo(1);
+            then(thought.flips).isEqualTo(1);
+            then(sharded.snapshot()).containsExactly(0b000011L);
+
+            thought = sharded.think();
+            then(thought.isSettled()).isTrue();
+            then(thought.passes).isEqualTo(2);
+            then(thought.edges).isPositive();
+            then(sharded.snapshot()).containsExactly(0b111111L);
+
+            then(sharded.rest().snapshot()).containsExactly(0L);
+        }
+    }
+
+    @Test
+    public void shards_think_in_alternate_rounds() {
+        //
+        // 1 and 2 inhibit themselves and promote each other: thinking at
+        // once, in different shards they would keep swapping at every round
+        //
+        Brain brain = new Brain(3);
+        brain.detractor(1, 1).detractor(2, 2).promoter(1, 2);
+
+        Partition partition = Partition.of(brain, 3);
+        try (ShardedBrain sharded = new ShardedBrain(partition, local(partition))) {
+            then(sharded.activate(2).think().isSettled()).isTrue();
+            brain.restore(sharded.snapshot());
+            then(brain.think().passes).isZero();
+        }
+    }
+
+    @Test
+    public void connected_shards_think_in_different_rounds() {
+        //
+        // 0 and 2 inhibit themselves and promote each other: thinking at
+        // once, in different shards they would keep swapping at every round
+        //
+        Brain brain = new Brain(3);
+        brain.detractor(0, 0).detractor(2, 2).promoter(0, 2);
+
+        Partition partition = Partition.of(brain, 3);
+        then(partition.colours()).containsExactly(0, 0, 1);
+        try (ShardedBrain sharded = new ShardedBrain(partition, local(partition))) {
+            Thought thought = sharded.activate(0).think();
+            then(thought.outcome).isEqualTo(Thought.Outcome.SETTLED);
+            brain.restore(sharded.snapshot());
+            then(brain.think().passes).isZero();
+        }
+    }
+
+    @Test
+    public void shards_are_coloured_by_their_connections() {
+        Brain brain = new Brain(8);
+        brain.promoter(0, 7).promoter(1, 2).detractor(3, 5).promoter(4, 4);
+
+        Partition partition = Partition.of(brain, 4);
+        then(partition.from(1)).isEqualTo(2);
+        then(partition.from(2)).isEqualTo(4);
+        then(partition.from(3)).isEqualTo(6);
+        //
+        // 0 - 3, 0 - 1, 1 - 2
+        //
+        then(partition.colours()).containsExactly(0, 1, 0, 1);
+    }
+
+    @Test
+    public void shards_cut_from_an_image() throws IOException {
+        Random r = new Random(20200405);
+        Brain brain = random(r, 400, false).reorder();
+        Path image = dir.resolve("brain.img");
+        BrainImage.write(brain, image);
+
+        //
+        // each shard maps the image on its own, as a process of its own would
+        //
+        Partition partition = Partition.of(BrainImage.map(image), 4);
+        Shard[] shards = new Shard[4];
+        for (int s = 0; s < 4; ++s) {
+            then(partition.from(s)).isEqualTo(Partition.of(brain, 4).from(s));
+            shards[s] = Partition.of(BrainImage.map(image), 4).shard(s);
+        }
+
+        try (ShardedBrain sharded = new ShardedBrain(partition, new LocalTransport(shards))) {
+            for (int step = 0; step < 10; ++step) {
+                int[] input = r.ints(1 + r.nextInt(3), 0, 400).toArray();
+                brain.rest().activate(input).think();
+                then(sharded.rest().activate(input).think().isSettled()).isTrue();
+                then(sharded.snapshot()).containsExactly(brain.snapshot());
+            }
+        }
+    }
+
+    @Test
+    public void shards_over_loopback_sockets() throws IOException {
+        Random r = new Random(20200404);
+        Brain brain = random(r, 300, false).reorder();
+        Partition partition = Partition.of(brain, 3);
+
+        ShardServer[] servers = new ShardServer[3];
+        InetSocketAddress[] addresses = new InetSocketAddress[3];
+        try {
+            for (int s = 0; s < 3; ++s) {
+                servers[s] = new ShardServer(partition.shard(s), 0);
+                addresses[s] = new InetSocketAddress(InetAddress.getLoopbackAddress(), servers[s].port());
+            }
+            try (ShardedBrain sharded = new ShardedBrain(partition, new SocketTransport(addresses))) {
+                for (int step = 0; step < 10; ++step) {
+                    int[] input = r.ints(1 + r.nextInt(3), 0, 300).toArray();
+                    brain.rest().activate(input).think();
+                    then(sharded.rest().activate(input).think().isSettled()).isTrue();
+                    then(sharded.snapshot()).containsExactly(brain.snapshot());
+                }
+            }
+        } finally {
+            for (ShardServer server: servers) {
+                if (server != null) {
+                    server.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void arguments_are_checked() {
+        Brain brain = new Brain(3);
+
+        thenThrownBy(() -> Partition.of(brain, 0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("shards must be between 1 and 3 (0)");
+        thenThrownBy(() -> Partition.of(brain, 4))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("shards must be between 1 and 3 (4)");
+
+        Partition partition = Partition.of(brain, 2);
+        thenThrownBy(() -> new ShardedBrain(partition, new LocalTransport(partition.shard(0))))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("transport reaches 1 shards instead of 2");
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private Transport local(Partition partition) {
+        Shard[] shards = new Shard[partition.shards()];
+        for (int s = 0; s < shards.length; ++s) {
+            shards[s] = partition.shard(s);
+        }
+        return new LocalTransport(shards);
+    }
+}
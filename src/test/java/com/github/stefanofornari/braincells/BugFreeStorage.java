@@ -0,0 +1,107 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.array;
+import java.util.Random;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A brain can keep its connections off-heap (Storage.OFF_HEAP): it works the
+ * same as a heap brain, without BrainCell objects, until it is closed.
+ */
+public class BugFreeStorage {
+
+    @Test
+    public void off_heap_brain_keeps_connections_in_direct_buffers() {
+        try (Brain brain = new Brain(5, 1, Storage.OFF_HEAP)) {
+            brain.promoter(3, 1).promoter(0, 1).promoter(1, 4).detractor(2, 0);
+
+            Topology t = brain.freeze();
+            then(t.promoters.isDirect()).isTrue();
+            then(t.promoterMasks.first.isDirect()).isTrue();
+            then(t.resistances.isDirect()).isTrue();
+            then(array(t.promoterOffsets)).containsExactly(0, 1, 4, 4, 5, 6);
+            then(array(t.promoters)).containsExactly(1, 0, 3, 4, 1, 1);
+            then(array(t.detractors)).containsExactly(2, 0);
+        }
+    }
+
+    @Test
+    public void off_heap_brain_has_cells_on_demand() {
+        try (Brain brain = new Brain(5, 1, Storage.OFF_HEAP)) {
+            brain.promoter(1, 2).detractor(1, 3).activate(1);
+
+            then(brain.cells).isEmpty();
+            then(brain.size).isEqualTo(5);
+            then(brain.cell(1)).isEqualTo(brain.cell(1)).isNotSameAs(brain.cell(1));
+            then(brain.cell(1).isActive()).isTrue();
+            then(brain.cell(1).promoters).containsExactly(brain.cell(2));
+            then(brain.cell(1).detractors).containsExactly(brain.cell(3));
+            then(brain.cell(2).promoters.contains(brain.cell(1))).isTrue();
+            then(brain.cell(2).promoters.contains(new Brain(5).cell(1))).isFalse();
+        }
+
+        Brain brain = new Brain(5);
+        then(brain.cell(3)).isSameAs(brain.cells[3]);
+    }
+
+    @Test
+    public void off_heap_brain_thinks_and_learns_like_a_heap_brain() {
+        Random r = new Random(20200126);
+
+        for (int n = 0; n < 20; ++n) {
+            int size = 10 + r.nextInt(300);
+            Brain heap = new Brain(size, 2);
+            try (Brain offHeap = new Brain(size, 2, Storage.OFF_HEAP)) {
+                for (int i = r.nextInt(5*size); i > 0; --i) {
+                    int a = r.nextInt(size), b = r.nextInt(size);
+                    if (r.nextInt(3) == 0) {
+                        heap.detractor(a, b); offHeap.detractor(a, b);
+                    } else {
+                        heap.promoter(a, b); offHeap.promoter(a, b);
+                    }
+                }
+                int cell = r.nextInt(size);
+                heap.resistance(cell, 1); offHeap.resistance(cell, 1);
+
+                BrainTrainer heapTrainer = new BrainTrainer(heap);
+                BrainTrainer offHeapTrainer = new BrainTrainer(offHeap);
+                for (int step = 0; step < 10; ++step) {
+                    int[] input = r.ints(1 + r.nextInt(5), 0, size).toArray();
+                    int[] ons = r.ints(1 + r.nextInt(3), 0, size).toArray();
+
+                    heap.rest().activate(input).think(Budget.passes(100));
+                    offHeap.rest().activate(input).think(Budget.passes(100));
+                    then(offHeap.snapshot()).containsExactly(heap.snapshot());
+
+                    heapTrainer.learn(ons, new int[0]);
+                    offHeapTrainer.learn(ons, new int[0]);
+                }
+
+                then(array(offHeap.freeze().promoters)).containsExactly(array(heap.freeze().promoters));
+                then(array(offHeap.freeze().detractors)).containsExactly(array(heap.freeze().detractors));
+                then(offHeap.thinkBatch(new int[][] {{0}, {1, 2}}))
+                    .isEqualTo(heap.thinkBatch(new int[][] {{0}, {1, 2}}));
+            }
+        }
+    }
+
+    @Test
+    public void closed_brain_can_not_be_used() {
+        Brain brain = new Brain(5, 1, Storage.OFF_HEAP);
+        brain.promoter(0, 1).freeze();
+
+        brain.close();
+        brain.close();
+
+        thenThrownBy(() -> brain.promoter(1, 2))
+            .isInstanceOf(IllegalStateException.class).hasMessage("brain is closed");
+        thenThrownBy(() -> brain.think())
+            .isInstanceOf(IllegalStateException.class).hasMessage("brain is closed");
+        thenThrownBy(() -> brain.resistance(0))
+            .isInstanceOf(IllegalStateException.class).hasMessage("brain is closed");
+        thenThrownBy(() -> brain.cell(0).promoters.size())
+            .isInstanceOf(IndexOutOfBoundsException.class);
+    }
+}
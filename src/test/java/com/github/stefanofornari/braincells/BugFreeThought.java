@@ -0,0 +1,121 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.thenBrainIs;
+import java.time.Duration;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * think() tells how the thinking ended: the brain settled, started
+ * oscillating or ran out of the given budget.
+ */
+public class BugFreeThought {
+
+    @ParameterizedTest
+    @EnumSource(Propagation.class)
+    public void think_settles(Propagation propagation) {
+        Brain brain = chain(propagation);
+
+        Thought thought = brain.think();
+
+        then(thought.outcome).isEqualTo(Thought.Outcome.SETTLED);
+        then(thought.isSettled()).isTrue();
+        then(thought.period).isZero();
+        then(thought.passes).isEqualTo(4);
+        thenBrainIs(brain, true, true, true, true, true);
+
+        thought = brain.think();
+        then(thought.isSettled()).isTrue();
+        then(thought.passes).isZero();
+    }
+
+    @ParameterizedTest
+    @EnumSource(Propagation.class)
+    public void think_runs_out_of_passes(Propagation propagation) {
+        Brain brain = chain(propagation);
+
+        Thought thought = brain.think(Budget.passes(2));
+
+        then(thought.outcome).isEqualTo(Thought.Outcome.EXHAUSTED);
+        then(thought.passes).isEqualTo(2);
+        thenBrainIs(brain, false, false, true, true, true);
+        then(thought.toString()).isEqualTo("EXHAUSTED after 2 passes");
+    }
+
+    @ParameterizedTest
+    @EnumSource(Propagation.class)
+    public void think_runs_out_of_time(Propagation propagation) {
+        Brain brain = chain(propagation);
+
+        Thought thought = brain.think(Budget.timeout(Duration.ofNanos(1)));
+
+        then(thought.outcome).isEqualTo(Thought.Outcome.EXHAUSTED);
+        then(thought.passes).isEqualTo(1);
+    }
+
+    @Test
+    public void think_detects_oscillations() {
+        //
+        // 1 and 2 inhibit themselves and promote each other: in synchronous
+        // rounds they keep swapping
+        //
+        Brain brain = new Brain(3).propagation(Propagation.PARALLEL);
+        brain.detractor(1, 1).detractor(2, 2).promoter(1, 2).activate(2);
+
+        Thought thought = brain.think();
+
+        then(thought.outcome).isEqualTo(Thought.Outcome.OSCILLATING);
+        then(thought.period).isEqualTo(2);
+        then(thought.passes).isEqualTo(3);
+        then(thought.toString()).isEqualTo("OSCILLATING after 3 passes (period 2)");
+    }
+
+    @Test
+    public void convergence_detects_cycles_of_any_period() {
+        //
+        // 0b0 -> 0b1 and then 0b11 -> 0b111 -> 0b110 -> 0b100 -> 0b101 -> 0b11
+        //
+        long[] state = new long[] {0};
+        long[] cycle = new long[] {0b11, 0b111, 0b110, 0b100, 0b101};
+        Convergence convergence = new Convergence(Budget.UNLIMITED, state);
+
+        Thought thought = null;
+        for (int pass = 0; thought == null; ++pass) {
+            long s = (pass == 0) ? 0b1 : cycle[(pass - 1) % cycle.length];
+            for (long diff = s ^ state[0]; diff != 0; diff &= diff - 1) {
+                convergence.flip(Long.numberOfTrailingZeros(diff));
+            }
+            state[0] = s;
+            thought = convergence.pass(state);
+        }
+
+        then(thought.outcome).isEqualTo(Thought.Outcome.OSCILLATING);
+        then(thought.period).isEqualTo(5);
+    }
+
+    @Test
+    public void budget_must_be_positive() {
+        thenThrownBy(() -> Budget.passes(0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("passes must be greater than 0 (0)");
+        thenThrownBy(() -> Budget.timeout(Duration.ZERO))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("timeout must be greater than 0 (0ns)");
+        then(Budget.of(10, Duration.ofSeconds(1)).passes).isEqualTo(10);
+        then(Budget.of(10, Duration.ofSeconds(1)).nanos).isEqualTo(1000000000L);
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    /**
+     * 4 -> 3 -> 2 -> 1 -> 0: each pass of a sweep activates one more cell
+     */
+    private Brain chain(Propagation propagation) {
+        return new Brain(5).propagation(propagation)
+                   .promoter(4, 3).promoter(3, 2).promoter(2, 1).promoter(1, 0)
+                   .activate(4);
+    }
+}
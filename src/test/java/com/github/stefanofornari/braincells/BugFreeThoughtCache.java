@@ -0,0 +1,147 @@
+package com.github.stefanofornari.braincells;
+
+import java.util.Random;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A ThoughtCache remembers the state a brain settles to for recent input
+ * patterns and forgets everything as soon as the brain changes.
+ */
+public class BugFreeThoughtCache {
+
+    @Test
+    public void repeated_patterns_are_not_thought_again() {
+        BrainMetrics metrics = new BrainMetrics();
+        Brain brain = new Brain(5).metrics(metrics);
+        brain.promoter(0, 1).promoter(1, 2).detractor(3, 4);
+
+        ThoughtCache cache = new ThoughtCache(brain, 10);
+
+        Thought thought = cache.think(0);
+        then(brain.snapshot()).containsExactly(0b00111L);
+        then(cache.misses()).isEqualTo(1);
+
+        cache.think(3);
+        then(brain.snapshot()).containsExactly(0b01000L);
+
+        then(cache.think(0)).isSameAs(thought);
+        then(brain.snapshot()).containsExactly(0b00111L);
+        then(cache.think(new int[] {0, 0}, Budget.UNLIMITED)).isSameAs(thought);
+        then(cache.hits()).isEqualTo(2);
+        then(cache.misses()).isEqualTo(2);
+        then(metrics.getThoughts()).isEqualTo(2);
+        then(cache.size()).isEqualTo(2);
+        then(cache.toString()).isEqualTo("2/10 patterns, 2 hits, 2 misses");
+
+        //
+        // the order of the cells does not matter
+        //
+        cache.think(3, 0);
+        then(cache.think(0, 3, 0)).isNotNull();
+        then(cache.hits()).isEqualTo(3);
+    }
+
+    @Test
+    public void cache_gives_the_same_results_as_thinking() {
+        Random r = new Random(20200310);
+        Brain brain = new Brain(200, 2), expected = new Brain(200, 2);
+        for (int i = 0; i < 1000; ++i) {
+            int a = r.nextInt(200), b = r.nextInt(200);
+            if (r.nextInt(3) == 0) {
+                brain.detractor(a, b); expected.detractor(a, b);
+            } else {
+                brain.promoter(a, b); expected.promoter(a, b);
+            }
+        }
+
+        ThoughtCache cache = new ThoughtCache(brain, 8);
+        int[][] patterns = new int[16][];
+        for (int i = 0; i < patterns.length; ++i) {
+            patterns[i] = r.ints(1 + r.nextInt(5), 0, 200).toArray();
+        }
+        for (int i = 0; i < 500; ++i) {
+            int[] input = patterns[r.nextInt(r.nextBoolean() ? 4 : patterns.length)];
+
+            Thought thought = cache.think(input, Budget.passes(50));
+            then(thought.passes).isEqualTo(expected.rest().activate(input).think(Budget.passes(50)).passes);
+            then(brain.snapshot()).containsExactly(expected.snapshot());
+        }
+        then(cache.hits()).isPositive();
+        then(cache.size()).isLessThanOrEqualTo(8);
+    }
+
+    @Test
+    public void least_recently_used_patterns_are_dropped() {
+        ThoughtCache cache = new ThoughtCache(new Brain(5), 2);
+
+        cache.think(0); cache.think(1); cache.think(0); cache.think(2);
+        then(cache.size()).isEqualTo(2);
+        then(cache.misses()).isEqualTo(3);
+
+        cache.think(0);
+        then(cache.hits()).isEqualTo(2);
+        cache.think(1);
+        then(cache.misses()).isEqualTo(4);
+    }
+
+    @Test
+    public void cache_is_dropped_when_the_brain_changes() {
+        Brain brain = new Brain(5, 2);
+        brain.promoter(0, 1);
+        ThoughtCache cache = new ThoughtCache(brain, 10);
+
+        cache.think(0); cache.think(0);
+        then(cache.hits()).isEqualTo(1);
+
+        brain.promoter(1, 2);
+        cache.think(0);
+        then(cache.misses()).isEqualTo(2);
+
+        brain.resistance(1, 1);
+        then(cache.think(0).passes).isEqualTo(1);
+        then(brain.snapshot()).containsExactly(0b011L);
+        then(cache.misses()).isEqualTo(3);
+
+        new BrainTrainer(brain).learn(new int[] {3}, new int[0]);
+        cache.think(0);
+        then(cache.misses()).isEqualTo(4);
+
+        brain.propagation(Propagation.PARALLEL);
+        cache.think(0);
+        then(cache.misses()).isEqualTo(5);
+
+        brain.reorder();
+        cache.think(0);
+        then(cache.misses()).isEqualTo(6);
+
+        cache.think(0);
+        then(cache.hits()).isEqualTo(2);
+        cache.clear();
+        then(cache.size()).isZero();
+    }
+
+    @Test
+    public void thoughts_that_did_not_settle_are_not_remembered() {
+        //
+        // the activation of 3 goes back one cell per pass
+        //
+        Brain brain = new Brain(4);
+        brain.promoter(0, 1).promoter(1, 2).promoter(2, 3);
+        ThoughtCache cache = new ThoughtCache(brain, 10);
+
+        then(cache.think(new int[] {3}, Budget.passes(1)).isSettled()).isFalse();
+        then(cache.size()).isZero();
+        then(cache.think(new int[] {3}, Budget.UNLIMITED).isSettled()).isTrue();
+        then(cache.misses()).isEqualTo(2);
+        then(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void capacity_must_be_positive() {
+        thenThrownBy(() -> new ThoughtCache(new Brain(1), 0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("capacity must be greater than 0 (0)");
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.array;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Once wired, a brain can be frozen into a Topology, a compact representation
+ * of its connections (compressed sparse row arrays). The brain can still be
+ * wired after freezing: new connections are staged and compacted in bulk.
+ */
+public class BugFreeTopology {
+
+    @Test
+    public void freeze_blank_brain() {
+        Topology t = new Brain(5).freeze();
+
+        then(t.size).isEqualTo(5);
+        then(t.connections()).isZero();
+        then(array(t.promoterOffsets)).containsExactly(0, 0, 0, 0, 0, 0);
+        then(array(t.detractorOffsets)).containsExactly(0, 0, 0, 0, 0, 0);
+    }
+
+    @Test
+    public void freeze_compacts_connections_sorted_by_index() {
+        Brain brain = new Brain(5);
+
+        brain.promoter(3, 1).promoter(0, 1).promoter(1, 4).detractor(2, 0);
+
+        Topology t = brain.freeze();
+
+        then(array(t.promoterOffsets)).containsExactly(0, 1, 4, 4, 5, 6);
+        then(array(t.promoters)).containsExactly(1, 0, 3, 4, 1, 1);
+        then(array(t.detractorOffsets)).containsExactly(0, 1, 1, 2, 2, 2);
+        then(array(t.detractors)).containsExactly(2, 0);
+        then(t.promoters(1)).isEqualTo(3);
+        then(t.detractors(1)).isZero();
+        then(t.connections()).isEqualTo(8);
+    }
+
+    @Test
+    public void freeze_ignores_duplicated_connections() {
+        Brain brain = new Brain(3);
+
+        brain.promoter(0, 1).promoter(1, 0).promoter(0, 1).promoter(2, 2);
+
+        Topology t = brain.freeze();
+        then(array(t.promoters)).containsExactly(1, 0, 2);
+        then(brain.cells[2].promoters).containsExactly(brain.cells[2]);
+
+        brain.promoter(1, 0);
+        then(brain.freeze()).isSameAs(t);
+    }
+
+    @Test
+    public void freeze_is_cached_until_wired_again() {
+        Brain brain = new Brain(4);
+
+        brain.promoter(0, 1);
+        Topology t1 = brain.freeze();
+        then(brain.freeze()).isSameAs(t1);
+
+        brain.promoter(2, 3);
+        then(brain.cells[2].promoters).containsExactly(brain.cells[3]);
+        then(brain.cells[0].promoters).containsExactly(brain.cells[1]);
+
+        Topology t2 = brain.freeze();
+        then(t2).isNotSameAs(t1);
+        then(array(t2.promoters)).containsExactly(1, 0, 3, 2);
+
+        //
+        // a frozen topology does not change
+        //
+        then(array(t1.promoters)).containsExactly(1, 0);
+    }
+
+    @Test
+    public void staged_and_compacted_connections_are_both_visible() {
+        Brain brain = new Brain(4);
+
+        brain.promoter(0, 1).freeze();
+        brain.promoter(0, 2).promoter(0, 3);
+
+        then(brain.cells[0].promoters).containsExactlyInAnyOrder(
+            brain.cells[1], brain.cells[2], brain.cells[3]
+        );
+        then(brain.cells[0].promoters).hasSize(3);
+        then(brain.cells[0].promoters.contains(brain.cells[3])).isTrue();
+        then(brain.cells[0].promoters.contains(new Brain(4).cells[3])).isFalse();
+    }
+
+    @Test
+    public void large_wiring_is_compacted_along_the_way() {
+        Brain brain = new Brain(100);
+
+        for (int i = 0; i < 100; ++i) {
+            for (int j = i+1; j < 100; j += 7) {
+                brain.promoter(i, j);
+            }
+        }
+
+        Topology t = brain.freeze();
+        for (int i = 0; i < 100; ++i) {
+            for (int k = t.promoterOffsets.get(i)+1; k < t.promoterOffsets.get(i+1); ++k) {
+                then(t.promoters.get(k)).isGreaterThan(t.promoters.get(k-1));
+            }
+            then(t.promoters(i)).isEqualTo(brain.cells[i].promoters.size());
+        }
+    }
+
+    @Test
+    public void potential_of_dense_and_sparse_cells() {
+        Brain brain = new Brain(300);
+
+        //
+        // cell 0 is densely connected to 128..191 and 200..255, cell 1 only to
+        // a handful of cells
+        //
+        for (int i = 128; i < 192; ++i) {
+            brain.promoter(0, i);
+        }
+        for (int i = 200; i < 256; ++i) {
+            brain.detractor(0, i);
+        }
+        brain.promoter(1, 2).promoter(1, 150).detractor(1, 299);
+
+        Topology t = brain.freeze();
+        then(t.promoterMasks.first.get(0)).isEqualTo(2);
+        then(t.detractorMasks.first.get(0)).isEqualTo(3);
+        then(t.promoterMasks.first.get(1)).isEqualTo(-1);
+
+        Activation a = new Activation(300);
+        then(t.potential(0, a)).isZero();
+
+        for (int i = 130; i < 210; ++i) {
+            a.set(i);
+        }
+        a.set(299);
+        then(t.potential(0, a)).isEqualTo(62 - 10);
+        then(t.potential(1, a)).isEqualTo(1 - 1);
+    }
+}
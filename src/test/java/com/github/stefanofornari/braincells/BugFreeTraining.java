@@ -0,0 +1,149 @@
+package com.github.stefanofornari.braincells;
+
+import static com.github.stefanofornari.braincells.Utils.array;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A Training streams samples (input, expected ons, expected offs) through a
+ * brain in mini-batches: each batch is thought in parallel on the frozen
+ * topology, then the trainer learns from each sample in order.
+ */
+public class BugFreeTraining {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void parse_samples() {
+        Sample s = Sample.parse("1 2 | 7 | 3, 4");
+
+        then(s.input).containsExactly(1, 2);
+        then(s.ons).containsExactly(7);
+        then(s.offs).containsExactly(3, 4);
+        then(s.toString()).isEqualTo("1 2 | 7 | 3 4");
+
+        s = Sample.parse(" 0 || ");
+        then(s.input).containsExactly(0);
+        then(s.ons).isEmpty();
+        then(s.offs).isEmpty();
+
+        thenThrownBy(() -> Sample.parse("1 2 | 7"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("a sample must be 'input | ons | offs' (1 2 | 7)");
+        thenThrownBy(() -> Sample.parse("1 x | 7 |"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("invalid cell in sample (1 x | 7 |)");
+    }
+
+    @Test
+    public void read_samples_from_file() throws IOException {
+        Path file = dir.resolve("samples.txt");
+        Files.write(file, List.of("# comment", "1 2 | 7 |", "", "4 5 | 9 | 7"));
+
+        Iterable<Sample> samples = Sample.lines(file);
+        for (int i = 0; i < 2; ++i) {
+            List<String> read = new ArrayList<>();
+            samples.forEach(s -> read.add(s.toString()));
+            then(read).containsExactly("1 2 | 7 | ", "4 5 | 9 | 7");
+        }
+    }
+
+    @Test
+    public void batches_of_one_are_the_same_as_learning_by_hand() {
+        Random r = new Random(20200112);
+
+        for (int n = 0; n < 20; ++n) {
+            int size = 10 + r.nextInt(100);
+            List<Sample> samples = samples(r, size, 50);
+
+            Brain brain = new Brain(size), expected = new Brain(size);
+            Epoch epoch = new Training(brain).batch(1).budget(Budget.passes(100)).epoch(samples.iterator());
+
+            BrainTrainer trainer = new BrainTrainer(expected);
+            int correct = 0;
+            for (Sample s: samples) {
+                expected.rest().activate(s.input).think(Budget.passes(100));
+                if (s.matches(expected.activation)) {
+                    ++correct;
+                }
+                trainer.learn(s.ons, s.offs);
+            }
+
+            then(epoch.samples).isEqualTo(samples.size());
+            then(epoch.correct).isEqualTo(correct);
+            then(array(brain.freeze().promoters)).containsExactly(array(expected.freeze().promoters));
+            then(array(brain.freeze().detractors)).containsExactly(array(expected.freeze().detractors));
+            then(brain.snapshot()).containsExactly(expected.snapshot());
+        }
+    }
+
+    @Test
+    public void result_does_not_depend_on_the_number_of_threads() {
+        Random r = new Random(20200113);
+        List<Sample> samples = samples(r, 500, 1000);
+
+        ForkJoinPool one = new ForkJoinPool(1), four = new ForkJoinPool(4);
+        try {
+            Brain b1 = new Brain(500), b4 = new Brain(500);
+            List<Epoch> e1 = new Training(b1).batch(64).pool(one).train(samples, 3);
+            List<Epoch> e4 = new Training(b4).batch(64).pool(four).train(samples, 3);
+
+            for (int i = 0; i < 3; ++i) {
+                then(e4.get(i).samples).isEqualTo(1000);
+                then(e4.get(i).correct).isEqualTo(e1.get(i).correct);
+            }
+            then(array(b4.freeze().promoters)).containsExactly(array(b1.freeze().promoters));
+            then(array(b4.freeze().detractors)).containsExactly(array(b1.freeze().detractors));
+        } finally {
+            one.shutdown(); four.shutdown();
+        }
+    }
+
+    @Test
+    public void accuracy_improves_with_training() {
+        //
+        // (1,2) -> 7 and (4,5) -> 9, as in BugFreeBrainCellsLearning
+        //
+        List<Sample> samples = List.of(
+            Sample.parse("1 2 | 7 | 9"), Sample.parse("4 5 | 9 | 7")
+        );
+
+        List<Epoch> epochs = new Training(new Brain(10)).batch(2).train(samples, 2);
+
+        then(epochs.get(0).accuracy()).isEqualTo(0.0);
+        then(epochs.get(1).accuracy()).isEqualTo(1.0);
+        then(epochs.get(1).throughput()).isPositive();
+        then(epochs.get(1).toString()).contains("2 samples, 100.00% accuracy");
+    }
+
+    @Test
+    public void batch_size_must_be_positive() {
+        thenThrownBy(() -> new Training(new Brain(1)).batch(0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("batch size must be greater than 0 (0)");
+    }
+
+    // --------------------------------------------------------- Private methods
+
+    private List<Sample> samples(Random r, int size, int count) {
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            samples.add(new Sample(
+                r.ints(1 + r.nextInt(4), 0, size).toArray(),
+                r.ints(r.nextInt(3), 0, size).toArray(),
+                r.ints(r.nextInt(3), 0, size).toArray()
+            ));
+        }
+        return samples;
+    }
+}
@@ -1,5 +1,7 @@
 package com.github.stefanofornari.braincells;
 
+import java.nio.IntBuffer;
+import java.util.Random;
 import static org.assertj.core.api.BDDAssertions.then;
 
 
@@ -12,9 +14,73 @@ public class Utils {
     public static void thenBrainIs(Brain brain, boolean... cells) {
         for(int i=0; i<cells.length; ++i) {
             System.out.print(i + " ");
-            then(brain.cells[i].active).isEqualTo(cells[i]);
+            then(brain.cells[i].isActive()).isEqualTo(cells[i]);
         }
         System.out.println("");
     }
-}
 
+    /**
+     * @return a brain of the given size wired at random, with up to three
+     *         connections per cell; one in three is a detractor if
+     *         detractors is true, all are promoters otherwise
+     */
+    public static Brain random(Random r, int size, boolean detractors) {
+        Brain brain = new Brain(size, 1 + r.nextInt(2));
+        for (int i = r.nextInt(3*size); i > 0; --i) {
+            int a = r.nextInt(size), b = r.nextInt(size);
+            if (detractors && (r.nextInt(3) == 0)) {
+                brain.detractor(a, b);
+            } else {
+                brain.promoter(a, b);
+            }
+        }
+        return brain;
+    }
+
+    /**
+     * @return the content of the given buffer, from 0 to its limit
+     */
+    public static int[] array(IntBuffer buffer) {
+        int[] array = new int[buffer.limit()];
+        for (int i = 0; i < array.length; ++i) {
+            array[i] = buffer.get(i);
+        }
+        return array;
+    }
+    
+    /**
+     * Plain sweep over the cells API, as a reference for the propagation
+     * modes: a cell activates when its potential reaches its resistance and
+     * de-activates when it falls to minus its resistance; the brain is not
+     * changed.
+     */
+    public static boolean settles(Brain brain, int passes) {
+        boolean[] active = new boolean[brain.cells.length];
+        for (int i = 0; i < active.length; ++i) {
+            active[i] = brain.cells[i].isActive();
+        }
+        
+        while (passes-- > 0) {
+            boolean again = false;
+            for (BrainCell cell: brain.cells) {
+                int potential = 0;
+                for (BrainCell pair: cell.promoters) {
+                    potential += active[pair.index] ? 1 : 0;
+                }
+                for (BrainCell pair: cell.detractors) {
+                    potential -= active[pair.index] ? 1 : 0;
+                }
+                int resistance = brain.resistance(cell.index);
+                if (active[cell.index] ? (potential <= -resistance) : (potential >= resistance)) {
+                    active[cell.index] = !active[cell.index];
+                    again = true;
+                }
+            }
+            if (!again) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+}